@@ -1,10 +1,14 @@
 import controller.MainController;
+import network.TCP.TCPServer;
+import network.UDP.DiscoveryConfig;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
 import ui.View;
 
+import java.net.UnknownHostException;
+
 public class Main {
 
     private static final Logger LOGGER = LogManager.getLogger(Main.class);
@@ -12,7 +16,7 @@ public class Main {
     /**
      * Main entry point for the ChatSystem application.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws UnknownHostException {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             LOGGER.info("Le programme est en train de s'arrêter...");
         }));
@@ -20,7 +24,9 @@ public class Main {
         Configurator.setRootLevel(Level.INFO);
         LOGGER.info("Starting ChatSystem Application");
 
-        MainController.initSession(4445, 4500);
+        TCPServer.Engine engine = TCPServer.Engine.valueOf(System.getProperty("agora.tcp.engine", "THREAD_PER_CONNECTION").toUpperCase());
+        DiscoveryConfig discovery = DiscoveryConfig.fromSystemProperties(4445);
+        MainController.initSession(discovery, 4500, engine);
         View.runGUI();
     }
 }
@@ -1,15 +1,27 @@
 package contacts;
 
 import database.DatabaseManager;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import java.net.InetAddress;
 import java.util.*;
 
 public class ActiveUserList {
 
-    private static final Logger LOGGER = LogManager.getLogger(ActiveUserList.class);
     private static ActiveUserList INSTANCE = new ActiveUserList();
 
+    /**
+    * Roster of the session, whose new users are saved in the database
+    */
+    private static final Roster ROSTER = new Roster() {
+        @Override
+        protected void added(User user) {
+            DatabaseManager.getInstance().addOrUpdateUser(
+                    user.getNickname(),
+                    user.getStringAddress(),
+                    user.getLastSeen()
+            );
+        }
+    };
+
     /**
     * Singleton instance of ActiveUserList
     */
@@ -17,103 +29,107 @@ public class ActiveUserList {
         return INSTANCE;
     }
 
-    /**
-    * HashSet to store all active users (ensures uniqueness)
-    */
-    public static HashSet<User> activeUsers = new HashSet<>();
-    private static boolean maj_users; // Tracks changes in the user list (new connection or disconnection)
-
     private ActiveUserList() {}
 
-    public static synchronized boolean getMaj_users() {
-        return maj_users;
+    /**
+    * Returns the roster of the session, whose lookups take no lock.
+    **/
+    public static Roster roster() {
+        return ROSTER;
+    }
+
+    public static boolean getMaj_users() {
+        return ROSTER.isChanged();
     }
-    public static synchronized void setMaj_users(boolean maj) {
-        maj_users = maj;
+    public static void setMaj_users(boolean maj) {
+        ROSTER.setChanged(maj);
     }
 
     /**
     * Adds a new user to the active user list.
     **/
-    public static synchronized void addUser(User sender) throws UserAlreadyExists {
-        if (nicknameUsed(sender.getNickname())) {
-            throw new UserAlreadyExists(sender.getNickname());
-        }
-        activeUsers.add(sender);
-        LOGGER.debug("User added: " + sender.getNickname());
-        LOGGER.debug("Active users: " + activeUsers);
-        DatabaseManager.getInstance().addOrUpdateUser(
-                sender.getNickname(),
-                sender.getStringAddress(),
-                sender.getLastSeen()
-        );
-        setMaj_users(true);
+    public static void addUser(User sender) throws UserAlreadyExists {
+        ROSTER.addUser(sender);
     }
 
     /**
     * Checks if a nickname is already in use by any active user.
     **/
-    public static synchronized boolean nicknameUsed(String name) {
-        LOGGER.debug("Checking nickname: " + name);
-        for (User user : activeUsers) {
-            if (user.getNickname().equals(name)) {
-                LOGGER.debug("Nickname found: " + name);
-                return true;
-            }
-        }
-        return false;
+    public static boolean nicknameUsed(String name) {
+        return ROSTER.nicknameUsed(name);
     }
 
     /**
     * Checks if a user exists in the active user list by comparing their IP and nickname.
     **/
     public static boolean userExists(User sender){
-        Iterator<User> iterator = activeUsers.iterator();
-        while (iterator.hasNext()) {
-            User user = iterator.next();
-            LOGGER.debug("Checking user: " + user.getNickname() + " (" + user.getIp_address() + ")");
-            if (user.getIp_address().equals(sender.getIp_address())) {
-                if (user.getNickname().equals(sender.getNickname())) {
-                    user.updateLastSeen();
-                    return true;
-                }
-                if (user.getLastSeen() < sender.getLastSeen()) {
-                    iterator.remove();
-                }
-            }
-        }
-        return false;
+        return ROSTER.userExists(sender);
     }
 
     /**
-    * Removes users from the active list if their lastSeen timestamp exceeds the specified timeout.
+    * Records an announcement newer than any other received from the address: refreshes the user announced,
+    * or replaces the user the address announced before when it renamed itself.
     **/
-    public static synchronized void removeInactiveUsers(int timeout) {
-        long now = System.currentTimeMillis();
-        synchronized (ActiveUserList.getInstance()) {
-            Iterator<User> iterator = activeUsers.iterator();
-            while (iterator.hasNext()) {
-                User user = iterator.next();
-                if (now - user.getLastSeen() > timeout) {
-                    iterator.remove();
-                    setMaj_users(true); // Protégé via synchronized
-                }
-            }
-        }
+    public static void announce(InetAddress address, String nickname) throws UserAlreadyExists {
+        ROSTER.announce(address, nickname);
+    }
+
+    /**
+    * Returns a digest of the active users, the same whatever the order they were added in.
+    **/
+    public static long digest() {
+        return ROSTER.digest();
+    }
+
+    /**
+    * Replaces the failure detector judging the users whose announcements are known well enough.
+    **/
+    public static void setDetector(PresenceDetector detector) {
+        ROSTER.setDetector(detector);
+    }
+
+    /**
+    * Removes the users gone offline: silent for longer than the specified timeout while too few of their announcements
+    * are known, else suspected offline by the failure detector. Users suspected away are marked so.
+    * Only the users whose deadline has come are checked.
+    **/
+    public static void removeInactiveUsers(long timeout) {
+        ROSTER.removeInactiveUsers(ROSTER.now(), timeout);
+    }
+
+    /**
+    * Removes the users gone offline at the given time, as told by the clock of the presence service.
+    **/
+    public static void removeInactiveUsers(long now, long timeout) {
+        ROSTER.removeInactiveUsers(now, timeout);
+    }
+
+    /**
+    * Removes the user announced by the given address under the given nickname, when it says goodbye.
+    **/
+    public static void removeUser(InetAddress address, String nickname) {
+        ROSTER.removeUser(address, nickname);
+    }
+
+    /**
+    * Returns the number of active users.
+    **/
+    public static int getActiveCount() {
+        return ROSTER.size();
     }
 
     /**
     * Returns a copy of all active users.
     **/
-    public static synchronized HashSet<User> getAllContacts() {
-        return new HashSet<>(activeUsers);
+    public static HashSet<User> getAllContacts() {
+        return ROSTER.getAll();
     }
 
     /**
     * Clears all active users and resets the database.
     **/
-    public synchronized void clear() {
-        activeUsers.clear();
+    public void clear() {
+        ROSTER.clear();
         DatabaseManager.getInstance().clearDatabase();
     }
 
@@ -121,18 +137,13 @@ public class ActiveUserList {
     * Replaces the activeUsers list with a new set of users.
     **/
     public static void setActiveUsers(HashSet<User> users) {
-        activeUsers = users;
+        ROSTER.setUsers(users);
     }
 
     /**
     * Finds the nickname associated with a given IP address.
     **/
-    public static synchronized String getNicknameByIp(String ipAddress) {
-        for (User user : activeUsers) {
-            if (user.getStringAddress().equals(ipAddress)) {
-                return user.getNickname();
-            }
-        }
-        return null;
+    public static String getNicknameByIp(String ipAddress) {
+        return ROSTER.getNicknameByIp(ipAddress);
     }
-}
\ No newline at end of file
+}
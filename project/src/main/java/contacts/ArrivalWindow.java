@@ -0,0 +1,63 @@
+package contacts;
+
+/**
+ * The last intervals between the announcements of one user, with their mean and standard deviation,
+ * kept up to date in O(1) as announcements arrive.
+ */
+public class ArrivalWindow {
+    public static final int CAPACITY = 100;
+
+    private final long[] intervals = new long[CAPACITY];
+    private int size;
+    private int next;
+    private double sum;
+    private double sumOfSquares;
+    private long last = Long.MIN_VALUE;
+
+    /**
+     * Records an announcement received at the given time.
+     */
+    public synchronized void record(long now) {
+        if (last != Long.MIN_VALUE && now > last) {
+            long interval = now - last;
+            if (size == CAPACITY) {
+                long oldest = intervals[next];
+                sum -= oldest;
+                sumOfSquares -= (double) oldest * oldest;
+            } else {
+                size++;
+            }
+            intervals[next] = interval;
+            next = (next + 1) % CAPACITY;
+            sum += interval;
+            sumOfSquares += (double) interval * interval;
+        }
+        last = now;
+    }
+
+    /**
+     * Returns the number of intervals known.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns when the last announcement was received.
+     */
+    public synchronized long last() {
+        return last;
+    }
+
+    public synchronized double mean() {
+        return size == 0 ? 0 : sum / size;
+    }
+
+    public synchronized double standardDeviation() {
+        if (size == 0) {
+            return 0;
+        }
+        double mean = sum / size;
+        return Math.sqrt(Math.max(0, sumOfSquares / size - mean * mean));
+    }
+}
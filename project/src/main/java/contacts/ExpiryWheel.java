@@ -0,0 +1,126 @@
+package contacts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hashed timing wheel of deadlines, counted in ticks of a fixed length. Scheduling is O(1), and advancing the wheel
+ * only visits the slots of the ticks that went by, so expiring costs in proportion to the deadlines due rather than
+ * to the number of items. Deadlines more than one turn away stay in their slot until the turn they are due.
+ * A deadline is rounded up to the tick it falls in, so an item is never called back before it, and at most a tick late.
+ * Items are never cancelled: when its deadline comes, the callback tells whether the item expires, moves to a later
+ * deadline or is dropped, so refreshing an item costs nothing. Not thread-safe.
+ */
+public class ExpiryWheel<T> {
+
+    /**
+     * Decides what happens to an item whose deadline has come.
+     */
+    @FunctionalInterface
+    public interface Deadline<T> {
+        /**
+         * Returns the next deadline of the item, or a negative value to remove it from the wheel.
+         */
+        long reached(T item, long now);
+    }
+
+    private static final class Entry<T> {
+        private final T item;
+        private long tick;
+        private Entry<T> next;
+
+        private Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    private final long tickMillis;
+    private final List<Entry<T>> slots;
+    private final int mask;
+    // Current tick, visited again by every advance so that deadlines already past are due at once
+    private long tick;
+    private int size;
+
+    /**
+     * Creates an empty wheel of the given number of slots (a power of two), each one tick long, starting at now.
+     */
+    public ExpiryWheel(long tickMillis, int slotCount, long now) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Slot count not a power of two: " + slotCount);
+        }
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(Collections.nCopies(slotCount, null));
+        this.mask = slotCount - 1;
+        this.tick = now / tickMillis;
+    }
+
+    /**
+     * Adds an item due at the given deadline; a deadline already past is due on the next advance.
+     */
+    public void schedule(T item, long deadline) {
+        insert(new Entry<>(item), deadline);
+        size++;
+    }
+
+    private void insert(Entry<T> entry, long deadline) {
+        entry.tick = Math.max(Math.ceilDiv(deadline, tickMillis), tick);
+        int slot = (int) (entry.tick & mask);
+        entry.next = slots.get(slot);
+        slots.set(slot, entry);
+    }
+
+    /**
+     * Visits the ticks up to now, calling back every item whose deadline has come.
+     */
+    public void advance(long now, Deadline<T> deadline) {
+        long target = now / tickMillis;
+        // After one turn every slot has been visited
+        for (long t = Math.max(tick, target - mask); t <= target; t++) {
+            tick = t;
+            int slot = (int) (t & mask);
+            // Detached, so that the items moved to this tick again wait for the next advance
+            Entry<T> entry = slots.get(slot);
+            slots.set(slot, null);
+            while (entry != null) {
+                Entry<T> next = entry.next;
+                if (entry.tick > t) {
+                    // Due on a later turn
+                    entry.next = slots.get(slot);
+                    slots.set(slot, entry);
+                } else {
+                    long following = deadline.reached(entry.item, now);
+                    if (following < 0) {
+                        size--;
+                    } else {
+                        insert(entry, following);
+                    }
+                }
+                entry = next;
+            }
+        }
+    }
+
+    /**
+     * Returns when the wheel next has deadlines to check, at the start of a tick after the current one,
+     * or Long.MAX_VALUE if the wheel is empty.
+     */
+    public long nextCheck() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        for (long t = tick; t < tick + slots.size(); t++) {
+            if (slots.get((int) (t & mask)) != null) {
+                return Math.max(t, tick + 1) * tickMillis;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the number of items in the wheel.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,115 @@
+package contacts;
+
+/**
+ * Phi-accrual failure detector: rather than a fixed timeout, tells how suspicious the silence of a user is,
+ * from the distribution of the intervals between its announcements. Phi is -log10 of the probability that an
+ * announcement comes this late, for a normal distribution of the intervals learned, shifted by a pause allowance of
+ * a number of missed announcements. A user on a lossy network learns a wider distribution and is suspected later,
+ * one on a steady network sooner.
+ * A user whose phi reaches the away threshold is shown as away, and removed once it reaches the offline threshold.
+ */
+public class PresenceDetector {
+
+    /**
+     * Away from phi 3 (1 chance in 1,000 of an announcement this late), offline from phi 8, three quarters of a missed
+     * announcement allowed, a standard deviation of at least 200 ms, and 8 intervals learned before the detector is trusted.
+     * When many nodes start together, the announce interval grows with the rosters during the first seconds: the fixed
+     * timeout judges the peers until 8 intervals are known, by when the interval has settled.
+     */
+    public static final PresenceDetector DEFAULT = new PresenceDetector(3, 8, 0.75, 200, 8);
+
+    private final double awayThreshold;
+    private final double offlineThreshold;
+    private final double acceptableMisses;
+    private final double minStandardDeviationMillis;
+    private final int minSamples;
+    // Deviations from the mean at which phi reaches each threshold
+    private final double awayDeviations;
+    private final double offlineDeviations;
+
+    public PresenceDetector(double awayThreshold, double offlineThreshold, double acceptableMisses,
+                            double minStandardDeviationMillis, int minSamples) {
+        if (awayThreshold <= 0 || offlineThreshold < awayThreshold) {
+            throw new IllegalArgumentException("Thresholds out of order: " + awayThreshold + ", " + offlineThreshold);
+        }
+        this.awayThreshold = awayThreshold;
+        this.offlineThreshold = offlineThreshold;
+        this.acceptableMisses = acceptableMisses;
+        this.minStandardDeviationMillis = minStandardDeviationMillis;
+        this.minSamples = Math.max(1, minSamples);
+        this.awayDeviations = deviations(awayThreshold);
+        this.offlineDeviations = deviations(offlineThreshold);
+    }
+
+    public double getAwayThreshold() {
+        return awayThreshold;
+    }
+
+    public double getOfflineThreshold() {
+        return offlineThreshold;
+    }
+
+    /**
+     * Returns whether enough intervals are known for the detector to judge the user.
+     */
+    public boolean knows(ArrivalWindow arrivals) {
+        return arrivals.size() >= minSamples;
+    }
+
+    /**
+     * Returns the suspicion level of the user at the given time.
+     */
+    public double phi(ArrivalWindow arrivals, long now) {
+        double mean = expected(arrivals);
+        double deviation = Math.max(arrivals.standardDeviation(), minStandardDeviationMillis);
+        return phi((now - arrivals.last() - mean) / deviation);
+    }
+
+    /**
+     * Returns when the user becomes away if it stays silent.
+     */
+    public long awayDeadline(ArrivalWindow arrivals) {
+        return deadline(arrivals, awayDeviations);
+    }
+
+    /**
+     * Returns when the user goes offline if it stays silent.
+     */
+    public long offlineDeadline(ArrivalWindow arrivals) {
+        return deadline(arrivals, offlineDeviations);
+    }
+
+    private long deadline(ArrivalWindow arrivals, double deviations) {
+        double deviation = Math.max(arrivals.standardDeviation(), minStandardDeviationMillis);
+        return arrivals.last() + (long) Math.ceil(expected(arrivals) + deviations * deviation);
+    }
+
+    private double expected(ArrivalWindow arrivals) {
+        return arrivals.mean() * (1 + acceptableMisses);
+    }
+
+    /**
+     * Phi of a delay of y standard deviations past the mean, with the logistic approximation of the normal distribution.
+     */
+    private static double phi(double y) {
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        return y > 0 ? -Math.log10(e / (1 + e)) : -Math.log10(1 - 1 / (1 + e));
+    }
+
+    /**
+     * Returns the deviations from the mean at which phi reaches the threshold, phi growing with the delay.
+     */
+    private static double deviations(double threshold) {
+        double low = -10;
+        double high = 40;
+        for (int i = 0; i < 100; i++) {
+            double middle = (low + high) / 2;
+            if (phi(middle) < threshold) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return high;
+    }
+}
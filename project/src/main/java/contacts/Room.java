@@ -0,0 +1,63 @@
+package contacts;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A group conversation: its id, its name and the IP addresses of its members, the creator included.
+ */
+public class Room {
+    private final String id;
+    private final String name;
+    private final List<String> members;
+
+    public Room(String id, String name, Collection<String> members) {
+        this.id = id;
+        this.name = name;
+        this.members = Collections.unmodifiableList(new ArrayList<>(new LinkedHashSet<>(members)));
+    }
+
+    /**
+     * Creates a room with a new unique id.
+     */
+    public static Room create(String name, Collection<String> members) {
+        return new Room(UUID.randomUUID().toString(), name, members);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getMembers() {
+        return members;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Room room)) return false;
+        return id.equals(room.id) && name.equals(room.name) && members.equals(room.members);
+    }
+
+    @Override
+    public int hashCode() {
+        return id.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Room{" +
+                "id='" + id + '\'' +
+                ", name='" + name + '\'' +
+                ", members=" + members +
+                '}';
+    }
+}
@@ -0,0 +1,73 @@
+package contacts;
+
+import database.DatabaseManager;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The group rooms this user is a member of, by room id.
+ * Rooms are learnt when created here or when their first message arrives, and kept in the database.
+ */
+public class RoomList {
+
+    private static final Logger LOGGER = LogManager.getLogger(RoomList.class);
+    private static final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private RoomList() {}
+
+    /**
+     * Loads the rooms stored by previous sessions.
+     */
+    public static void load() {
+        for (Room room : DatabaseManager.getRooms()) {
+            rooms.put(room.getId(), room);
+        }
+        LOGGER.debug("Rooms loaded: " + rooms.size());
+    }
+
+    /**
+     * Adds a room or updates its name and members; the database and the listeners are only touched on a change.
+     */
+    public static void addOrUpdate(Room room) {
+        Room previous = rooms.put(room.getId(), room);
+        if (room.equals(previous)) {
+            return;
+        }
+        DatabaseManager.addOrUpdateRoom(room);
+        LOGGER.debug("Room updated: " + room);
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns the room with the given id, or null.
+     */
+    public static Room getRoom(String id) {
+        return rooms.get(id);
+    }
+
+    /**
+     * Returns the rooms sorted by name.
+     */
+    public static List<Room> getAllRooms() {
+        List<Room> all = new ArrayList<>(rooms.values());
+        all.sort(Comparator.comparing(Room::getName));
+        return all;
+    }
+
+    /**
+     * Runs the listener, on the calling thread, every time a room is added or changed.
+     */
+    public static void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+}
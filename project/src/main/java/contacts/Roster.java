@@ -0,0 +1,427 @@
+package contacts;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * The users seen online by one node, with their presence deadlines. The session has one, behind ActiveUserList;
+ * simulations run one per virtual node, each on the clock given at creation.
+ * Users are indexed by nickname, which is unique, and by address, which leads to the user the address announced last,
+ * in two concurrent maps: lookups take no lock and cost O(1) from any thread. Neither do refreshes, by far the most
+ * common change, since a known user re-announcing only moves its own lastSeen. Arrivals, renames and departures are
+ * made under the roster lock, one at a time. A rename replaces the user of its address in one step, so the address
+ * never looks unknown meanwhile; for that instant both nicknames are found.
+ * Every change is also made to an immutable trie of the users, from which snapshot() publishes a new version with
+ * the users added, removed and renamed since the previous one, in time proportional to the changes.
+ * Presence deadlines are kept in a timing wheel, in ticks of 100 ms over 51.2 s. A user is refreshed by its lastSeen
+ * only: when its deadline comes, the wheel checks it and moves it further if it was seen since. Users known well
+ * enough are judged by the phi-accrual detector, away then offline; the others by the timeout of the last
+ * removeInactiveUsers, which applies to each user at its next deadline.
+ */
+public class Roster {
+    private static final Logger LOGGER = LogManager.getLogger(Roster.class);
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SLOTS = 512;
+    private static final long DEFAULT_TIMEOUT_MILLIS = 6000;
+
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, User> byNickname = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<InetAddress, User> byAddress = new ConcurrentHashMap<>();
+    private final Collection<User> users = Collections.unmodifiableCollection(byNickname.values());
+    // Guarded by the roster lock
+    private UserTrie trie = UserTrie.EMPTY;
+    private final HashSet<String> touched = new HashSet<>(); // Nicknames changed since the last snapshot
+    private RosterSnapshot published = RosterSnapshot.EMPTY;
+    private ExpiryWheel<User> expiries;
+    private long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+    private PresenceDetector detector = PresenceDetector.DEFAULT;
+    private volatile long digest;
+    private final AtomicBoolean changed = new AtomicBoolean(); // A user arrived, left or changed since the last publication
+
+    /**
+     * Creates an empty roster on the system clock.
+     */
+    public Roster() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * Creates an empty roster on the given clock.
+     */
+    public Roster(LongSupplier clock) {
+        this.clock = clock;
+        this.expiries = new ExpiryWheel<>(TICK_MILLIS, WHEEL_SLOTS, clock.getAsLong());
+    }
+
+    /**
+     * Returns the current time on the clock of the roster.
+     */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Called with every user added, under the roster lock.
+     */
+    protected void added(User user) {
+    }
+
+    /**
+     * Called with every user removed for its silence, under the roster lock.
+     */
+    protected void expired(User user) {
+    }
+
+    public boolean isChanged() {
+        return changed.get();
+    }
+
+    public void setChanged(boolean changed) {
+        this.changed.set(changed);
+    }
+
+    /**
+     * Adds a new user, unless its nickname is taken.
+     */
+    public synchronized void addUser(User sender) throws UserAlreadyExists {
+        if (byNickname.putIfAbsent(sender.getNickname(), sender) != null) {
+            throw new UserAlreadyExists(sender.getNickname());
+        }
+        byAddress.put(sender.getIp_address(), sender);
+        trie = trie.with(sender);
+        touched.add(sender.getNickname());
+        digest += hash(sender);
+        expiries.schedule(sender, sender.getLastSeen() + timeoutMillis);
+        LOGGER.debug("User added: " + sender.getNickname());
+        added(sender);
+        changed.set(true);
+    }
+
+    /**
+     * Checks if a nickname is already in use by any user.
+     */
+    public boolean nicknameUsed(String name) {
+        return byNickname.containsKey(name);
+    }
+
+    /**
+     * Returns the user of the given nickname, or null.
+     */
+    public User getByNickname(String nickname) {
+        return byNickname.get(nickname);
+    }
+
+    /**
+     * Returns the user the given address announced last, or null.
+     */
+    public User getByAddress(InetAddress address) {
+        return byAddress.get(address);
+    }
+
+    /**
+     * Checks if a user exists by comparing their IP and nickname, refreshing it if so, without the roster lock,
+     * and drops the older user of the same IP under another nickname.
+     */
+    public boolean userExists(User sender) {
+        User user = byNickname.get(sender.getNickname());
+        if (user != null && user.getIp_address().equals(sender.getIp_address())) {
+            refresh(user);
+            return true;
+        }
+        synchronized (this) {
+            return replaceOlder(sender);
+        }
+    }
+
+    private boolean replaceOlder(User sender) {
+        User user = byNickname.get(sender.getNickname());
+        if (user != null && user.getIp_address().equals(sender.getIp_address())) {
+            refresh(user); // Added meanwhile
+            return true;
+        }
+        User previous = byAddress.get(sender.getIp_address());
+        if (previous != null && previous.getLastSeen() < sender.getLastSeen()) {
+            remove(previous);
+        }
+        return false;
+    }
+
+    /**
+     * Records an announcement newer than any other received from the address: refreshes the user announced,
+     * or replaces the user the address announced before when it renamed itself. Refreshing the user the address
+     * announced last takes no lock.
+     */
+    public void announce(InetAddress address, String nickname) throws UserAlreadyExists {
+        User current = byNickname.get(nickname);
+        if (current != null && current.getIp_address().equals(address) && byAddress.get(address) == current) {
+            refresh(current);
+            return;
+        }
+        synchronized (this) {
+            change(address, nickname);
+        }
+    }
+
+    private void change(InetAddress address, String nickname) throws UserAlreadyExists {
+        User current = byNickname.get(nickname);
+        if (current != null && current.getIp_address().equals(address)) {
+            if (byAddress.get(address) != current) {
+                byAddress.put(address, current); // Another user of the address announced last
+            }
+            refresh(current);
+            return;
+        }
+        User previous = byAddress.get(address);
+        User user = new User(nickname, address, now());
+        if (previous == null) {
+            addUser(user);
+            return;
+        }
+        // The new nickname is claimed before the address moves to it, then the old one is released
+        if (byNickname.putIfAbsent(nickname, user) != null) {
+            throw new UserAlreadyExists(nickname);
+        }
+        byAddress.put(address, user);
+        byNickname.remove(previous.getNickname(), previous);
+        trie = trie.with(user).without(previous.getNickname());
+        touched.add(nickname);
+        touched.add(previous.getNickname());
+        digest += hash(user) - hash(previous);
+        expiries.schedule(user, user.getLastSeen() + timeoutMillis);
+        LOGGER.debug("User renamed: " + previous.getNickname() + " -> " + nickname);
+        added(user);
+        changed.set(true);
+    }
+
+    /**
+     * Records an announcement of the user, from any thread. A user marked away after the announcement is seen
+     * back here or by the deadline check, which reads lastSeen after writing away.
+     */
+    private void refresh(User user) {
+        user.updateLastSeen(now());
+        if (user.isAway()) {
+            user.setAway(false);
+            LOGGER.debug("User back: " + user.getNickname());
+            changed.set(true);
+        }
+    }
+
+    /**
+     * Removes a user from both indexes.
+     */
+    private void remove(User user) {
+        if (byNickname.remove(user.getNickname(), user)) {
+            byAddress.remove(user.getIp_address(), user);
+            trie = trie.without(user.getNickname());
+            touched.add(user.getNickname());
+            digest -= hash(user);
+            changed.set(true);
+        }
+    }
+
+    private static long hash(User user) {
+        long hash = 31L * user.getIp_address().hashCode() + user.getNickname().hashCode();
+        hash *= 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    /**
+     * Returns a digest of the users, the same whatever the order they were added in.
+     */
+    public long digest() {
+        return digest;
+    }
+
+    /**
+     * Replaces the failure detector judging the users whose announcements are known well enough.
+     */
+    public synchronized void setDetector(PresenceDetector detector) {
+        this.detector = detector;
+    }
+
+    /**
+     * Removes the users gone offline at the given time: silent for longer than the specified timeout while too few
+     * of their announcements are known, else suspected offline by the failure detector. Users suspected away are
+     * marked so. Only the users whose deadline has come are checked.
+     */
+    public synchronized void removeInactiveUsers(long now, long timeout) {
+        timeoutMillis = timeout;
+        expiries.advance(now, this::deadlineReached);
+    }
+
+    private long deadlineReached(User user, long now) {
+        if (byNickname.get(user.getNickname()) != user) {
+            return -1; // Left or renamed since
+        }
+        ArrivalWindow arrivals = user.getArrivals();
+        if (!detector.knows(arrivals)) {
+            if (now - user.getLastSeen() > timeoutMillis) {
+                return timedOut(user);
+            }
+            return user.getLastSeen() + timeoutMillis;
+        }
+        long seen = user.getLastSeen();
+        double phi = detector.phi(arrivals, now);
+        if (user.getLastSeen() != seen) {
+            return detector.awayDeadline(arrivals); // Refreshed meanwhile, without the lock
+        }
+        if (phi >= detector.getOfflineThreshold()) {
+            return timedOut(user);
+        }
+        boolean away = phi >= detector.getAwayThreshold();
+        if (away != user.isAway()) {
+            user.setAway(away);
+            if (away && user.getLastSeen() != seen) {
+                user.setAway(false);
+                return detector.awayDeadline(arrivals);
+            }
+            LOGGER.debug("User " + (away ? "away: " : "back: ") + user.getNickname());
+            changed.set(true);
+        }
+        return away ? detector.offlineDeadline(arrivals) : detector.awayDeadline(arrivals);
+    }
+
+    private long timedOut(User user) {
+        remove(user);
+        LOGGER.debug("User timed out: " + user.getNickname());
+        expired(user);
+        return -1;
+    }
+
+    /**
+     * Removes the user announced by the given address under the given nickname, when it says goodbye.
+     */
+    public synchronized void removeUser(InetAddress address, String nickname) {
+        User user = byNickname.get(nickname);
+        if (user != null && user.getIp_address().equals(address)) {
+            remove(user);
+            LOGGER.debug("User left: " + nickname);
+        }
+    }
+
+    /**
+     * Returns the number of users.
+     */
+    public int size() {
+        return byNickname.size();
+    }
+
+    /**
+     * Returns a copy of all users.
+     */
+    public HashSet<User> getAll() {
+        return new HashSet<>(users);
+    }
+
+    /**
+     * Returns a read-only view of the users, which may or may not show the changes made while it is iterated.
+     */
+    public Collection<User> users() {
+        return users;
+    }
+
+    /**
+     * Removes every user.
+     */
+    public synchronized void clear() {
+        touched.addAll(byNickname.keySet());
+        byNickname.clear();
+        byAddress.clear();
+        trie = UserTrie.EMPTY;
+        digest = 0;
+        expiries = new ExpiryWheel<>(TICK_MILLIS, WHEEL_SLOTS, now());
+    }
+
+    /**
+     * Replaces the users with the given ones, the last of a nickname or address winning.
+     */
+    public synchronized void setUsers(Collection<User> users) {
+        clear();
+        for (User user : users) {
+            User previous = byNickname.put(user.getNickname(), user);
+            if (previous != null) {
+                byAddress.remove(previous.getIp_address(), previous);
+                digest -= hash(previous);
+            }
+            byAddress.put(user.getIp_address(), user);
+            trie = trie.with(user);
+            touched.add(user.getNickname());
+            digest += hash(user);
+            expiries.schedule(user, user.getLastSeen() + timeoutMillis);
+        }
+    }
+
+    /**
+     * Returns the current version of the roster: the last one published if nothing changed since, else a new one
+     * with the changes since the last; a user who left and one who appeared at the same address count as a rename.
+     * Clears the changed flag.
+     */
+    public synchronized RosterSnapshot snapshot() {
+        boolean wasChanged = changed.getAndSet(false);
+        if (!wasChanged && touched.isEmpty()) {
+            return published;
+        }
+        UserTrie before = published.trie();
+        List<User> added = new ArrayList<>();
+        List<User> removed = new ArrayList<>();
+        for (String nickname : touched) {
+            User old = before.get(nickname);
+            User now = trie.get(nickname);
+            if (old != now) {
+                if (old != null) {
+                    removed.add(old);
+                }
+                if (now != null) {
+                    added.add(now);
+                }
+            }
+        }
+        touched.clear();
+        List<RosterSnapshot.Rename> renamed = new ArrayList<>();
+        if (!removed.isEmpty() && !added.isEmpty()) {
+            Map<InetAddress, User> left = new HashMap<>();
+            for (User user : removed) {
+                left.put(user.getIp_address(), user);
+            }
+            Iterator<User> arrivals = added.iterator();
+            while (arrivals.hasNext()) {
+                User user = arrivals.next();
+                User from = left.remove(user.getIp_address());
+                if (from != null) {
+                    removed.remove(from);
+                    arrivals.remove();
+                    renamed.add(new RosterSnapshot.Rename(from, user));
+                }
+            }
+        }
+        published = new RosterSnapshot(published.getVersion() + 1, published.getVersion(), trie,
+                List.copyOf(added), List.copyOf(removed), List.copyOf(renamed));
+        return published;
+    }
+
+    /**
+     * Finds the nickname last announced from the given IP address literal.
+     */
+    public String getNicknameByIp(String ipAddress) {
+        try {
+            User user = byAddress.get(InetAddress.getByName(ipAddress));
+            return user == null ? null : user.getNickname();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
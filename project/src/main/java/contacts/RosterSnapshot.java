@@ -0,0 +1,125 @@
+package contacts;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An immutable version of a roster, with the changes since the version before it. Versions share their unchanged
+ * parts, so a roster publishes one in time proportional to its changes, not to its users; a snapshot can be kept
+ * and iterated from any thread. The users themselves are shared too: their lastSeen and away state are the latest.
+ * An observer that applied version v applies the changes of the next snapshot if it follows v, and otherwise
+ * missed a version and rebuilds its view from the whole snapshot.
+ */
+public final class RosterSnapshot extends AbstractCollection<User> {
+
+    /**
+     * A user who announced a new nickname: the user under the old nickname, and the one under the new.
+     */
+    public record Rename(User from, User to) {}
+
+    /**
+     * The version of an empty roster, before any change.
+     */
+    public static final RosterSnapshot EMPTY = new RosterSnapshot(0, -1, UserTrie.EMPTY, List.of(), List.of(), List.of());
+
+    private final long version;
+    private final long previousVersion;
+    private final UserTrie users;
+    private final List<User> added;
+    private final List<User> removed;
+    private final List<Rename> renamed;
+
+    RosterSnapshot(long version, long previousVersion, UserTrie users, List<User> added, List<User> removed,
+                   List<Rename> renamed) {
+        this.version = version;
+        this.previousVersion = previousVersion;
+        this.users = users;
+        this.added = added;
+        this.removed = removed;
+        this.renamed = renamed;
+    }
+
+    /**
+     * Returns a snapshot of the given users, which follows no version: observers rebuild their view from it.
+     */
+    public static RosterSnapshot of(Collection<User> users) {
+        UserTrie trie = UserTrie.EMPTY;
+        for (User user : users) {
+            trie = trie.with(user);
+        }
+        return new RosterSnapshot(0, -1, trie, List.of(), List.of(), List.of());
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the version the changes of this snapshot apply to, or -1 if it carries no changes to apply.
+     */
+    public long getPreviousVersion() {
+        return previousVersion;
+    }
+
+    /**
+     * Returns whether the changes of this snapshot bring the given version up to this one.
+     */
+    public boolean follows(long version) {
+        return previousVersion >= 0 && previousVersion == version;
+    }
+
+    /**
+     * Returns the users who appeared since the previous version.
+     */
+    public List<User> getAdded() {
+        return added;
+    }
+
+    /**
+     * Returns the users who left since the previous version.
+     */
+    public List<User> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * Returns the users who changed nickname since the previous version.
+     */
+    public List<Rename> getRenamed() {
+        return renamed;
+    }
+
+    /**
+     * Returns the user of the given nickname in this version, or null.
+     */
+    public User get(String nickname) {
+        return users.get(nickname);
+    }
+
+    UserTrie trie() {
+        return users;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof User user && users.get(user.getNickname()) == user;
+    }
+
+    @Override
+    public Iterator<User> iterator() {
+        return users.iterator();
+    }
+
+    @Override
+    public int size() {
+        return users.size();
+    }
+
+    @Override
+    public String toString() {
+        return "RosterSnapshot{version=" + version + ", users=" + size() + ", added=" + added.size()
+                + ", removed=" + removed.size() + ", renamed=" + renamed.size() + '}';
+    }
+}
@@ -10,12 +10,22 @@ public class User {
 
     private String nickname;
     private InetAddress ip_address;
-    private long lastSeen; // Dernier moment où l'utilisateur a été vu
+    private volatile long lastSeen; // Dernier moment où l'utilisateur a été vu
+    private final ArrivalWindow arrivals = new ArrivalWindow(); // Intervals between the announcements of the user
+    private volatile boolean away; // Silent for longer than usual, not yet offline
 
     public User(String nickname, InetAddress ip_address) {
+        this(nickname, ip_address, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a user first seen at the given time, on the clock of its roster.
+     */
+    public User(String nickname, InetAddress ip_address, long seen) {
         this.nickname = nickname;
         this.ip_address = ip_address;
-        this.lastSeen = System.currentTimeMillis();
+        this.lastSeen = seen;
+        arrivals.record(lastSeen);
     }
 
     public String getNickname() {
@@ -39,7 +49,24 @@ public class User {
     }
 
     public void updateLastSeen() {
-        this.lastSeen = System.currentTimeMillis(); // Mettre à jour le dernier moment vu
+        updateLastSeen(System.currentTimeMillis()); // Mettre à jour le dernier moment vu
+    }
+
+    public void updateLastSeen(long now) {
+        this.lastSeen = now;
+        arrivals.record(lastSeen);
+    }
+
+    public ArrivalWindow getArrivals() {
+        return arrivals;
+    }
+
+    public boolean isAway() {
+        return away;
+    }
+
+    public void setAway(boolean away) {
+        this.away = away;
     }
 
     @Override
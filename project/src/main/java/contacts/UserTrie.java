@@ -0,0 +1,238 @@
+package contacts;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable map of users by nickname, as a hash array mapped trie: every node holds up to 32 users or child nodes,
+ * chosen by 5 bits of the nickname hash. Adding or removing a user copies only the nodes on its path, about
+ * log32(n) of them, and shares the rest with the previous map, so the versions of a roster cost little to keep.
+ */
+final class UserTrie implements Iterable<User> {
+
+    static final UserTrie EMPTY = new UserTrie(Node.EMPTY, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // Below this depth every bit of the hash is used: nicknames of the same hash share one flat node
+    private static final int MAX_SHIFT = 30;
+
+    private final Node root;
+    private final int size;
+
+    private UserTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    User get(String nickname) {
+        return root.get(hash(nickname), nickname, 0);
+    }
+
+    /**
+     * Returns the map with the user under its nickname, replacing the user of that nickname if any.
+     */
+    UserTrie with(User user) {
+        String nickname = user.getNickname();
+        int hash = hash(nickname);
+        Node updated = root.put(hash, user, 0);
+        if (updated == root) {
+            return this;
+        }
+        return new UserTrie(updated, root.get(hash, nickname, 0) == null ? size + 1 : size);
+    }
+
+    /**
+     * Returns the map without the user of the given nickname.
+     */
+    UserTrie without(String nickname) {
+        Node updated = root.remove(hash(nickname), nickname, 0);
+        return updated == root ? this : new UserTrie(updated, size - 1);
+    }
+
+    private static int hash(String nickname) {
+        int hash = nickname.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    @Override
+    public Iterator<User> iterator() {
+        return new Walk(root);
+    }
+
+    /**
+     * A node of the trie: the bitmap tells which of the 32 slots are used, and the used slots are packed in order,
+     * each a user or a child node. Past the last level, a node is a flat list of users of the same hash.
+     */
+    private static final class Node {
+        static final Node EMPTY = new Node(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        User get(int hash, String nickname, int shift) {
+            if (shift > MAX_SHIFT) {
+                for (Object slot : slots) {
+                    if (((User) slot).getNickname().equals(nickname)) {
+                        return (User) slot;
+                    }
+                }
+                return null;
+            }
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = slots[index(bit)];
+            if (slot instanceof Node child) {
+                return child.get(hash, nickname, shift + BITS);
+            }
+            User user = (User) slot;
+            return user.getNickname().equals(nickname) ? user : null;
+        }
+
+        Node put(int hash, User user, int shift) {
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < slots.length; i++) {
+                    if (((User) slots[i]).getNickname().equals(user.getNickname())) {
+                        return slots[i] == user ? this : new Node(0, replaced(i, user));
+                    }
+                }
+                Object[] grown = Arrays.copyOf(slots, slots.length + 1);
+                grown[slots.length] = user;
+                return new Node(0, grown);
+            }
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] grown = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, grown, 0, index);
+                grown[index] = user;
+                System.arraycopy(slots, index, grown, index + 1, slots.length - index);
+                return new Node(bitmap | bit, grown);
+            }
+            Object slot = slots[index];
+            if (slot instanceof Node child) {
+                Node updated = child.put(hash, user, shift + BITS);
+                return updated == child ? this : new Node(bitmap, replaced(index, updated));
+            }
+            User present = (User) slot;
+            if (present.getNickname().equals(user.getNickname())) {
+                return present == user ? this : new Node(bitmap, replaced(index, user));
+            }
+            // Two nicknames share the bits so far: both move one level down
+            Node child = EMPTY.put(hash(present.getNickname()), present, shift + BITS).put(hash, user, shift + BITS);
+            return new Node(bitmap, replaced(index, child));
+        }
+
+        Node remove(int hash, String nickname, int shift) {
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < slots.length; i++) {
+                    if (((User) slots[i]).getNickname().equals(nickname)) {
+                        return new Node(0, removed(i));
+                    }
+                }
+                return this;
+            }
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object slot = slots[index];
+            if (slot instanceof Node child) {
+                Node updated = child.remove(hash, nickname, shift + BITS);
+                if (updated == child) {
+                    return this;
+                }
+                if (updated.slots.length == 0) {
+                    return new Node(bitmap & ~bit, removed(index));
+                }
+                // A child left with one user is folded into its slot
+                Object kept = updated.slots.length == 1 && updated.slots[0] instanceof User ? updated.slots[0] : updated;
+                return new Node(bitmap, replaced(index, kept));
+            }
+            if (!((User) slot).getNickname().equals(nickname)) {
+                return this;
+            }
+            return new Node(bitmap & ~bit, removed(index));
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private Object[] replaced(int index, Object slot) {
+            Object[] copy = slots.clone();
+            copy[index] = slot;
+            return copy;
+        }
+
+        private Object[] removed(int index) {
+            Object[] shrunk = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, shrunk, 0, index);
+            System.arraycopy(slots, index + 1, shrunk, index, slots.length - index - 1);
+            return shrunk;
+        }
+    }
+
+    /**
+     * Depth-first walk over the users of a trie.
+     */
+    private static final class Walk implements Iterator<User> {
+        private final Node[] nodes = new Node[MAX_SHIFT / BITS + 2];
+        private final int[] positions = new int[nodes.length];
+        private int depth;
+        private User next;
+
+        Walk(Node root) {
+            nodes[0] = root;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                if (positions[depth] == node.slots.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = node.slots[positions[depth]++];
+                if (slot instanceof Node child) {
+                    depth++;
+                    nodes[depth] = child;
+                    positions[depth] = 0;
+                } else {
+                    next = (User) slot;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public User next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            User user = next;
+            advance();
+            return user;
+        }
+    }
+}
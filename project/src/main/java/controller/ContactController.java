@@ -1,19 +1,25 @@
 package controller;
 
 import contacts.ActiveUserList;
+import contacts.Roster;
 import contacts.User;
 import contacts.UserAlreadyExists;
+import network.EventBus;
+import network.NetworkEvent;
+import network.UDP.Announcement;
+import network.UDP.AnnouncementWriter;
 import network.UDP.UDPMessage;
-import network.UDP.UDPSender;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ui.authentification.LoginPanel;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class ContactController {
 
@@ -24,6 +30,21 @@ public class ContactController {
     private static final Logger LOGGER = LogManager.getLogger(ContactController.class);
     private static DatagramSocket socket;
 
+    /**
+    * Identifies this session in the binary announcements, numbered by sequence
+    **/
+    private static final AnnouncementWriter writer = new AnnouncementWriter();
+
+    // Text announcements are sent as well while users of older versions are heard from
+    private static final long LEGACY_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static volatile long lastLegacyAnnouncement = Long.MIN_VALUE / 2;
+
+    // How long to wait for the users already online at login, one announcement interval of a small network
+    private static final long FIRST_ROSTER_TIMEOUT_MILLIS = 4000;
+
+    // TCP port announced by each peer, by IP address
+    private static final Map<String, Integer> tcpPorts = new ConcurrentHashMap<>();
+
     /**
      * Constructor for initializing the socket
      */
@@ -43,69 +64,130 @@ public class ContactController {
      */
     public static synchronized void setNickname(String nickname) {
         ContactController.nickname = nickname;
+        writer.setNickname(nickname);
     }
 
     /**
      * Handles incoming contact discovery messages and adds users to the active list
      */
     public static void handleContactDiscoveryMessage(UDPMessage message) throws UserAlreadyExists {
+        handleContactDiscoveryMessage(ActiveUserList.roster(), message);
+    }
+
+    /**
+     * Handles incoming contact discovery messages and adds users to the given roster
+     */
+    public static void handleContactDiscoveryMessage(Roster roster, UDPMessage message) throws UserAlreadyExists {
         if (message.content().startsWith("cs_nickname=")) {
             // Extract the nickname
             String nickname = message.content().substring("cs_nickname=".length());
-            User sender = new User(nickname, message.origin());
-            synchronized (ActiveUserList.getInstance()) {
-                if (!ActiveUserList.userExists(sender)) {
-                    ActiveUserList.addUser(sender);
+            if (!nickname.equals(getNickname())) {
+                // Not our own text announcement coming back
+                lastLegacyAnnouncement = System.currentTimeMillis();
+            }
+            User sender = new User(nickname, message.origin(), roster.now());
+            synchronized (roster) {
+                if (!roster.userExists(sender)) {
+                    roster.addUser(sender);
                 }
             }
         }
+        else if (message.content().startsWith("cs_bye=")) {
+            roster.removeUser(message.origin(), message.content().substring("cs_bye=".length()));
+        }
         else{
             LOGGER.error("Format of the nickname is wrong, it should start with cs_nickname=");
         }
     }
 
     /**
-     * Sends the nickname as a broadcast message in the correct format
+     * Handles a binary announcement, already checked to be newer than any other of its sender, and remembers the
+     * TCP port it announced
+     */
+    public static void handleAnnouncement(InetAddress origin, byte type, String nickname, int tcpPort) throws UserAlreadyExists {
+        if (type == Announcement.HELLO && tcpPort != 0) {
+            tcpPorts.put(origin.getHostAddress(), tcpPort);
+        }
+        handleAnnouncement(ActiveUserList.roster(), origin, type, nickname);
+    }
+
+    /**
+     * Returns the TCP port the peer at the given IP address announced, or this session's own port for a peer
+     * that never announced one (text announcements carry none)
+     */
+    public static int getTcpPort(String ip) {
+        return tcpPorts.getOrDefault(ip, MainController.tcpPort);
+    }
+
+    /**
+     * Handles a binary announcement for the given roster, already checked to be newer than any other of its sender
+     */
+    public static void handleAnnouncement(Roster roster, InetAddress origin, byte type, String nickname) throws UserAlreadyExists {
+        if (type == Announcement.HELLO) {
+            roster.announce(origin, nickname);
+        } else {
+            roster.removeUser(origin, nickname);
+        }
+    }
+
+    /**
+     * Sends the nickname as a broadcast message in the correct format, on every network interface
      */
     public static synchronized void sendNickname() throws IOException {
-        String cs_nick = "cs_nickname=" + nickname;
-        InetAddress broadcastAddress = InetAddress.getByName("255.255.255.255"); // universal broadcast address
-        int port = 4445;
-        UDPSender.sendBroadcast(broadcastAddress, port, cs_nick);
+        announce(Announcement.HELLO, "cs_nickname=");
+    }
+
+    /**
+     * Tells the other users that this one is leaving
+     */
+    public static synchronized void sendGoodbye() throws IOException {
+        announce(Announcement.BYE, "cs_bye=");
+    }
+
+    /**
+     * Broadcasts a binary announcement with the next sequence number, followed by its text form if users of older versions are online
+     */
+    private static void announce(byte type, String legacyPrefix) throws IOException {
+        MainController.announcer.announce(writer.write(type, MainController.tcpPort, ActiveUserList.digest()));
+        if (System.currentTimeMillis() - lastLegacyAnnouncement < LEGACY_TIMEOUT_MILLIS) {
+            MainController.announcer.announce(legacyPrefix + nickname);
+        }
     }
 
     /**
-     * Attempts to change the nickname if it's not already in use
+     * Attempts to change the nickname if it's not already in use, and announces the new one at once
      */
     public static boolean changeNickname(String newNickname) throws UserAlreadyExists {
         if (!ActiveUserList.nicknameUsed(newNickname)) {
-            nickname = newNickname;
+            setNickname(newNickname);
+            if (MainController.presence != null) {
+                MainController.presence.announceNow();
+            }
             return true;
         }
         return false;
     }
 
     /**
-     * Scans for users sending "cs_nickname=<nickname>" and adds them to the active user list
+     * Waits until the presence service publishes the first roster with users online, or for timeoutMillis when
+     * nobody else is online. Returns at once if users are known already
      */
-    public static void addNewUsers(DatagramSocket socket, int timeout) throws UserAlreadyExists {
-        long begin = System.currentTimeMillis();
-
-        while (System.currentTimeMillis() - begin < timeout) {
-            byte[] buf = new byte[256];
-
-            DatagramPacket inPacket = new DatagramPacket(buf, buf.length);
-            try {
-                MainController.socket.setSoTimeout(timeout); // Sets a socket timeout
-                MainController.socket.receive(inPacket);
-            } catch (SocketTimeoutException e) {
-                break; // Exit the loop if the timeout is reached
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    public static void awaitFirstRoster(long timeoutMillis) {
+        CountDownLatch heard = new CountDownLatch(1);
+        // Subscribed before checking the roster, so that a user heard meanwhile is not missed
+        EventBus.Subscription subscription = EventBus.getInstance().subscribe("first-roster", event -> {
+            if (event.getType() == NetworkEvent.Type.PRESENCE && event.getActiveUsers().size() > 0) {
+                heard.countDown();
+            }
+        });
+        try {
+            if (ActiveUserList.getActiveCount() == 0) {
+                heard.await(timeoutMillis, TimeUnit.MILLISECONDS);
             }
-            String received = new String(inPacket.getData(), 0, inPacket.getLength());
-            UDPMessage rec_message = new UDPMessage(received, inPacket.getAddress());
-            ContactController.handleContactDiscoveryMessage(rec_message);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscription.close();
         }
     }
 
@@ -113,36 +195,25 @@ public class ContactController {
      * Retrieves a user from the active list based on their nickname
      */
     public static User getUserFromNickname(String nickname) {
-        for (User user : ActiveUserList.activeUsers) {
-            if (user.getNickname().equals(nickname)) {
-                return user;
-            }
-        }
-        return null;
+        return nickname == null ? null : ActiveUserList.roster().getByNickname(nickname);
     }
 
     /**
      * Retrieves the IP address of a user based on their nickname
      */
     public static String getIpFromNickname(String nickname) {
-        for (User user : ActiveUserList.activeUsers) {
-            if (user.getNickname().equals(nickname)) {
-                return user.getIp_address().getHostAddress();
-            }
-        }
-        return null;
+        User user = getUserFromNickname(nickname);
+        return user == null ? null : user.getIp_address().getHostAddress();
     }
 
     /**
      * Allows the user to register with a unique nickname, checking existing users first
      */
     public static boolean inscription(String userNickname) throws IOException, UserAlreadyExists {
-        do {
-            addNewUsers(MainController.socket, 4000); // Scan for connected users
-            if (ActiveUserList.nicknameUsed(userNickname)) {
-                return false;
-            }
-        } while (ActiveUserList.nicknameUsed(userNickname));
+        awaitFirstRoster(FIRST_ROSTER_TIMEOUT_MILLIS); // Hear the users already online
+        if (ActiveUserList.nicknameUsed(userNickname)) {
+            return false;
+        }
 
         setNickname(userNickname);
         sendNickname();
@@ -1,23 +1,41 @@
 package controller;
 
+import contacts.RoomList;
 import contacts.User;
-import network.TCP.TCPSender;
+import network.TCP.FileTransferReceiver;
+import network.TCP.Outbox;
+import network.TCP.RoomFanout;
+import network.TCP.TCPConnectionPool;
 import network.TCP.TCPServer;
+import network.UDP.AnnouncePolicy;
+import network.UDP.Announcer;
+import network.UDP.DiscoveryConfig;
+import network.UDP.PresenceService;
+import network.UDP.PresenceTimer;
+import network.UDP.UDPServer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
 
 public class MainController {
 
     private static final Logger LOGGER = LogManager.getLogger(MainController.class);
 
-    public static TCPSender client;
+    public static TCPConnectionPool connections;
+    public static Outbox outbox;
+    public static RoomFanout rooms;
     public static TCPServer server;
+    public static FileTransferReceiver files;
     public static DatagramSocket socket;
+    public static UDPServer udpServer;
+    public static Announcer announcer;
+    public static PresenceService presence;
+    public static int tcpPort;
 
     /**
      * Returns the current DatagramSocket
@@ -27,19 +45,46 @@ public class MainController {
     }
 
     /**
-     * Initializes the session by setting up the UDP socket, TCP server, and TCP client
+     * Initializes the session by setting up the UDP socket, TCP server, and TCP client connection pool
      */
     public static void initSession(int port_udp, int port_tcp)
     {
-        // Setup socket for UDP
+        initSession(port_udp, port_tcp, TCPServer.Engine.THREAD_PER_CONNECTION);
+    }
+
+    /**
+     * Initializes the session with the given TCP server engine and broadcast discovery on the given UDP port
+     */
+    public static void initSession(int port_udp, int port_tcp, TCPServer.Engine engine)
+    {
+        initSession(DiscoveryConfig.broadcast(port_udp), port_tcp, engine);
+    }
+
+    /**
+     * Initializes the session with the given discovery and TCP server engine; file transfers are received as streams of the chat connections
+     */
+    public static void initSession(DiscoveryConfig discovery, int port_tcp, TCPServer.Engine engine)
+    {
+        tcpPort = port_tcp;
+        // Setup the UDP discovery, which handles the announcements of the other peers from now on
         try {
-            socket = new DatagramSocket(port_udp);
-        } catch (SocketException e) {
+            udpServer = new UDPServer(discovery, AnnouncePolicy.DEFAULT);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        socket = udpServer.getSocket();
+        announcer = discovery.announcer();
+        // Expires the silent peers from now on; announces once logged in, when there is a nickname to announce
+        presence = new PresenceService(PresenceTimer.system("presence"), AnnouncePolicy.DEFAULT,
+                ContactController::sendNickname, ContactController::sendGoodbye);
+        udpServer.setPresence(presence);
+        udpServer.start();
+        presence.start();
 
-        // Setup socket for TCP server
-        server = new TCPServer();
+        // Setup socket for TCP server, which receives files as streams next to the chat messages
+        server = TCPServer.create(engine);
+        files = new FileTransferReceiver();
+        server.setStreamHandler(files);
         Thread serverThread = new Thread(() -> server.start(port_tcp));
         serverThread.start();
         while (!server.isReady()) {
@@ -51,8 +96,16 @@ public class MainController {
             }
         }
 
-        // Setup socket for TCP client
-        client = new TCPSender();
+        // Setup the pool of TCP client connections, large enough to keep a connection to every member of a group
+        connections = new TCPConnectionPool(256, TimeUnit.MINUTES.toMillis(5));
+
+        // Setup the outbox, which also resends the messages left undelivered by the previous session
+        outbox = new Outbox(connections, ContactController::getTcpPort);
+        outbox.start();
+
+        // Setup the group rooms
+        RoomList.load();
+        rooms = new RoomFanout(connections, ContactController::getTcpPort);
     }
 
     /**
@@ -66,14 +119,18 @@ public class MainController {
     }
 
     /**
-     * Closes the session by stopping the TCP client, TCP server, and closing the UDP socket
+     * Closes the session by saying goodbye to the other users, stopping the outbox retries and room fan-out, closing the TCP client connections, stopping the TCP server, stopping the presence service, and closing the UDP discovery
      */
     public static void closeSession() {
-        client.stopConnection();
+        presence.stop();
+        outbox.close();
+        rooms.close();
+        connections.shutdown();
         server.stop();
         if (socket != null && !socket.isClosed()) {
             LOGGER.info("Closing socket on port: " + socket.getLocalPort());
-            socket.close();
+            udpServer.close();
         }
+        announcer.close();
     }
 }
\ No newline at end of file
@@ -1,45 +1,113 @@
 package controller;
 
+import contacts.Room;
+import contacts.RoomList;
 import database.DatabaseManager;
 import database.Message;
+import network.TCP.FileTransferSender;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.IOException;
+import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class TextingController {
 
     private static final Logger LOGGER = LogManager.getLogger(TextingController.class);
+    private static final ExecutorService FILE_TRANSFERS = Executors.newVirtualThreadPerTaskExecutor();
 
     /**
-     * Starts a connection with the given IP address and port 4500
+     * Opens (or reuses) the pooled connection with the given IP address, on the port it announced
      */
     public static void startWithPerson(String ip_dest)
     {
-        MainController.client.startConnection(ip_dest, 4500);
+        MainController.connections.get(ip_dest, ContactController.getTcpPort(ip_dest));
         LOGGER.info("Connected with " + ip_dest);
     }
 
     /**
-     * Ends the current connection
+     * Closes the pooled connection with the given IP address
      */
-    public static void endWithCurrentPerson()
+    public static void endWithPerson(String ip_dest)
     {
-        MainController.client.stopConnection();
-        LOGGER.info("Disconnected with " + MainController.client.getClientSocket().getInetAddress().toString());
+        MainController.connections.close(ip_dest, ContactController.getTcpPort(ip_dest));
+        LOGGER.info("Disconnected with " + ip_dest);
     }
 
     /**
-     * Sends a message through the client
+     * Sends a message to the given IP address through the outbox, which keeps it until the peer acknowledges it
      */
-    public static void sendMessage(String msg)
+    public static void sendMessage(String ip_dest, String msg)
     {
-        MainController.client.sendMessage(msg);
+        Message message = new Message(msg, new Date(), getLocalIPAddress(), ip_dest);
+        MainController.outbox.send(message);
+    }
+
+    /**
+     * Creates a group room with the given members and this device; members learn the room from its first message
+     */
+    public static Room createRoom(String name, Collection<String> memberIps)
+    {
+        List<String> members = new ArrayList<>(memberIps);
+        members.add(getLocalIPAddress());
+        Room room = Room.create(name, members);
+        RoomList.addOrUpdate(room);
+        LOGGER.info("Created room " + name + " with " + room.getMembers().size() + " members");
+        return room;
+    }
+
+    /**
+     * Records a message of a group room once and sends it to every member in the background
+     */
+    public static void sendToRoom(Room room, String msg)
+    {
+        Message message = new Message(msg, new Date(), getLocalIPAddress(), room.getId(), null, room.getId());
+        DatabaseManager.addMessage(message);
+        MainController.rooms.send(room, msg, message.getDate().getTime()).whenComplete((delivery, error) -> {
+            if (error != null) {
+                LOGGER.error("Room message not sent: " + error.getMessage());
+            } else if (!delivery.complete()) {
+                LOGGER.warn("Room message acknowledged by " + delivery.acknowledged() + " of " + delivery.members() + " members");
+            }
+        });
+    }
+
+    /**
+     * Retrieves the messages of the given group room
+     */
+    public static List<Message> getRoomMessages(String roomId) {
+        return DatabaseManager.getRoomMessages(roomId);
+    }
+
+    /**
+     * Sends a file to the given IP address as a stream of the connection on the port it announced, in the background.
+     * The future completes once the peer has stored the file and it is recorded in the history.
+     */
+    public static CompletableFuture<Void> sendFile(String ip_dest, Path file)
+    {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                long sent = new FileTransferSender().send(MainController.connections, ip_dest, ContactController.getTcpPort(ip_dest), file);
+                LOGGER.info("Sent " + file + " to " + ip_dest + " (" + sent + " bytes)");
+            } catch (IOException e) {
+                LOGGER.error("File not sent: " + e.getMessage());
+                throw new CompletionException(e);
+            }
+        }, FILE_TRANSFERS);
     }
 
     /**
@@ -50,9 +118,11 @@ public class TextingController {
     }
 
     /**
-     * Retrieves the local IP address of the device
+     * Retrieves the local IP address of the device: an IPv4 address if there is one,
+     * else a global IPv6 address, else a link-local IPv6 one (IPv6-only networks)
      */
     public static String getLocalIPAddress() {
+        InetAddress ipv6 = null;
         try {
             Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
             while (networkInterfaces.hasMoreElements()) {
@@ -61,15 +131,21 @@ public class TextingController {
                     Enumeration<InetAddress> inetAddresses = networkInterface.getInetAddresses();
                     while (inetAddresses.hasMoreElements()) {
                         InetAddress inetAddress = inetAddresses.nextElement();
-                        if (!inetAddress.isLoopbackAddress() && inetAddress.getHostAddress().contains(".")) {
+                        if (inetAddress.isLoopbackAddress()) {
+                            continue;
+                        }
+                        if (inetAddress instanceof Inet4Address) {
                             return inetAddress.getHostAddress();
                         }
+                        if (ipv6 == null || (ipv6.isLinkLocalAddress() && !inetAddress.isLinkLocalAddress())) {
+                            ipv6 = inetAddress;
+                        }
                     }
                 }
             }
         } catch (SocketException e) {
             e.printStackTrace();
         }
-        return null; // If no valid IP address is found
+        return ipv6 != null ? ipv6.getHostAddress() : null; // If no valid IP address is found
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package database;
 
+import contacts.Room;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -7,6 +8,7 @@ import java.io.File;
 import java.sql.*;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class DatabaseManager {
@@ -55,10 +57,60 @@ public class DatabaseManager {
                     data TEXT NOT NULL,
                     date INTEGER NOT NULL,
                     ip_address_source TEXT NOT NULL,
-                    ip_address_dest TEXT NOT NULL
+                    ip_address_dest TEXT NOT NULL,
+                    file_path TEXT,
+                    room_id TEXT
                 );
             """;
             stmt.execute(createTableSQLM);
+            // Databases created before file transfers and group rooms lack their columns
+            boolean hasFilePath = false;
+            boolean hasRoomId = false;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(Message)")) {
+                while (rs.next()) {
+                    hasFilePath |= "file_path".equals(rs.getString("name"));
+                    hasRoomId |= "room_id".equals(rs.getString("name"));
+                }
+            }
+            if (!hasFilePath) {
+                stmt.execute("ALTER TABLE Message ADD COLUMN file_path TEXT");
+            }
+            if (!hasRoomId) {
+                stmt.execute("ALTER TABLE Message ADD COLUMN room_id TEXT");
+            }
+            stmt.execute("CREATE INDEX IF NOT EXISTS message_room ON Message (room_id)");
+        } catch (SQLException e) {
+            throw new RuntimeException("Error initializing database", e);
+        }
+        // Create the outbox table if it does not exist
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            String createTableSQLO = """
+                CREATE TABLE IF NOT EXISTS Outbox (
+                    id INTEGER PRIMARY KEY AUTOINCREMENT,
+                    data TEXT NOT NULL,
+                    date INTEGER NOT NULL,
+                    ip_address_source TEXT NOT NULL,
+                    ip_address_dest TEXT NOT NULL,
+                    state TEXT NOT NULL,
+                    attempts INTEGER NOT NULL DEFAULT 0
+                );
+            """;
+            stmt.execute(createTableSQLO);
+        } catch (SQLException e) {
+            throw new RuntimeException("Error initializing database", e);
+        }
+        // Create the room table if it does not exist
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            String createTableSQLR = """
+                CREATE TABLE IF NOT EXISTS Room (
+                    id TEXT PRIMARY KEY,
+                    name TEXT NOT NULL,
+                    members TEXT NOT NULL
+                );
+            """;
+            stmt.execute(createTableSQLR);
         } catch (SQLException e) {
             throw new RuntimeException("Error initializing database", e);
         }
@@ -177,10 +229,11 @@ public class DatabaseManager {
         long date = message.getDate().getTime();
         String ipAddressSource = message.getIpSource();
         String ipAddressDest = message.getIpDest();
+        String filePath = message.getFilePath();
 
         String insertMessageSQL = """
-        INSERT INTO Message (data, date, ip_address_source, ip_address_dest)
-        VALUES (?, ?, ?, ?);
+        INSERT INTO Message (data, date, ip_address_source, ip_address_dest, file_path, room_id)
+        VALUES (?, ?, ?, ?, ?, ?);
     """;
 
         try (Connection conn = getConnection()) {
@@ -190,6 +243,8 @@ public class DatabaseManager {
                 pstmt.setLong(2, date);
                 pstmt.setString(3, ipAddressSource);
                 pstmt.setString(4, ipAddressDest);
+                pstmt.setString(5, filePath);
+                pstmt.setString(6, message.getRoomId());
                 pstmt.executeUpdate();
             }
         } catch (SQLException e) {
@@ -197,6 +252,132 @@ public class DatabaseManager {
         }
     }
 
+    /**
+     * Adds several messages to the Message table in one transaction, on a single connection.
+     */
+    public static void addMessages(List<Message> messages)
+    {
+        String insertMessageSQL = """
+        INSERT INTO Message (data, date, ip_address_source, ip_address_dest, file_path, room_id)
+        VALUES (?, ?, ?, ?, ?, ?);
+    """;
+
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(insertMessageSQL)) {
+                for (Message message : messages) {
+                    pstmt.setString(1, message.getData());
+                    pstmt.setLong(2, message.getDate().getTime());
+                    pstmt.setString(3, message.getIpSource());
+                    pstmt.setString(4, message.getIpDest());
+                    pstmt.setString(5, message.getFilePath());
+                    pstmt.setString(6, message.getRoomId());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error adding messages to database", e);
+        }
+    }
+
+    /**
+     * Adds a message to the Outbox table in the QUEUED state and returns its outbox id.
+     */
+    public static long addOutboxEntry(Message message)
+    {
+        String insertOutboxSQL = """
+        INSERT INTO Outbox (data, date, ip_address_source, ip_address_dest, state, attempts)
+        VALUES (?, ?, ?, ?, ?, 0);
+    """;
+
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(insertOutboxSQL, Statement.RETURN_GENERATED_KEYS)) {
+            pstmt.setString(1, message.getData());
+            pstmt.setLong(2, message.getDate().getTime());
+            pstmt.setString(3, message.getIpSource());
+            pstmt.setString(4, message.getIpDest());
+            pstmt.setString(5, OutboxEntry.State.QUEUED.name());
+            pstmt.executeUpdate();
+            try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                return keys.next() ? keys.getLong(1) : -1;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("Error adding message to outbox", e);
+        }
+    }
+
+    /**
+     * Updates the delivery state and attempt count of an outbox entry.
+     */
+    public static void updateOutboxEntry(long id, OutboxEntry.State state, int attempts)
+    {
+        String updateOutboxSQL = "UPDATE Outbox SET state = ?, attempts = ? WHERE id = ?";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(updateOutboxSQL)) {
+            pstmt.setString(1, state.name());
+            pstmt.setInt(2, attempts);
+            pstmt.setLong(3, id);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error updating outbox entry", e);
+        }
+    }
+
+    /**
+     * Deletes an outbox entry, once acknowledged. Its id is not reused: the table is AUTOINCREMENT.
+     */
+    public static void deleteOutboxEntry(long id)
+    {
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("DELETE FROM Outbox WHERE id = ?")) {
+            pstmt.setLong(1, id);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error deleting outbox entry", e);
+        }
+    }
+
+    /**
+     * Deletes the acknowledged outbox entries, and returns how many there were.
+     */
+    public static int deleteAckedOutboxEntries()
+    {
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement("DELETE FROM Outbox WHERE state = ?")) {
+            pstmt.setString(1, OutboxEntry.State.ACKED.name());
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException("Error deleting acknowledged outbox entries", e);
+        }
+    }
+
+    /**
+     * Retrieves the outbox entries not acknowledged yet, in sending order.
+     * Entries left SENT by a previous session are returned QUEUED: whether they arrived is unknown.
+     */
+    public static List<OutboxEntry> getUndeliveredOutboxEntries() {
+        List<OutboxEntry> entries = new ArrayList<>();
+        String sql = "SELECT * FROM Outbox WHERE state <> ? ORDER BY id";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, OutboxEntry.State.ACKED.name());
+            ResultSet rs = pstmt.executeQuery();
+            while (rs.next()) {
+                Message message = new Message(rs.getString("data"), new java.util.Date(rs.getLong("date")),
+                        rs.getString("ip_address_source"), rs.getString("ip_address_dest"));
+                entries.add(new OutboxEntry(rs.getLong("id"), message, OutboxEntry.State.QUEUED, rs.getInt("attempts")));
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Error retrieving outbox: " + e.getMessage());
+        }
+        return entries;
+    }
+
     /**
      * Displays all messages stored in the Message table.
      */
@@ -239,7 +420,8 @@ public class DatabaseManager {
                         rs.getString("data"),
                         new Date(rs.getLong("date")),
                         rs.getString("ip_address_source"),
-                        rs.getString("ip_address_dest")
+                        rs.getString("ip_address_dest"),
+                        rs.getString("file_path")
                 );
                 messages.add(message);
             }
@@ -255,7 +437,7 @@ public class DatabaseManager {
      * Retrieves messages exchanged between two IPs in either direction.
      */
     public static List<Message> getMessagesBetween(String ip1, String ip2) {
-        String sql = "SELECT * FROM Message WHERE (ip_address_source = ? AND ip_address_dest = ?) OR (ip_address_source = ? AND ip_address_dest = ?)";
+        String sql = "SELECT * FROM Message WHERE ((ip_address_source = ? AND ip_address_dest = ?) OR (ip_address_source = ? AND ip_address_dest = ?)) AND room_id IS NULL";
         List<Message> messages = new ArrayList<>();
 
         try (Connection conn = DatabaseManager.connect();
@@ -272,7 +454,40 @@ public class DatabaseManager {
                         rs.getString("data"),
                         new Date(rs.getLong("date")),
                         rs.getString("ip_address_source"),
-                        rs.getString("ip_address_dest")
+                        rs.getString("ip_address_dest"),
+                        rs.getString("file_path")
+                );
+                messages.add(message);
+            }
+
+        } catch (SQLException e) {
+            System.out.println("Error retrieving messages: " + e.getMessage());
+        }
+
+        return messages;
+    }
+
+    /**
+     * Retrieves the messages of a group room, in the order they were sent.
+     */
+    public static List<Message> getRoomMessages(String roomId) {
+        String sql = "SELECT * FROM Message WHERE room_id = ? ORDER BY date";
+        List<Message> messages = new ArrayList<>();
+
+        try (Connection conn = DatabaseManager.connect();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setString(1, roomId);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                Message message = new Message(
+                        rs.getString("data"),
+                        new Date(rs.getLong("date")),
+                        rs.getString("ip_address_source"),
+                        rs.getString("ip_address_dest"),
+                        rs.getString("file_path"),
+                        rs.getString("room_id")
                 );
                 messages.add(message);
             }
@@ -284,6 +499,39 @@ public class DatabaseManager {
         return messages;
     }
 
+    /**
+     * Adds a group room or replaces its name and members.
+     */
+    public static void addOrUpdateRoom(Room room) {
+        String sql = "INSERT OR REPLACE INTO Room (id, name, members) VALUES (?, ?, ?)";
+        try (Connection conn = getConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            pstmt.setString(1, room.getId());
+            pstmt.setString(2, room.getName());
+            pstmt.setString(3, String.join(",", room.getMembers()));
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            LOGGER.error("Error adding room to database: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Retrieves every stored group room.
+     */
+    public static List<Room> getRooms() {
+        List<Room> rooms = new ArrayList<>();
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT * FROM Room")) {
+            while (rs.next()) {
+                rooms.add(new Room(rs.getString("id"), rs.getString("name"), Arrays.asList(rs.getString("members").split(","))));
+            }
+        } catch (SQLException e) {
+            LOGGER.error("Error retrieving rooms: " + e.getMessage());
+        }
+        return rooms;
+    }
+
     /**
      * Converts a timestamp to a formatted string.
      */
@@ -298,7 +546,7 @@ public class DatabaseManager {
     **/
     public void clearDatabase() {
         try {
-            String[] tables = {"users", "message"};
+            String[] tables = {"users", "message", "outbox", "room"};
             for (String table : tables) {
                 String query = "DELETE FROM " + table;
                 try (PreparedStatement statement = conn.prepareStatement(query)) {
@@ -7,12 +7,30 @@ public class Message {
     private Date date;
     private String ipSource;
     private String ipDest;
+    private String filePath;
+    private String roomId;
 
     public Message(String data, Date date, String ipSource, String ipDest) {
+        this(data, date, ipSource, ipDest, null);
+    }
+
+    /**
+     * Creates a message referencing a transferred file; data holds the file name.
+     */
+    public Message(String data, Date date, String ipSource, String ipDest, String filePath) {
+        this(data, date, ipSource, ipDest, filePath, null);
+    }
+
+    /**
+     * Creates a message, sent to a group room when roomId is not null.
+     */
+    public Message(String data, Date date, String ipSource, String ipDest, String filePath, String roomId) {
         this.data = data;
         this.date = date;
         this.ipSource = ipSource;
         this.ipDest = ipDest;
+        this.filePath = filePath;
+        this.roomId = roomId;
     }
 
     public String getData() {
@@ -31,6 +49,24 @@ public class Message {
         return ipDest;
     }
 
+    /**
+     * Returns the path of the transferred file, or null for a text message.
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public boolean isFile() {
+        return filePath != null;
+    }
+
+    /**
+     * Returns the id of the group room of the message, or null for a one-to-one message.
+     */
+    public String getRoomId() {
+        return roomId;
+    }
+
     public void setData(String data) {
         this.data = data;
     }
@@ -46,4 +82,12 @@ public class Message {
     public void setIpDest(String ipDest) {
         this.ipDest = ipDest;
     }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public void setRoomId(String roomId) {
+        this.roomId = roomId;
+    }
 }
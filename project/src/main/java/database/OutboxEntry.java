@@ -0,0 +1,52 @@
+package database;
+
+/**
+ * A message waiting in the outbox, with its delivery state and the number of failed delivery attempts.
+ */
+public class OutboxEntry {
+
+    /**
+     * Delivery states: waiting to be sent, written to the peer, acknowledged by the peer.
+     */
+    public enum State {
+        QUEUED,
+        SENT,
+        ACKED
+    }
+
+    private final long id;
+    private final Message message;
+    private volatile State state;
+    private volatile int attempts;
+
+    public OutboxEntry(long id, Message message, State state, int attempts) {
+        this.id = id;
+        this.message = message;
+        this.state = state;
+        this.attempts = attempts;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+}
@@ -0,0 +1,394 @@
+package network;
+
+import contacts.RosterSnapshot;
+import contacts.User;
+import database.Message;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.invoke.VarHandle;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Carries message, presence and connection events from the network threads to the rest of the application.
+ * Events are written into a preallocated ring holding the last ringSize of them, and every subscriber reads them on
+ * its own thread, following its own sequence number. Publishers claim a sequence, then write its slot without any
+ * lock. A publisher waits for a subscriber that has not read the event it would replace, but for maxWait at most:
+ * a subscriber still that far behind is then lapped, and holds back the publishers again once it has caught up.
+ * So a stuck subscriber delays each network thread once, by maxWait, and never stalls them.
+ * Messages are never lost: a message overwritten before a subscriber read it is kept for that subscriber, which
+ * reads the kept messages in order with the ring. Presence and connection events it missed are skipped and counted
+ * as dropped, a later one superseding them. Slow work should still be handed over to another thread
+ * (Swing handlers use SwingUtilities.invokeLater).
+ */
+public class EventBus {
+    private static final Logger LOGGER = LogManager.getLogger(EventBus.class);
+    private static final int SPINS_BEFORE_WAITING = 100;
+
+    public static final int DEFAULT_RING_SIZE = 1024;
+    public static final long DEFAULT_MAX_WAIT_MILLIS = 50;
+
+    private static final EventBus INSTANCE = new EventBus(DEFAULT_RING_SIZE);
+
+    private final NetworkEvent[] ring;
+    private final int mask;
+    private final long maxWaitNanos;
+    private final AtomicLong laps = new AtomicLong();
+    // Sequence of the last claimed event
+    private final AtomicLong claimed = new AtomicLong(-1);
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition published = lock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * Returns the bus shared by the application.
+     */
+    public static EventBus getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates a bus whose ring holds ringSize events, a power of two, whose publishers wait for a lagging
+     * subscriber for the default time at most.
+     */
+    public EventBus(int ringSize) {
+        this(ringSize, DEFAULT_MAX_WAIT_MILLIS);
+    }
+
+    /**
+     * Creates a bus whose ring holds ringSize events, a power of two, whose publishers wait for a lagging
+     * subscriber for maxWaitMillis at most before lapping it.
+     */
+    public EventBus(int ringSize, long maxWaitMillis) {
+        if (ringSize < 1 || Integer.bitCount(ringSize) != 1) {
+            throw new IllegalArgumentException("ringSize must be a power of two");
+        }
+        ring = new NetworkEvent[ringSize];
+        for (int i = 0; i < ringSize; i++) {
+            ring[i] = new NetworkEvent();
+        }
+        mask = ringSize - 1;
+        maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    }
+
+    /**
+     * Publishes a received message.
+     */
+    public void publishMessage(Message message) {
+        publish(NetworkEvent.Type.MESSAGE, message, null, null, false);
+    }
+
+    /**
+     * Publishes the given users as the roster of active users. The users are copied, so the caller may keep modifying them.
+     */
+    public void publishPresence(Collection<User> activeUsers) {
+        publishPresence(RosterSnapshot.of(activeUsers));
+    }
+
+    /**
+     * Publishes a version of the roster of active users, as is since it is immutable.
+     */
+    public void publishPresence(RosterSnapshot roster) {
+        publish(NetworkEvent.Type.PRESENCE, null, roster, null, false);
+    }
+
+    /**
+     * Publishes that a connection to a peer was opened or lost.
+     */
+    public void publishConnection(String peer, boolean connected) {
+        publish(NetworkEvent.Type.CONNECTION, null, null, peer, connected);
+    }
+
+    private void publish(NetworkEvent.Type type, Message message, RosterSnapshot roster, String peer, boolean connected) {
+        long next = claimed.incrementAndGet();
+        NetworkEvent slot = ring[(int) (next & mask)];
+        long previous = next - ring.length;
+        if (previous >= 0) {
+            awaitSubscribers(previous);
+            // The publisher of the previous lap may still be writing the slot
+            for (int spin = 0; slot.sequence != previous; spin++) {
+                if (spin < SPINS_BEFORE_WAITING) {
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.parkNanos(1000);
+                }
+            }
+            keepMissed(slot, previous);
+        }
+        // A subscriber reading the slot meanwhile sees that it is rewritten
+        slot.writing = next;
+        VarHandle.storeStoreFence();
+        slot.set(type, message, roster, peer, connected);
+        slot.sequence = next;
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits until the subscribers have read the given event, or laps those that have not once maxWait is over.
+     */
+    private void awaitSubscribers(long sequence) {
+        if (sequence <= slowestSequence()) {
+            return;
+        }
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while (sequence > slowestSequence()) {
+            if (System.nanoTime() - deadline >= 0) {
+                lap(sequence);
+                return;
+            }
+            LockSupport.parkNanos(1000);
+        }
+    }
+
+    /**
+     * Stops waiting for the subscribers that have not read the given event yet.
+     */
+    private void lap(long sequence) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.sequence < sequence && subscription.gating.compareAndSet(true, false)) {
+                laps.incrementAndGet();
+                LOGGER.warn("Event handler {} is {} events behind, keeping only its messages until it catches up",
+                        subscription.thread.getName(), claimed.get() - subscription.sequence);
+            }
+        }
+    }
+
+    /**
+     * Keeps the message of the given slot for the subscribers that have not read it, before it is overwritten.
+     */
+    private void keepMissed(NetworkEvent slot, long sequence) {
+        if (slot.getType() != NetworkEvent.Type.MESSAGE) {
+            return;
+        }
+        for (Subscription subscription : subscriptions) {
+            if (subscription.sequence < sequence) {
+                subscription.missed.put(sequence, slot.getMessage());
+            }
+        }
+    }
+
+    private long slowestSequence() {
+        long slowest = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions) {
+            if (subscription.gating.get()) {
+                slowest = Math.min(slowest, subscription.sequence);
+            }
+        }
+        return slowest;
+    }
+
+    /**
+     * Returns the number of events published since the bus was created.
+     */
+    public long getPublishedCount() {
+        return claimed.get() + 1;
+    }
+
+    /**
+     * Returns how many times a subscriber too slow for the publishers was lapped.
+     */
+    public long getLapCount() {
+        return laps.get();
+    }
+
+    /**
+     * Starts delivering the events published from now on to the handler, on a dedicated thread.
+     */
+    public synchronized Subscription subscribe(String name, NetworkEventHandler handler) {
+        Subscription subscription = new Subscription(name, handler, claimed.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Delivers the received messages to a TCP observer.
+     */
+    public Subscription subscribeMessages(TCPObserver observer) {
+        return subscribe(observer.getClass().getSimpleName(), event -> {
+            if (event.getType() == NetworkEvent.Type.MESSAGE) {
+                observer.update(event.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Delivers the rosters of active users to a UDP observer.
+     */
+    public Subscription subscribePresence(UDPObserver observer) {
+        return subscribe(observer.getClass().getSimpleName(), event -> {
+            if (event.getType() == NetworkEvent.Type.PRESENCE) {
+                observer.update(event.getActiveUsers());
+            }
+        });
+    }
+
+    /**
+     * Waits until the event with the given sequence is published, or overwritten already.
+     */
+    private void waitFor(long sequence, Subscription subscription) throws InterruptedException {
+        NetworkEvent slot = ring[(int) (sequence & mask)];
+        for (int spin = 0; spin < SPINS_BEFORE_WAITING; spin++) {
+            if (slot.sequence >= sequence || !subscription.running) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        lock.lock();
+        waiting.incrementAndGet();
+        try {
+            while (slot.sequence < sequence && subscription.running) {
+                published.await(100, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            waiting.decrementAndGet();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A subscriber's thread, the sequence of the last event it has handled, and the messages it missed.
+     */
+    public class Subscription implements AutoCloseable {
+        private final NetworkEventHandler handler;
+        private final Thread thread;
+        // The event handed to the handler, rewritten for every event
+        private final NetworkEvent event = new NetworkEvent();
+        // Messages overwritten in the ring before this subscriber read them, by sequence
+        private final ConcurrentSkipListMap<Long, Message> missed = new ConcurrentSkipListMap<>();
+        private volatile long sequence;
+        private volatile boolean running = true;
+        // Whether the publishers wait for this subscriber; false once lapped, until it catches up
+        private final AtomicBoolean gating = new AtomicBoolean(true);
+        private volatile long dropped;
+
+        Subscription(String name, NetworkEventHandler handler, long sequence) {
+            this.handler = handler;
+            this.sequence = sequence;
+            this.thread = Thread.ofPlatform().name("event-" + name).daemon().unstarted(this::consume);
+        }
+
+        private void consume() {
+            long next = sequence + 1;
+            try {
+                while (running) {
+                    waitFor(next, this);
+                    Boolean read;
+                    while (running && (read = read(next)) != null) {
+                        if (read) {
+                            try {
+                                handler.onEvent(event);
+                            } catch (RuntimeException e) {
+                                LOGGER.error("Event handler {} failed: {}", thread.getName(), e.getMessage());
+                            }
+                        } else {
+                            dropped++;
+                        }
+                        sequence = next++;
+                        if (!gating.get() && claimed.get() - sequence <= mask / 2) {
+                            gating.set(true);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.debug("Event handler {} interrupted", thread.getName());
+            } finally {
+                subscriptions.remove(this);
+            }
+        }
+
+        /**
+         * Copies the event of the given sequence for the handler: returns true if it did, false if the event was
+         * overwritten and was not a message, or null if it is not published yet.
+         */
+        private Boolean read(long next) {
+            if (takeMissed(next)) {
+                return true;
+            }
+            NetworkEvent slot = ring[(int) (next & mask)];
+            long published = slot.sequence;
+            if (published < next) {
+                return null;
+            }
+            if (published == next) {
+                event.copy(slot);
+                VarHandle.acquireFence();
+                if (slot.writing == next) {
+                    event.sequence = next;
+                    return true;
+                }
+            }
+            // Overwritten: a message was kept before it was
+            return takeMissed(next);
+        }
+
+        private boolean takeMissed(long next) {
+            if (missed.isEmpty()) {
+                return false;
+            }
+            // Messages read from the ring before they were overwritten were kept anyway
+            missed.headMap(next).clear();
+            Message message = missed.remove(next);
+            if (message == null) {
+                return false;
+            }
+            event.set(NetworkEvent.Type.MESSAGE, message, null, null, false);
+            event.sequence = next;
+            return true;
+        }
+
+        /**
+         * Returns how many published events this subscriber has not handled yet.
+         */
+        public long getLag() {
+            return claimed.get() - sequence;
+        }
+
+        /**
+         * Returns how many presence and connection events this subscriber skipped because the publishers lapped it.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Stops delivering events; the publishers stop waiting for this subscriber.
+         */
+        @Override
+        public void close() {
+            running = false;
+            subscriptions.remove(this);
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (Thread.currentThread() != thread) {
+                try {
+                    thread.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
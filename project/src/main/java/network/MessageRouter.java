@@ -0,0 +1,84 @@
+package network;
+
+import database.Message;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Routes each received message to the observers of its conversation only, found in a dispatch table by the
+ * sender's address, or by the room id for group messages, so the cost of a message does not depend on how many
+ * conversations are open.
+ * The shared router reads the messages from the event bus on a single subscription.
+ */
+public class MessageRouter implements NetworkEventHandler {
+
+    private static MessageRouter instance;
+
+    private final Map<String, List<TCPObserver>> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the router fed by the application's event bus, subscribing it on first use.
+     */
+    public static synchronized MessageRouter getInstance() {
+        if (instance == null) {
+            instance = new MessageRouter();
+            EventBus.getInstance().subscribe("message-router", instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Delivers the messages received from the given peer address, or sent to the given room id, to the observer.
+     */
+    public void subscribe(String peer, TCPObserver observer) {
+        routes.compute(peer, (key, observers) -> {
+            List<TCPObserver> updated = observers != null ? observers : new CopyOnWriteArrayList<>();
+            if (!updated.contains(observer)) {
+                updated.add(observer);
+            }
+            return updated;
+        });
+    }
+
+    /**
+     * Stops delivering the messages of the given peer to the observer; the route is dropped with its last observer.
+     */
+    public void unsubscribe(String peer, TCPObserver observer) {
+        routes.computeIfPresent(peer, (key, observers) -> {
+            observers.remove(observer);
+            return observers.isEmpty() ? null : observers;
+        });
+    }
+
+    /**
+     * Hands the message to the observers of its sender and returns how many there were.
+     */
+    public int route(Message message) {
+        String conversation = message.getRoomId() != null ? message.getRoomId() : message.getIpSource();
+        List<TCPObserver> observers = routes.get(conversation);
+        if (observers == null) {
+            return 0;
+        }
+        for (TCPObserver observer : observers) {
+            observer.update(message);
+        }
+        return observers.size();
+    }
+
+    @Override
+    public void onEvent(NetworkEvent event) {
+        if (event.getType() == NetworkEvent.Type.MESSAGE) {
+            route(event.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of peers with at least one observer.
+     */
+    public int getRouteCount() {
+        return routes.size();
+    }
+}
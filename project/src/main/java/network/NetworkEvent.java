@@ -0,0 +1,85 @@
+package network;
+
+import contacts.RosterSnapshot;
+import database.Message;
+
+/**
+ * An event of the EventBus: a received message, a new roster of active users, or a connection opened or lost.
+ * The bus preallocates its events: each one is a slot of its ring, rewritten for every lap, or the copy a
+ * subscriber hands its handler, rewritten for every event. A handler may keep the message, roster or peer of an
+ * event, all immutable, but not the event itself once onEvent has returned.
+ */
+public final class NetworkEvent {
+
+    public enum Type {
+        MESSAGE,
+        PRESENCE,
+        CONNECTION
+    }
+
+    // Sequence of the event the slot holds, then of the event being written into it
+    volatile long sequence = -1;
+    volatile long writing = -1;
+    private Type type;
+    private Message message;
+    private RosterSnapshot activeUsers;
+    private String peer;
+    private boolean connected;
+
+    NetworkEvent() {
+    }
+
+    void set(Type type, Message message, RosterSnapshot activeUsers, String peer, boolean connected) {
+        this.type = type;
+        this.message = message;
+        this.activeUsers = activeUsers;
+        this.peer = peer;
+        this.connected = connected;
+    }
+
+    /**
+     * Copies the content of the given event; the caller checks that it was not rewritten meanwhile.
+     */
+    void copy(NetworkEvent event) {
+        set(event.type, event.message, event.activeUsers, event.peer, event.connected);
+    }
+
+    /**
+     * Returns the number of the event, from 0 for the first one published on its bus.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns the received message of a MESSAGE event.
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the active users of a PRESENCE event, an immutable snapshot safe to keep.
+     */
+    public RosterSnapshot getActiveUsers() {
+        return activeUsers;
+    }
+
+    /**
+     * Returns the address of the peer of a CONNECTION event.
+     */
+    public String getPeer() {
+        return peer;
+    }
+
+    /**
+     * Returns whether the connection of a CONNECTION event was opened (true) or lost (false).
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+}
@@ -0,0 +1,5 @@
+package network;
+
+public interface NetworkEventHandler {
+    void onEvent(NetworkEvent event);
+}
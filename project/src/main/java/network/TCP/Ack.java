@@ -0,0 +1,14 @@
+package network.TCP;
+
+/**
+ * Acknowledgement of a message by the peer, with the times it was sent and acknowledged (epoch milliseconds).
+ */
+public record Ack(long messageId, long sentAt, long ackedAt) {
+
+    /**
+     * Returns the time between sending the message and receiving its acknowledgement.
+     */
+    public long roundTripMillis() {
+        return ackedAt - sentAt;
+    }
+}
@@ -0,0 +1,46 @@
+package network.TCP;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * Remembers the last outbox message ids delivered from each peer, so that a message the outbox sends again
+ * because its acknowledgement was lost is acknowledged again but not delivered twice.
+ * Only the maxIds most recent ids of the maxPeers most recently heard peers are kept.
+ */
+class DeliveredIds {
+    static final int DEFAULT_MAX_PEERS = 256;
+    static final int DEFAULT_MAX_IDS = 1024;
+
+    private final int maxIds;
+    private final Map<String, LinkedHashSet<Long>> peers;
+
+    DeliveredIds() {
+        this(DEFAULT_MAX_PEERS, DEFAULT_MAX_IDS);
+    }
+
+    DeliveredIds(int maxPeers, int maxIds) {
+        this.maxIds = maxIds;
+        this.peers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LinkedHashSet<Long>> eldest) {
+                return size() > maxPeers;
+            }
+        };
+    }
+
+    /**
+     * Records the message id received from the peer and returns whether it is the first time.
+     */
+    synchronized boolean add(String remoteIp, long messageId) {
+        LinkedHashSet<Long> ids = peers.computeIfAbsent(remoteIp, ip -> new LinkedHashSet<>());
+        if (!ids.add(messageId)) {
+            return false;
+        }
+        if (ids.size() > maxIds) {
+            ids.remove(ids.iterator().next());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,266 @@
+package network.TCP;
+
+import contacts.ActiveUserList;
+import controller.TextingController;
+import database.DatabaseManager;
+import database.Message;
+import network.EventBus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Date;
+import java.util.zip.CRC32;
+
+/**
+ * Receives the files sent by FileTransferSender as streams of the chat connections.
+ * Chunks are written to a partial file as they arrive and checked against their CRC32 before the next one is
+ * accepted, so an interrupted transfer resumes after the last good chunk.
+ * Completed files are moved to the receive directory and recorded in the Message table as a file reference.
+ * Nothing is written to disk before the acceptor agreed to the file, and files larger than the maximum size are
+ * refused.
+ */
+public class FileTransferReceiver implements StreamHandler {
+    private static final Logger LOGGER = LogManager.getLogger(FileTransferReceiver.class);
+
+    public static final long DEFAULT_MAX_SIZE = 4L * 1024 * 1024 * 1024;
+
+    /**
+     * Accepts the files of the peers in the active user list.
+     */
+    public static final Acceptor KNOWN_PEERS = (remoteIp, fileName, size) -> ActiveUserList.getNicknameByIp(remoteIp) != null;
+
+    private final Path receiveDirectory;
+    private final Path partialDirectory;
+    private final long maxSize;
+    private final Acceptor acceptor;
+
+    /**
+     * Decides whether a file offered by a peer is received. Called on the reader of the connection, so it answers
+     * at once.
+     */
+    @FunctionalInterface
+    public interface Acceptor {
+        boolean accept(String remoteIp, String fileName, long size);
+    }
+
+    /**
+     * Creates a receiver storing the files of the known peers, up to the default maximum size, in the "downloads" directory.
+     */
+    public FileTransferReceiver() {
+        this(Path.of("downloads"), DEFAULT_MAX_SIZE, KNOWN_PEERS);
+    }
+
+    /**
+     * Creates a receiver storing the files the acceptor agrees to, up to maxSize bytes, in the given directory.
+     * Transfers in progress are kept in its ".partial" subdirectory.
+     */
+    public FileTransferReceiver(Path receiveDirectory, long maxSize, Acceptor acceptor) {
+        this.receiveDirectory = receiveDirectory;
+        this.partialDirectory = receiveDirectory.resolve(".partial");
+        this.maxSize = maxSize;
+        this.acceptor = acceptor;
+    }
+
+    /**
+     * Returns the directory the received files are stored in.
+     */
+    public Path getReceiveDirectory() {
+        return receiveDirectory;
+    }
+
+    /**
+     * Accepts the streams carrying a file the acceptor agrees to, within the maximum size, resuming after the chunks
+     * kept from an earlier attempt, and refuses the others.
+     */
+    @Override
+    public Receiver open(String remoteIp, String name) {
+        if (!name.startsWith(FileTransferSender.STREAM_PREFIX)) {
+            return null;
+        }
+        try {
+            Header header = Header.parse(name);
+            if (header.size() > maxSize) {
+                LOGGER.warn("Refusing {} from {}: {} bytes, more than {}", header.fileName(), remoteIp, header.size(), maxSize);
+                return null;
+            }
+            if (!acceptor.accept(remoteIp, header.fileName(), header.size())) {
+                LOGGER.info("Refusing {} from {}: not accepted", header.fileName(), remoteIp);
+                return null;
+            }
+            Files.createDirectories(partialDirectory);
+            Path partial = partialDirectory.resolve(remoteIp.replace(':', '_') + "-" + header.transferId() + ".part");
+            return new Transfer(remoteIp, header, partial);
+        } catch (IOException e) {
+            LOGGER.warn("Refusing file from {}: {}", remoteIp, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Moves a completed file to the receive directory, records it and publishes it on the event bus.
+     */
+    private void complete(Path partial, String fileName, String remoteIp) throws IOException {
+        Path target = uniqueTarget(fileName);
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Received {} from {}", target, remoteIp);
+        Message message = new Message(fileName, new Date(Instant.now().toEpochMilli()), remoteIp,
+                TextingController.getLocalIPAddress(), target.toAbsolutePath().toString());
+        DatabaseManager.addMessage(message);
+        EventBus.getInstance().publishMessage(message);
+    }
+
+    /**
+     * Returns a path in the receive directory for the given name, numbered if a file already has it.
+     */
+    private Path uniqueTarget(String fileName) {
+        Path target = receiveDirectory.resolve(fileName);
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        for (int i = 1; Files.exists(target); i++) {
+            target = receiveDirectory.resolve(base + " (" + i + ")" + extension);
+        }
+        return target;
+    }
+
+    /**
+     * One file being received: the chunk being read and the partial file it goes to.
+     */
+    private class Transfer implements Receiver {
+        private final String remoteIp;
+        private final Header header;
+        private final Path partial;
+        private final FileChannel file;
+        private final long start;
+        private final ByteBuffer chunkHeader = ByteBuffer.allocate(FileTransferSender.CHUNK_HEADER_SIZE);
+        private final CRC32 crc = new CRC32();
+        private long offset; // end of the last good chunk
+        private int length; // of the chunk being received, 0 while its header is read
+        private long checksum;
+        private int received;
+
+        Transfer(String remoteIp, Header header, Path partial) throws IOException {
+            this.remoteIp = remoteIp;
+            this.header = header;
+            this.partial = partial;
+            this.file = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                // Only whole chunks are kept: a chunk cut short by a disconnection is received again
+                start = Math.min(file.size() - file.size() % header.chunkSize(), header.size());
+                file.truncate(start);
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            offset = start;
+            LOGGER.info("Receiving {} ({} bytes) from {}, starting at {}", header.fileName(), header.size(), remoteIp, start);
+        }
+
+        @Override
+        public long position() {
+            return start;
+        }
+
+        @Override
+        public void onData(ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                if (length == 0 && !readChunkHeader(data)) {
+                    return;
+                }
+                ByteBuffer piece = data.slice(data.position(), Math.min(data.remaining(), length - received));
+                data.position(data.position() + piece.remaining());
+                crc.update(piece.duplicate());
+                while (piece.hasRemaining()) {
+                    received += file.write(piece, offset + received);
+                }
+                if (received == length) {
+                    if (crc.getValue() != checksum) {
+                        throw new IOException("Checksum mismatch in " + header.fileName() + " at offset " + offset);
+                    }
+                    offset += length;
+                    length = 0;
+                    received = 0;
+                }
+            }
+        }
+
+        /**
+         * Reads the header of the next chunk, returning false if the data ends before it does.
+         */
+        private boolean readChunkHeader(ByteBuffer data) throws ProtocolException {
+            int size = Math.min(chunkHeader.remaining(), data.remaining());
+            chunkHeader.put(data.slice(data.position(), size));
+            data.position(data.position() + size);
+            if (chunkHeader.hasRemaining()) {
+                return false;
+            }
+            chunkHeader.flip();
+            int chunkLength = chunkHeader.getInt();
+            checksum = chunkHeader.getLong();
+            chunkHeader.clear();
+            if (chunkLength <= 0 || chunkLength > header.chunkSize() || chunkLength > header.size() - offset) {
+                throw new ProtocolException("Invalid chunk length " + chunkLength + " at offset " + offset);
+            }
+            length = chunkLength;
+            crc.reset();
+            return true;
+        }
+
+        @Override
+        public void onFinish() throws IOException {
+            if (offset != header.size()) {
+                throw new IOException("Stream of " + header.fileName() + " ended at " + offset + " of " + header.size() + " bytes");
+            }
+            file.force(false);
+            file.close();
+            // The stream is only confirmed once the file is in place, so the sender knows it is stored
+            complete(partial, header.fileName(), remoteIp);
+        }
+
+        @Override
+        public void onAbort() {
+            // The good chunks are kept for the next attempt
+            try (file) {
+                if (file.isOpen()) {
+                    file.truncate(offset);
+                }
+            } catch (IOException e) {
+                LOGGER.debug("Unable to keep the partial {}: {}", partial, e.getMessage());
+            }
+            LOGGER.debug("Transfer of {} from {} interrupted at {}", header.fileName(), remoteIp, offset);
+        }
+    }
+
+    /**
+     * What a transfer stream announces in its name.
+     */
+    private record Header(String transferId, String fileName, long size, int chunkSize) {
+
+        static Header parse(String streamName) throws ProtocolException {
+            String[] fields = streamName.substring(FileTransferSender.STREAM_PREFIX.length()).split(":", 4);
+            try {
+                if (fields.length == 4 && fields[0].matches("[0-9a-f-]{36}")) {
+                    long size = Long.parseLong(fields[1]);
+                    int chunkSize = Integer.parseInt(fields[2]);
+                    Path fileName = Path.of(fields[3]).getFileName();
+                    if (fileName != null && !fileName.toString().isBlank() && !fileName.toString().startsWith(".") && size >= 0 && chunkSize > 0) {
+                        return new Header(fields[0], fileName.toString(), size, chunkSize);
+                    }
+                }
+            } catch (NumberFormatException | InvalidPathException e) {
+                // Reported below
+            }
+            throw new ProtocolException("Invalid transfer " + streamName);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package network.TCP;
+
+import controller.TextingController;
+import database.DatabaseManager;
+import database.Message;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.CRC32;
+
+/**
+ * Sends files to a FileTransferReceiver as streams of the chat connection, so a transfer never delays chat messages.
+ * The file is cut into chunks, each preceded by its length and its CRC32, computed through a memory map. The chunks
+ * themselves go from the file to the socket with FileChannel.transferTo, so they are never copied into the heap.
+ * The receiver accepts the stream with the offset to start from, which resumes a transfer interrupted earlier.
+ */
+public class FileTransferSender {
+    private static final Logger LOGGER = LogManager.getLogger(FileTransferSender.class);
+
+    static final String STREAM_PREFIX = "file:";
+    static final int CHUNK_HEADER_SIZE = Integer.BYTES + Long.BYTES; // length + CRC32
+
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    public static final int DEFAULT_ATTEMPTS = 3;
+
+    private final int chunkSize;
+    private final int attempts;
+
+    /**
+     * Creates a sender using 4 MB chunks and trying each transfer up to 3 times.
+     */
+    public FileTransferSender() {
+        this(DEFAULT_CHUNK_SIZE, DEFAULT_ATTEMPTS);
+    }
+
+    /**
+     * Creates a sender using the given chunk size and number of attempts per transfer.
+     */
+    public FileTransferSender(int chunkSize, int attempts) {
+        if (chunkSize < 1 || attempts < 1) {
+            throw new IllegalArgumentException("chunkSize and attempts must be at least 1");
+        }
+        this.chunkSize = chunkSize;
+        this.attempts = attempts;
+    }
+
+    /**
+     * Returns the id identifying transfers of this version of the file, used by the receiver to find a partial copy.
+     */
+    public static String transferId(Path file) throws IOException {
+        String key = file.toAbsolutePath() + ":" + Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    /**
+     * Returns the name of the stream carrying a transfer: what the receiver needs to know before the first chunk.
+     */
+    static String streamName(String transferId, long size, int chunkSize, String fileName) {
+        return STREAM_PREFIX + transferId + ":" + size + ":" + chunkSize + ":" + fileName;
+    }
+
+    /**
+     * Sends a file to the peer at the given address over its pooled connection, resuming where the previous attempt
+     * stopped if one fails. Records the file in the Message table once the peer has stored it, and returns the number
+     * of bytes the successful attempt had to send.
+     */
+    public long send(TCPConnectionPool connections, String ip, int port, Path file) throws IOException {
+        IOException failure = null;
+        for (int attempt = 1; attempt <= attempts; attempt++) {
+            try {
+                long sent = sendOnce(connections.get(ip, port), file);
+                String ipDest = new InetSocketAddress(ip, port).getAddress().getHostAddress();
+                DatabaseManager.addMessage(new Message(file.getFileName().toString(), new Date(Instant.now().toEpochMilli()),
+                        TextingController.getLocalIPAddress(), ipDest, file.toAbsolutePath().toString()));
+                return sent;
+            } catch (IOException e) {
+                LOGGER.debug("Attempt {} to send {} failed: {}", attempt, file, e.getMessage());
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Runs one stream: announces the file, skips what the receiver already has and writes the remaining chunks.
+     */
+    private long sendOnce(TCPSender connection, Path file) throws IOException {
+        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = source.size();
+            OutboundStream stream = connection.openStream(streamName(transferId(file), size, chunkSize, file.getFileName().toString()));
+            long start = await(stream.accepted());
+            if (start < 0 || start > size) {
+                throw new IOException("Receiver asked to resume at " + start + " of " + size + " bytes");
+            }
+            if (start > 0) {
+                LOGGER.info("Resuming {} at offset {}", file, start);
+            }
+
+            ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+            try {
+                for (long offset = start; offset < size; ) {
+                    int length = (int) Math.min(chunkSize, size - offset);
+                    crc.reset();
+                    crc.update(source.map(FileChannel.MapMode.READ_ONLY, offset, length));
+                    chunkHeader.clear();
+                    chunkHeader.putInt(length).putLong(crc.getValue()).flip();
+                    stream.write(chunkHeader);
+                    written = stream.transfer(source, offset, length);
+                    offset += length;
+                }
+                // Completes once the receiver has stored the file
+                await(stream.finish());
+            } finally {
+                // The connection's writer may still be reading the file
+                written.join();
+            }
+            return size - start;
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending a file");
+        }
+    }
+}
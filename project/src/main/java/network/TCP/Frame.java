@@ -0,0 +1,92 @@
+package network.TCP;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A frame of the binary TCP protocol: a type, the id of the message it belongs to, a timestamp and a payload.
+ * Stream frames carry the stream id in place of the message id, and their number (window credit, status) in place
+ * of the timestamp. The payload of a decoded frame is a view on the buffer it was decoded from.
+ */
+public record Frame(byte type, long messageId, long timestamp, ByteBuffer payload) {
+
+    /**
+     * A chat message, the payload is the UTF-8 text.
+     */
+    public static final byte DATA = 1;
+
+    /**
+     * Acknowledges the message with the same id, no payload.
+     */
+    public static final byte ACK = 2;
+
+    /**
+     * Asks the peer to prove it is alive, no payload. The timestamp field holds the heartbeat interval of the sender.
+     */
+    public static final byte HEARTBEAT = 3;
+
+    /**
+     * Answers the heartbeat with the same id, no payload.
+     */
+    public static final byte HEARTBEAT_ACK = 4;
+
+    /**
+     * A message to a group room, the payload carries the room then the UTF-8 text.
+     */
+    public static final byte ROOM_DATA = 5;
+
+    /**
+     * Opens a stream, the payload is its UTF-8 name. Answered with an accept and a window update, or a close if refused.
+     */
+    public static final byte STREAM_OPEN = 6;
+
+    /**
+     * A chunk of a stream, the payload is raw bytes.
+     */
+    public static final byte STREAM_DATA = 7;
+
+    /**
+     * Lets the sender of a stream send as many more bytes as the timestamp field says, no payload.
+     */
+    public static final byte STREAM_WINDOW = 8;
+
+    /**
+     * Ends a stream, no payload. Sent by the sender after its last chunk, and by the receiver
+     * to confirm it, refuse it or abort it, with the status in the timestamp field.
+     */
+    public static final byte STREAM_CLOSE = 9;
+
+    /**
+     * Accepts a stream, no payload. The timestamp field holds the number of bytes the receiver already has
+     * from an earlier attempt, which the sender skips.
+     */
+    public static final byte STREAM_ACCEPT = 10;
+
+    /**
+     * Statuses of a stream close frame.
+     */
+    public static final long STREAM_OK = 0;
+    public static final long STREAM_REFUSED = 1;
+    public static final long STREAM_FAILED = 2;
+
+    /**
+     * Returns whether this frame carries no payload and only drives the protocol.
+     */
+    public boolean isControl() {
+        return type != DATA && type != ROOM_DATA && type != STREAM_OPEN && type != STREAM_DATA;
+    }
+
+    /**
+     * Returns whether this frame belongs to a stream.
+     */
+    public boolean isStream() {
+        return type >= STREAM_OPEN && type <= STREAM_ACCEPT;
+    }
+
+    /**
+     * Decodes the payload as UTF-8 text.
+     */
+    public String text() {
+        return StandardCharsets.UTF_8.decode(payload.duplicate()).toString();
+    }
+}
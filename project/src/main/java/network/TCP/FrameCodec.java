@@ -0,0 +1,266 @@
+package network.TCP;
+
+import contacts.Room;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the length-prefixed binary frames exchanged between peers.
+ *
+ * A frame is laid out as: body length (int), type (byte), message id (long), timestamp (long), payload.
+ * Peers agree on the framing with a line handshake: the client sends "cs_hello=&lt;version&gt;" and a server
+ * that speaks frames answers "cs_proto=&lt;version&gt;". An older server simply echoes the hello back,
+ * in which case both sides keep using the "cs_msg=" line protocol.
+ * Version 2 adds streams: many logical flows of bytes multiplexed on the connection next to the chat messages,
+ * each with its own flow-control window. Peers agree on the lowest version both speak.
+ */
+public final class FrameCodec {
+
+    public static final int PROTOCOL_VERSION = 2;
+    public static final int STREAMS_VERSION = 2;
+    public static final String HELLO_PREFIX = "cs_hello=";
+    public static final String PROTO_PREFIX = "cs_proto=";
+
+    public static final int LENGTH_SIZE = Integer.BYTES;
+    public static final int HEADER_SIZE = Byte.BYTES + Long.BYTES + Long.BYTES;
+    public static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    private FrameCodec() {}
+
+    /**
+     * Returns the handshake line a client sends to ask for framing.
+     */
+    public static String hello() {
+        return HELLO_PREFIX + PROTOCOL_VERSION;
+    }
+
+    /**
+     * Returns the framing version accepted by a server answer, or 0 if the peer only speaks lines.
+     */
+    public static int acceptedVersion(String answer) {
+        if (answer == null || !answer.startsWith(PROTO_PREFIX)) {
+            return 0;
+        }
+        try {
+            return Math.min(PROTOCOL_VERSION, Integer.parseInt(answer.substring(PROTO_PREFIX.length())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the framing version a server answers to a line, or 0 if the line is not a hello.
+     */
+    public static int requestedVersion(String line) {
+        if (!line.startsWith(HELLO_PREFIX)) {
+            return 0;
+        }
+        try {
+            return Math.min(PROTOCOL_VERSION, Integer.parseInt(line.substring(HELLO_PREFIX.length())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Encodes a data frame carrying the given text.
+     */
+    public static ByteBuffer encodeText(long messageId, long timestamp, String text) {
+        return encode(Frame.DATA, messageId, timestamp, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Encodes a room frame carrying the room (id, name, members) and the text.
+     * The room travels with every message, so members learn the room from its first message.
+     */
+    public static ByteBuffer encodeRoomText(long messageId, long timestamp, Room room, String text) {
+        List<byte[]> strings = new ArrayList<>();
+        strings.add(room.getId().getBytes(StandardCharsets.UTF_8));
+        strings.add(room.getName().getBytes(StandardCharsets.UTF_8));
+        for (String member : room.getMembers()) {
+            strings.add(member.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        int size = Integer.BYTES + textBytes.length;
+        for (byte[] string : strings) {
+            if (string.length > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Room field too long: " + string.length);
+            }
+            size += Short.BYTES + string.length;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        putString(payload, strings.get(0));
+        putString(payload, strings.get(1));
+        payload.putInt(room.getMembers().size());
+        for (int i = 2; i < strings.size(); i++) {
+            putString(payload, strings.get(i));
+        }
+        payload.put(textBytes);
+        return encode(Frame.ROOM_DATA, messageId, timestamp, payload.array());
+    }
+
+    /**
+     * Decodes the room and the text carried by a room frame.
+     */
+    public static RoomText decodeRoomText(Frame frame) throws ProtocolException {
+        ByteBuffer payload = frame.payload().duplicate();
+        try {
+            String id = getString(payload);
+            String name = getString(payload);
+            int count = payload.getInt();
+            if (count < 0 || count > payload.remaining() / Short.BYTES) {
+                throw new ProtocolException("Invalid member count: " + count);
+            }
+            List<String> members = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                members.add(getString(payload));
+            }
+            String text = StandardCharsets.UTF_8.decode(payload).toString();
+            return new RoomText(new Room(id, name, members), text);
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Truncated room frame");
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] string) {
+        buffer.putShort((short) string.length);
+        buffer.put(string);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] string = new byte[length];
+        buffer.get(string);
+        return new String(string, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The room and the text of a room frame.
+     */
+    public record RoomText(Room room, String text) {}
+
+    /**
+     * Encodes a control frame without payload.
+     */
+    public static ByteBuffer encodeControl(byte type, long messageId, long timestamp) {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_SIZE + HEADER_SIZE);
+        putHeader(buffer, type, messageId, timestamp, 0);
+        return buffer.flip();
+    }
+
+    /**
+     * Encodes a frame whose payload is the remaining bytes of the given buffer, leaving the buffer untouched.
+     */
+    public static ByteBuffer encode(byte type, long messageId, long timestamp, ByteBuffer payload) {
+        if (payload.remaining() > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Payload too large: " + payload.remaining());
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_SIZE + HEADER_SIZE + payload.remaining());
+        putHeader(buffer, type, messageId, timestamp, payload.remaining());
+        buffer.put(payload.duplicate());
+        return buffer.flip();
+    }
+
+    /**
+     * Encodes the header of a frame whose payload of the given length is written after it from elsewhere.
+     */
+    public static ByteBuffer encodeHeader(byte type, long messageId, long timestamp, int payloadLength) {
+        if (payloadLength > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Payload too large: " + payloadLength);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_SIZE + HEADER_SIZE);
+        putHeader(buffer, type, messageId, timestamp, payloadLength);
+        return buffer.flip();
+    }
+
+    /**
+     * Encodes a frame into a buffer ready to be written.
+     */
+    public static ByteBuffer encode(byte type, long messageId, long timestamp, byte[] payload) {
+        if (payload.length > MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Payload too large: " + payload.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_SIZE + HEADER_SIZE + payload.length);
+        putHeader(buffer, type, messageId, timestamp, payload.length);
+        buffer.put(payload);
+        return buffer.flip();
+    }
+
+    private static void putHeader(ByteBuffer buffer, byte type, long messageId, long timestamp, int payloadLength) {
+        buffer.putInt(HEADER_SIZE + payloadLength);
+        buffer.put(type);
+        buffer.putLong(messageId);
+        buffer.putLong(timestamp);
+    }
+
+    /**
+     * Decodes the next frame of the buffer, or returns null and leaves the buffer untouched if it is incomplete.
+     * The payload of the returned frame is a slice of the buffer, valid until the buffer is reused.
+     */
+    public static Frame decode(ByteBuffer buffer) throws ProtocolException {
+        if (buffer.remaining() < LENGTH_SIZE) {
+            return null;
+        }
+        int start = buffer.position();
+        int length = buffer.getInt(start);
+        if (length < HEADER_SIZE || length > HEADER_SIZE + MAX_PAYLOAD) {
+            throw new ProtocolException("Invalid frame length: " + length);
+        }
+        if (buffer.remaining() < LENGTH_SIZE + length) {
+            return null;
+        }
+        byte type = buffer.get(start + LENGTH_SIZE);
+        long messageId = buffer.getLong(start + LENGTH_SIZE + 1);
+        long timestamp = buffer.getLong(start + LENGTH_SIZE + 1 + Long.BYTES);
+        ByteBuffer payload = buffer.slice(start + LENGTH_SIZE + HEADER_SIZE, length - HEADER_SIZE);
+        buffer.position(start + LENGTH_SIZE + length);
+        return new Frame(type, messageId, timestamp, payload);
+    }
+
+    /**
+     * Reads frames from a blocking stream into a buffer reused between frames.
+     */
+    public static class Reader {
+        private final DataInputStream in;
+        private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        public Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Blocks until a whole frame is read, or returns null at the end of the stream.
+         * The returned frame is only valid until the next call.
+         */
+        public Frame read() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return null;
+            }
+            if (length < HEADER_SIZE || length > HEADER_SIZE + MAX_PAYLOAD) {
+                throw new ProtocolException("Invalid frame length: " + length);
+            }
+            if (buffer.capacity() < LENGTH_SIZE + length) {
+                buffer = ByteBuffer.allocate(Math.max(LENGTH_SIZE + length, buffer.capacity() * 2));
+            }
+            buffer.clear();
+            buffer.putInt(length);
+            in.readFully(buffer.array(), LENGTH_SIZE, length);
+            buffer.position(0).limit(LENGTH_SIZE + length);
+            return decode(buffer);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package network.TCP;
+
+/**
+ * Heartbeat settings of a framed connection: a heartbeat is sent every intervalMillis, and the peer is
+ * considered lost once missThreshold intervals went by without hearing from it.
+ * Detection only starts once the peer has answered a first heartbeat, so peers that do not know
+ * heartbeats are never cut off. Every heartbeat carries the interval of its sender, by which the server
+ * times the client out.
+ */
+public record Heartbeat(long intervalMillis, int missThreshold) {
+
+    /**
+     * A heartbeat every 250 ms, the peer being lost after one second of silence.
+     */
+    public static final Heartbeat DEFAULT = new Heartbeat(250, 4);
+
+    /**
+     * Longest interval a heartbeat may carry; older clients put their send time there, which is ignored.
+     */
+    public static final long MAX_INTERVAL_MILLIS = 10 * 60 * 1000;
+
+    public Heartbeat {
+        if (intervalMillis < 1 || missThreshold < 1) {
+            throw new IllegalArgumentException("intervalMillis and missThreshold must be at least 1");
+        }
+    }
+
+    /**
+     * Returns how long the peer may stay silent before it is considered lost.
+     */
+    public long timeoutMillis() {
+        return intervalMillis * missThreshold;
+    }
+
+    /**
+     * Returns how long a client whose heartbeats carry the given interval may stay silent: missThreshold of its
+     * intervals, or of ours when the interval is not one.
+     */
+    public long peerTimeoutMillis(long peerIntervalMillis) {
+        if (peerIntervalMillis < 1 || peerIntervalMillis > MAX_INTERVAL_MILLIS) {
+            return timeoutMillis();
+        }
+        return peerIntervalMillis * missThreshold;
+    }
+}
@@ -0,0 +1,282 @@
+package network.TCP;
+
+import database.DatabaseManager;
+import database.Message;
+import network.EventBus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Staged path of received messages: the socket threads decode and submit them to a bounded queue,
+ * a persistence thread stores them by batches in one transaction, and a dispatch thread hands them to the observers.
+ * A slow disk fills the queue instead of blocking every socket, and a full queue pushes back on the readers:
+ * submit() blocks, and offer() fails so that the caller stops reading until space is signalled.
+ * The stage threads run from start() until close().
+ */
+public class InboundPipeline {
+    private static final Logger LOGGER = LogManager.getLogger(InboundPipeline.class);
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_BATCH = 256;
+
+    private final BlockingQueue<Inbound> received;
+    private final BlockingQueue<Inbound> persisted;
+    private final int maxBatch;
+    private final Consumer<List<Message>> store;
+    private final Consumer<Message> dispatch;
+    private final List<Runnable> spaceListeners = new CopyOnWriteArrayList<>();
+    private final Thread persister;
+    private final Thread dispatcher;
+    private boolean started;
+    private volatile boolean closed;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private volatile int peakDepth;
+    private final StageTimer queueWait = new StageTimer();
+    private final StageTimer persistence = new StageTimer();
+    private final StageTimer dispatchWait = new StageTimer();
+    private final StageTimer endToEnd = new StageTimer();
+
+    /**
+     * Creates a pipeline storing the messages in the database and publishing them on the event bus.
+     */
+    public InboundPipeline() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_BATCH, DatabaseManager::addMessages, EventBus.getInstance()::publishMessage);
+    }
+
+    /**
+     * Creates a pipeline holding at most capacity messages per stage and storing them by batches of up to maxBatch.
+     */
+    public InboundPipeline(int capacity, int maxBatch, Consumer<List<Message>> store, Consumer<Message> dispatch) {
+        if (capacity < 1 || maxBatch < 1) {
+            throw new IllegalArgumentException("capacity and maxBatch must be at least 1");
+        }
+        this.received = new ArrayBlockingQueue<>(capacity);
+        this.persisted = new ArrayBlockingQueue<>(capacity);
+        this.maxBatch = maxBatch;
+        this.store = store;
+        this.dispatch = dispatch;
+        this.persister = Thread.ofPlatform().name("inbound-persistence").daemon().unstarted(this::persist);
+        this.dispatcher = Thread.ofPlatform().name("inbound-dispatch").daemon().unstarted(this::dispatch);
+    }
+
+    /**
+     * Starts the persistence and dispatch threads, unless they were started already.
+     */
+    public synchronized void start() {
+        if (started || closed) {
+            return;
+        }
+        started = true;
+        persister.start();
+        dispatcher.start();
+    }
+
+    /**
+     * Queues a received message, waiting while the queue is full. Returns false if the pipeline was closed meanwhile.
+     */
+    public boolean submit(Message message) throws InterruptedException {
+        Inbound inbound = new Inbound(message, System.nanoTime());
+        while (!received.offer(inbound, 100, TimeUnit.MILLISECONDS)) {
+            if (closed) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+        accepted();
+        return true;
+    }
+
+    /**
+     * Queues a received message without waiting. Returns false if the queue is full:
+     * the caller should stop reading from its socket until a space listener runs.
+     */
+    public boolean offer(Message message) {
+        if (closed || !received.offer(new Inbound(message, System.nanoTime()))) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        accepted();
+        return true;
+    }
+
+    private void accepted() {
+        submitted.incrementAndGet();
+        int depth = received.size();
+        if (depth > peakDepth) {
+            peakDepth = depth;
+        }
+    }
+
+    /**
+     * Registers a callback run by the persistence thread each time it frees space in the queue.
+     */
+    public void addSpaceListener(Runnable listener) {
+        spaceListeners.add(listener);
+    }
+
+    /**
+     * Stops the stages once the messages already queued are stored and dispatched.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (!started) {
+                return;
+            }
+        }
+        try {
+            persister.join(2000);
+            dispatcher.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Persistence stage: takes every queued message up to the batch size and stores them in one go.
+     */
+    private void persist() {
+        List<Inbound> batch = new ArrayList<>(maxBatch);
+        List<Message> messages = new ArrayList<>(maxBatch);
+        try {
+            while (!closed || !received.isEmpty()) {
+                Inbound first = received.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                received.drainTo(batch, maxBatch - 1);
+                for (Runnable listener : spaceListeners) {
+                    listener.run();
+                }
+
+                long start = System.nanoTime();
+                for (Inbound inbound : batch) {
+                    queueWait.record(start - inbound.receivedAt);
+                    messages.add(inbound.message);
+                }
+                try {
+                    store.accept(messages);
+                } catch (RuntimeException e) {
+                    // The messages are still shown; only their history is lost
+                    LOGGER.error("Unable to store {} received messages: {}", messages.size(), e.getMessage());
+                }
+                long end = System.nanoTime();
+                persistence.record(end - start);
+                stored.addAndGet(batch.size());
+                for (Inbound inbound : batch) {
+                    inbound.persistedAt = end;
+                    persisted.put(inbound);
+                }
+                batch.clear();
+                messages.clear();
+            }
+        } catch (InterruptedException e) {
+            LOGGER.debug("Persistence stage interrupted");
+        }
+    }
+
+    /**
+     * Dispatch stage: notifies the observers of each stored message, in arrival order.
+     */
+    private void dispatch() {
+        try {
+            while (persister.isAlive() || !persisted.isEmpty()) {
+                Inbound inbound = persisted.poll(100, TimeUnit.MILLISECONDS);
+                if (inbound == null) {
+                    continue;
+                }
+                dispatchWait.record(System.nanoTime() - inbound.persistedAt);
+                try {
+                    dispatch.accept(inbound.message);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Observer failed on a received message: {}", e.getMessage());
+                }
+                endToEnd.record(System.nanoTime() - inbound.receivedAt);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.debug("Dispatch stage interrupted");
+        }
+    }
+
+    /**
+     * Returns a snapshot of the queue occupancy and of the stage latencies.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(received.size(), received.size() + received.remainingCapacity(), peakDepth, persisted.size(),
+                submitted.get(), rejected.get(), stored.get(), persistence.count(), endToEnd.count(),
+                queueWait.averageMicros(), queueWait.maxMicros(), persistence.averageMicros(), persistence.maxMicros(),
+                dispatchWait.averageMicros(), endToEnd.averageMicros(), endToEnd.maxMicros());
+    }
+
+    /**
+     * Queue occupancy and stage latencies of an inbound pipeline, in microseconds.
+     * The persistence latency is per batch; the others are per message.
+     */
+    public record Metrics(int queueDepth, int queueCapacity, int peakQueueDepth, int dispatchDepth,
+                          long submitted, long rejected, long persisted, long batches, long dispatched,
+                          double averageQueueWaitMicros, double maxQueueWaitMicros,
+                          double averagePersistMicros, double maxPersistMicros,
+                          double averageDispatchWaitMicros, double averageEndToEndMicros, double maxEndToEndMicros) {
+
+        /**
+         * Returns the average number of messages stored per batch.
+         */
+        public double averageBatchSize() {
+            return batches == 0 ? 0 : (double) persisted / batches;
+        }
+    }
+
+    /**
+     * A received message with the times it entered the pipeline and left the persistence stage.
+     */
+    private static class Inbound {
+        private final Message message;
+        private final long receivedAt;
+        private long persistedAt;
+
+        Inbound(Message message, long receivedAt) {
+            this.message = message;
+            this.receivedAt = receivedAt;
+        }
+    }
+
+    /**
+     * Count, total and maximum of the durations measured for one stage.
+     */
+    private static class StageTimer {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        synchronized void record(long nanos) {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized double averageMicros() {
+            return count == 0 ? 0 : totalNanos / 1000.0 / count;
+        }
+
+        synchronized double maxMicros() {
+            return maxNanos / 1000.0;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package network.TCP;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * The streams a peer opened on one server connection.
+ * The connection's reader only copies each chunk into the queue of its stream, so chat frames behind it are read
+ * at once; every stream is consumed on its own virtual thread, which grants the sender more credit as it goes.
+ * A stream holds at most WINDOW bytes not consumed yet: a sender ignoring its window breaks the protocol.
+ */
+class InboundStreams {
+    private static final Logger LOGGER = LogManager.getLogger(InboundStreams.class);
+
+    static final int WINDOW = 256 * 1024;
+    // Credit is returned in a few updates per window rather than one per chunk
+    private static final int UPDATE_THRESHOLD = WINDOW / 4;
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final String remoteIp;
+    private final StreamHandler handler;
+    private final Consumer<ByteBuffer> reply;
+    private final Map<Long, Inbound> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Creates the streams of a connection, answering through reply, which may be called from any thread.
+     */
+    InboundStreams(String remoteIp, StreamHandler handler, Consumer<ByteBuffer> reply) {
+        this.remoteIp = remoteIp;
+        this.handler = handler;
+        this.reply = reply;
+    }
+
+    /**
+     * Processes a stream frame received on the connection. The frame's payload is copied.
+     */
+    void onFrame(Frame frame) throws ProtocolException {
+        long id = frame.messageId();
+        switch (frame.type()) {
+            case Frame.STREAM_OPEN -> open(id, frame.text());
+            case Frame.STREAM_DATA -> {
+                // A stream that failed is forgotten: the chunks still in flight are dropped
+                Inbound stream = streams.get(id);
+                if (stream != null) {
+                    stream.push(ByteBuffer.allocate(frame.payload().remaining()).put(frame.payload().duplicate()).flip());
+                }
+            }
+            case Frame.STREAM_CLOSE -> {
+                Inbound stream = streams.get(id);
+                if (stream != null) {
+                    stream.push(END);
+                }
+            }
+            default -> throw new ProtocolException("Unexpected stream frame of type " + frame.type());
+        }
+    }
+
+    private void open(long id, String name) throws ProtocolException {
+        if (streams.containsKey(id)) {
+            throw new ProtocolException("Stream " + id + " already open");
+        }
+        StreamHandler.Receiver receiver;
+        try {
+            receiver = handler.open(remoteIp, name);
+        } catch (RuntimeException e) {
+            LOGGER.error("Stream handler failed on {} from {}: {}", name, remoteIp, e.getMessage());
+            receiver = null;
+        }
+        if (receiver == null) {
+            LOGGER.debug("Refusing stream {} from {}", name, remoteIp);
+            reply.accept(FrameCodec.encodeControl(Frame.STREAM_CLOSE, id, Frame.STREAM_REFUSED));
+            return;
+        }
+        long position = receiver.position();
+        Inbound stream = new Inbound(id, name, receiver);
+        stream.consumer = Thread.ofVirtual().name("tcp-stream-" + remoteIp + "-" + id).start(stream::consume);
+        streams.put(id, stream);
+        reply.accept(FrameCodec.encodeControl(Frame.STREAM_ACCEPT, id, position));
+        reply.accept(FrameCodec.encodeControl(Frame.STREAM_WINDOW, id, WINDOW));
+    }
+
+    /**
+     * Returns the number of streams open on the connection.
+     */
+    int size() {
+        return streams.size();
+    }
+
+    /**
+     * Aborts every stream, once the connection is closed.
+     */
+    void closeAll() {
+        for (Inbound stream : streams.values()) {
+            stream.consumer.interrupt();
+        }
+    }
+
+    /**
+     * One stream: the chunks received and not consumed yet, and the thread consuming them.
+     */
+    private class Inbound {
+        private final long id;
+        private final String name;
+        private final StreamHandler.Receiver receiver;
+        private final BlockingQueue<ByteBuffer> chunks = new LinkedBlockingQueue<>();
+        private long buffered;
+        private volatile Thread consumer;
+
+        Inbound(long id, String name, StreamHandler.Receiver receiver) {
+            this.id = id;
+            this.name = name;
+            this.receiver = receiver;
+        }
+
+        void push(ByteBuffer chunk) throws ProtocolException {
+            synchronized (this) {
+                buffered += chunk.remaining();
+                if (buffered > WINDOW) {
+                    throw new ProtocolException("Stream " + id + " from " + remoteIp + " overran its window");
+                }
+            }
+            chunks.add(chunk);
+        }
+
+        private synchronized void consumed(int bytes) {
+            buffered -= bytes;
+        }
+
+        void consume() {
+            long unreported = 0;
+            try {
+                ByteBuffer chunk;
+                while ((chunk = chunks.take()) != END) {
+                    int size = chunk.remaining();
+                    receiver.onData(chunk);
+                    consumed(size);
+                    unreported += size;
+                    if (unreported >= UPDATE_THRESHOLD) {
+                        reply.accept(FrameCodec.encodeControl(Frame.STREAM_WINDOW, id, unreported));
+                        unreported = 0;
+                    }
+                }
+                receiver.onFinish();
+                end(Frame.STREAM_OK);
+            } catch (IOException e) {
+                LOGGER.warn("Stream {} from {} failed: {}", name, remoteIp, e.getMessage());
+                receiver.onAbort();
+                end(Frame.STREAM_FAILED);
+            } catch (InterruptedException e) {
+                LOGGER.debug("Stream {} from {} aborted with its connection", name, remoteIp);
+                streams.remove(id);
+                receiver.onAbort();
+            }
+        }
+
+        private void end(long status) {
+            streams.remove(id);
+            reply.accept(FrameCodec.encodeControl(Frame.STREAM_CLOSE, id, status));
+        }
+    }
+}
@@ -0,0 +1,517 @@
+package network.TCP;
+
+import database.Message;
+import network.EventBus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP server engine built on a ServerSocketChannel and a small fixed pool of selector threads.
+ * Accepted sockets are spread over the I/O loops and read without blocking into a buffer reused
+ * by every connection of the loop, so idle peers cost a selection key instead of a parked thread.
+ * When the inbound pipeline is full, a connection stops being read until the pipeline has room again.
+ * Connections of clients sending heartbeats are closed when the client goes silent for missThreshold of the
+ * intervals its heartbeats carry, checked by each loop once per heartbeat interval of the server.
+ * Streams are consumed off the loop by InboundStreams; their replies are handed back to the loop, which writes them.
+ */
+public class NioTCPServer extends TCPServer {
+    private static final Logger LOGGER = LogManager.getLogger(NioTCPServer.class);
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final int ioThreads;
+    private ServerSocketChannel serverChannel;
+    private IoLoop[] loops;
+    private final AtomicLong openConnections = new AtomicLong();
+
+    /**
+     * Creates a server with one I/O loop per core, capped at four.
+     */
+    public NioTCPServer() {
+        this(Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * Creates a server with the given number of I/O loops.
+     */
+    public NioTCPServer(int ioThreads) {
+        this(ioThreads, new InboundPipeline());
+    }
+
+    /**
+     * Creates a server with the given number of I/O loops, passing received messages to the given pipeline.
+     */
+    public NioTCPServer(int ioThreads, InboundPipeline inbound) {
+        // No executor: the connections are served by the I/O loops
+        super(null, inbound);
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("ioThreads must be at least 1");
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    /**
+     * Returns the number of I/O threads serving the connections.
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Returns the number of currently open client connections.
+     */
+    public long getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * Starts the I/O loops and accepts incoming connections on the calling thread until the server is stopped.
+     */
+    @Override
+    public void start(int port) {
+        try {
+            inbound.start();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(port));
+            loops = new IoLoop[ioThreads];
+            for (int i = 0; i < ioThreads; i++) {
+                loops[i] = new IoLoop(Selector.open());
+                inbound.addSpaceListener(loops[i]::onSpace);
+                Thread thread = new Thread(loops[i], "nio-tcp-io-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            isReady = true;
+            isClosed = false;
+            int next = 0;
+            while (!isClosed) {
+                try {
+                    SocketChannel channel = serverChannel.accept();
+                    loops[next].register(channel);
+                    next = (next + 1) % loops.length;
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    if (serverChannel.isOpen()) {
+                        LOGGER.error("Error accepting connection: {}", e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to start NIO server on port {}: {}", port, e.getMessage());
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes every I/O loop with its connections.
+     */
+    @Override
+    public void stop() {
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            LOGGER.error("Error closing server channel: {}", e.getMessage());
+        }
+        isClosed = true;
+        if (loops != null) {
+            for (IoLoop loop : loops) {
+                if (loop != null) {
+                    loop.shutdown();
+                }
+            }
+        }
+        inbound.close();
+    }
+
+    /**
+     * One selector thread multiplexing many non-blocking connections.
+     */
+    private class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        // Connections with stream replies to write, queued by the stream threads
+        private final Queue<Connection> replying = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        // Connections holding messages the pipeline had no room for; only touched by the loop thread
+        private final List<Connection> stalled = new ArrayList<>();
+        private volatile boolean waitingForSpace;
+        private volatile boolean running = true;
+        private long lastHeartbeatCheck = System.currentTimeMillis();
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Hands a freshly accepted channel over to this loop.
+         */
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        void shutdown() {
+            running = false;
+            selector.wakeup();
+        }
+
+        /**
+         * Called by the pipeline when it frees space: wakes the loop up if a connection is waiting for it.
+         */
+        void onSpace() {
+            if (waitingForSpace) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Called by a stream thread that queued a reply on the connection: wakes the loop up to write it.
+         */
+        void replyReady(Connection connection) {
+            replying.add(connection);
+            selector.wakeup();
+        }
+
+        void stall(Connection connection) {
+            stalled.add(connection);
+            waitingForSpace = true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    // Retried before selecting: space freed from now on wakes the selector up, as waitingForSpace is set
+                    resumeStalled();
+                    selector.select(heartbeat.intervalMillis());
+                    registerPending();
+                    writeReplies();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                        } catch (IOException | CancelledKeyException e) {
+                            LOGGER.debug(e.getMessage());
+                            connection.close();
+                        }
+                    }
+                    closeSilent();
+                }
+            } catch (IOException e) {
+                LOGGER.error("I/O loop failed: {}", e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    LOGGER.debug(e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Hands the held messages over to the pipeline and reads again from the connections whose backlog is empty.
+         */
+        private void resumeStalled() {
+            Iterator<Connection> connections = stalled.iterator();
+            while (connections.hasNext()) {
+                Connection connection = connections.next();
+                if (connection.drainBacklog()) {
+                    connections.remove();
+                }
+            }
+            waitingForSpace = !stalled.isEmpty();
+        }
+
+        /**
+         * Closes, once per heartbeat interval, the connections whose client sends heartbeats but went silent.
+         * Connections held back by a full pipeline are not read, so they are not checked.
+         */
+        private void closeSilent() {
+            long now = System.currentTimeMillis();
+            if (now - lastHeartbeatCheck < heartbeat.intervalMillis()) {
+                return;
+            }
+            lastHeartbeatCheck = now;
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                long timeout = connection.peerTimeoutMillis;
+                if (timeout > 0 && connection.backlog.isEmpty() && now - connection.lastHeardAt > timeout) {
+                    LOGGER.warn("Connection from {} lost: no heartbeat for {} ms", connection.remoteIp, timeout);
+                    connection.close();
+                    EventBus.getInstance().publishConnection(connection.remoteIp, false);
+                }
+            }
+        }
+
+        private void writeReplies() {
+            Connection connection;
+            while ((connection = replying.poll()) != null) {
+                try {
+                    connection.drainReplies();
+                } catch (IOException | CancelledKeyException e) {
+                    LOGGER.debug(e.getMessage());
+                    connection.close();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key, this));
+                    openConnections.incrementAndGet();
+                } catch (IOException e) {
+                    LOGGER.debug("Unable to register connection: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-connection state: the bytes of the line or frame being received, the messages waiting for room
+     * in the pipeline and the replies not yet written.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final IoLoop loop;
+        private final String remoteIp;
+        private byte[] line = new byte[128];
+        private int lineLength;
+        private ByteBuffer frames;
+        private ByteBuffer output;
+        private final Queue<Message> backlog = new ArrayDeque<>();
+        private final Queue<ByteBuffer> replies = new ConcurrentLinkedQueue<>();
+        private InboundStreams streams;
+        private long lastHeardAt = System.currentTimeMillis();
+        private long peerTimeoutMillis; // 0 until the client sends a heartbeat
+
+        Connection(SocketChannel channel, SelectionKey key, IoLoop loop) throws IOException {
+            this.channel = channel;
+            this.key = key;
+            this.loop = loop;
+            this.remoteIp = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+        }
+
+        /**
+         * Queues a decoded message in the pipeline, or holds it if the pipeline is full.
+         */
+        private void submit(Message message) {
+            if (!backlog.isEmpty() || !inbound.offer(message)) {
+                backlog.add(message);
+            }
+        }
+
+        /**
+         * Offers the held messages to the pipeline again; returns true once none is left and reading resumed.
+         */
+        boolean drainBacklog() {
+            if (!channel.isOpen()) {
+                return true;
+            }
+            while (!backlog.isEmpty() && inbound.offer(backlog.peek())) {
+                backlog.poll();
+            }
+            if (!backlog.isEmpty()) {
+                return false;
+            }
+            updateInterest();
+            return true;
+        }
+
+        /**
+         * Drains the socket into the shared buffer and processes every complete line or frame.
+         * Stops after the read that filled the pipeline, and leaves the socket unread until the pipeline has room.
+         */
+        void read(ByteBuffer buffer) throws IOException {
+            int read;
+            do {
+                buffer.clear();
+                read = channel.read(buffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                lastHeardAt = System.currentTimeMillis();
+                buffer.flip();
+                while (frames == null && buffer.hasRemaining()) {
+                    byte b = buffer.get();
+                    if (b == '\n') {
+                        onLine();
+                    } else {
+                        append(b);
+                    }
+                }
+                if (frames != null && buffer.hasRemaining()) {
+                    onFrameBytes(buffer);
+                }
+            } while (read == buffer.capacity() && backlog.isEmpty());
+            if (!backlog.isEmpty()) {
+                loop.stall(this);
+            }
+            flush();
+        }
+
+        private void append(byte b) {
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = b;
+        }
+
+        private void onLine() {
+            int length = lineLength;
+            if (length > 0 && line[length - 1] == '\r') {
+                length--;
+            }
+            String inputLine = new String(line, 0, length, StandardCharsets.UTF_8);
+            lineLength = 0;
+            int version = FrameCodec.requestedVersion(inputLine);
+            if (version > 0) {
+                queue((FrameCodec.PROTO_PREFIX + version + "\n").getBytes(StandardCharsets.UTF_8));
+                frames = ByteBuffer.allocate(READ_BUFFER_SIZE);
+                streams = new InboundStreams(remoteIp, streamHandler, this::reply);
+                line = null;
+                return;
+            }
+            queue((handleLine(inputLine, remoteIp, this::submit) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Accumulates received bytes and answers every complete frame, leaving a partial frame for the next read.
+         */
+        private void onFrameBytes(ByteBuffer buffer) throws IOException {
+            if (frames.remaining() < buffer.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(frames.capacity() * 2, frames.position() + buffer.remaining()));
+                frames.flip();
+                bigger.put(frames);
+                frames = bigger;
+            }
+            frames.put(buffer);
+            frames.flip();
+            Frame frame;
+            while ((frame = FrameCodec.decode(frames)) != null) {
+                if (frame.type() == Frame.HEARTBEAT) {
+                    peerTimeoutMillis = heartbeat.peerTimeoutMillis(frame.timestamp());
+                }
+                if (frame.isStream()) {
+                    streams.onFrame(frame);
+                    continue;
+                }
+                ByteBuffer reply = handleFrame(frame, remoteIp, delivered, this::submit);
+                if (reply != null) {
+                    queue(reply);
+                }
+            }
+            frames.compact();
+        }
+
+        /**
+         * Queues a reply from any thread, to be written by the loop.
+         */
+        private void reply(ByteBuffer reply) {
+            replies.add(reply);
+            loop.replyReady(this);
+        }
+
+        void drainReplies() throws IOException {
+            if (!channel.isOpen()) {
+                replies.clear();
+                return;
+            }
+            ByteBuffer reply;
+            while ((reply = replies.poll()) != null) {
+                queue(reply);
+            }
+            flush();
+        }
+
+        private void queue(byte[] reply) {
+            queue(ByteBuffer.wrap(reply));
+        }
+
+        private void queue(ByteBuffer reply) {
+            if (output == null) {
+                output = ByteBuffer.allocate(Math.max(256, reply.remaining()));
+            } else if (output.remaining() < reply.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(output.capacity() * 2, output.position() + reply.remaining()));
+                output.flip();
+                bigger.put(output);
+                output = bigger;
+            }
+            output.put(reply);
+        }
+
+        /**
+         * Writes as much pending output as the socket accepts and listens for writability for the rest.
+         */
+        void flush() throws IOException {
+            if (output != null && output.position() > 0) {
+                output.flip();
+                channel.write(output);
+                output.compact();
+            }
+            updateInterest();
+        }
+
+        /**
+         * Listens for reads unless messages are held back, and for writability while replies are pending.
+         */
+        private void updateInterest() {
+            int ops = backlog.isEmpty() ? SelectionKey.OP_READ : 0;
+            if (output != null && output.position() > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (key.isValid() && key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        void close() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            key.cancel();
+            if (streams != null) {
+                streams.closeAll();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug(e.getMessage());
+            }
+            openConnections.decrementAndGet();
+        }
+    }
+}
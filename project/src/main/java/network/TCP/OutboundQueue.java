@@ -0,0 +1,284 @@
+package network.TCP;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of encoded frames waiting to be written to one peer.
+ * A writer thread drains it and coalesces the frames pending within the flush window (or up to a byte budget)
+ * into a single gathering write, so a burst of messages costs one syscall instead of one per message.
+ * A lone frame is written at once: the writer only lingers for the flush window once a burst is under way.
+ * When the queue is full, offer() fails and the caller has to slow down.
+ * Stream chunks go through a second, smaller lane that the writer only serves when no message or control frame
+ * is waiting, so a bulk transfer never holds a chat message back by more than the batch being written.
+ * A chunk may also be a region of a file, which the writer hands to the socket with FileChannel.transferTo after
+ * its frame header, so the bytes never go through the heap.
+ */
+public class OutboundQueue {
+    private static final Logger LOGGER = LogManager.getLogger(OutboundQueue.class);
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_FLUSH_WINDOW_MICROS = 1000;
+    public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+    public static final int BULK_CAPACITY = 16;
+
+    private final GatheringByteChannel channel;
+    private final BlockingQueue<ByteBuffer> frames;
+    private final BlockingQueue<Bulk> bulk = new ArrayBlockingQueue<>(BULK_CAPACITY);
+    // One permit per frame queued in either lane
+    private final Semaphore queued = new Semaphore(0);
+    private final long flushWindowNanos;
+    private final int maxBatchBytes;
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong framesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int largestBatch;
+    private Bulk region; // Only touched by the writer
+
+    /**
+     * Creates a queue with the default capacity, flush window and batch size.
+     */
+    public OutboundQueue(GatheringByteChannel channel, String name) {
+        this(channel, name, DEFAULT_CAPACITY, DEFAULT_FLUSH_WINDOW_MICROS, DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    /**
+     * Creates a queue holding at most capacity frames, and starts its writer thread.
+     */
+    public OutboundQueue(GatheringByteChannel channel, String name, int capacity, long flushWindowMicros, int maxBatchBytes) {
+        this.channel = channel;
+        this.frames = new ArrayBlockingQueue<>(capacity);
+        this.flushWindowNanos = TimeUnit.MICROSECONDS.toNanos(flushWindowMicros);
+        this.maxBatchBytes = maxBatchBytes;
+        this.writer = Thread.ofVirtual().name("tcp-writer-" + name).start(this::drain);
+    }
+
+    /**
+     * Queues a frame without blocking. Returns false if the queue is full or closed.
+     */
+    public boolean offer(ByteBuffer frame) {
+        if (closed || !frames.offer(frame)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        queued.release();
+        return true;
+    }
+
+    /**
+     * Queues a frame, waiting up to the given time for room. Returns false if the queue stayed full or is closed.
+     */
+    public boolean offer(ByteBuffer frame, long timeout, TimeUnit unit) throws InterruptedException {
+        if (closed || !frames.offer(frame, timeout, unit)) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        queued.release();
+        return true;
+    }
+
+    /**
+     * Queues a stream chunk behind the messages, waiting as long as the bulk lane is full. Returns false if closed.
+     */
+    public boolean offerBulk(ByteBuffer frame) throws InterruptedException {
+        return offerBulk(new Bulk(frame, null, 0, 0, null));
+    }
+
+    /**
+     * Queues a stream chunk whose payload is length bytes of the file from position, behind its frame header.
+     * The future completes once they are written, or dropped as the queue closed: the file must stay open until then.
+     * Returns null if closed.
+     */
+    public CompletableFuture<Void> offerBulk(ByteBuffer header, FileChannel file, long position, int length) throws InterruptedException {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        return offerBulk(new Bulk(header, file, position, length, written)) ? written : null;
+    }
+
+    private boolean offerBulk(Bulk chunk) throws InterruptedException {
+        while (!closed) {
+            if (bulk.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                // close() may have emptied the lane meanwhile
+                if (closed) {
+                    clearBulk();
+                }
+                queued.release();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the error that stopped the writer, or null while it is healthy.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Stops the writer; frames still queued are dropped.
+     */
+    public void close() {
+        closed = true;
+        writer.interrupt();
+        frames.clear();
+        clearBulk();
+    }
+
+    private void clearBulk() {
+        Bulk chunk;
+        while ((chunk = bulk.poll()) != null) {
+            chunk.dropped();
+        }
+    }
+
+    /**
+     * Returns the next frame to write, messages first. Only called with a permit, so one of the lanes has a frame.
+     * A file region is kept in region, to be written right after the frame returned, its header.
+     */
+    private ByteBuffer next() {
+        ByteBuffer frame = frames.poll();
+        if (frame != null) {
+            return frame;
+        }
+        Bulk chunk = bulk.poll();
+        if (chunk == null) {
+            return null; // Dropped by close()
+        }
+        if (chunk.file() != null) {
+            region = chunk;
+        }
+        return chunk.frame();
+    }
+
+    /**
+     * Writer loop: waits for a frame, gathers what else arrives within the flush window, and writes the batch at once.
+     */
+    private void drain() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        try {
+            while (!closed) {
+                queued.acquire();
+                ByteBuffer first = next();
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                int batchBytes = first.remaining();
+                long deadline = System.nanoTime() + flushWindowNanos;
+                // A file region ends the batch: its bytes follow its header
+                while (region == null && batchBytes < maxBatchBytes) {
+                    if (!queued.tryAcquire()) {
+                        long wait = deadline - System.nanoTime();
+                        if (batch.size() == 1 || wait <= 0 || !queued.tryAcquire(wait, TimeUnit.NANOSECONDS)) {
+                            break;
+                        }
+                    }
+                    ByteBuffer next = next();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    batchBytes += next.remaining();
+                }
+                write(batch.toArray(new ByteBuffer[0]), batchBytes);
+                batch.clear();
+                if (region != null) {
+                    transfer(region);
+                    region.written().complete(null);
+                    region = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            if (!closed) {
+                LOGGER.debug("Writer stopped: {}", e.getMessage());
+                failure = e;
+            }
+            closed = true;
+            frames.clear();
+            clearBulk();
+        } finally {
+            if (region != null) {
+                region.dropped();
+            }
+        }
+    }
+
+    private void transfer(Bulk region) throws IOException {
+        long position = region.position();
+        long end = position + region.length();
+        while (position < end) {
+            long sent = region.file().transferTo(position, end - position, channel);
+            if (sent <= 0 && position >= region.file().size()) {
+                throw new IOException("File cut short while being sent");
+            }
+            position += sent;
+        }
+        bytesWritten.addAndGet(region.length());
+    }
+
+    private void write(ByteBuffer[] buffers, int batchBytes) throws IOException {
+        long remaining = batchBytes;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+        batches.incrementAndGet();
+        framesWritten.addAndGet(buffers.length);
+        bytesWritten.addAndGet(batchBytes);
+        if (buffers.length > largestBatch) {
+            largestBatch = buffers.length;
+        }
+    }
+
+    /**
+     * A frame of the bulk lane, or the header of a file region with the future completed once it is written.
+     */
+    private record Bulk(ByteBuffer frame, FileChannel file, long position, int length, CompletableFuture<Void> written) {
+
+        void dropped() {
+            if (written != null) {
+                written.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Returns a snapshot of the queue depth and of the batching counters.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(frames.size(), bulk.size(), batches.get(), framesWritten.get(), bytesWritten.get(), largestBatch, rejected.get());
+    }
+
+    /**
+     * Queue depth and batching counters of an outbound queue.
+     */
+    public record Metrics(int queueDepth, int bulkDepth, long batches, long framesWritten, long bytesWritten, int largestBatch, long rejected) {
+
+        /**
+         * Returns the average number of frames written per gathering write.
+         */
+        public double averageBatchSize() {
+            return batches == 0 ? 0 : (double) framesWritten / batches;
+        }
+    }
+}
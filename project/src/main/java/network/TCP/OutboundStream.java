@@ -0,0 +1,195 @@
+package network.TCP;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The sending end of a stream opened on a framed connection.
+ * Bytes are cut into chunks queued behind the chat messages of the connection, and only as many bytes as the
+ * receiver granted are sent: write() blocks while the window is used up, so a slow receiver slows this stream
+ * down without filling the connection. Regions of a file are sent without copying them through the heap.
+ */
+public class OutboundStream {
+    public static final int CHUNK_SIZE = 16 * 1024;
+    // Larger for file regions, which cost no buffer
+    public static final int REGION_CHUNK_SIZE = 64 * 1024;
+
+    private final long id;
+    private final String name;
+    private final OutboundQueue queue;
+    private final CompletableFuture<Long> accepted = new CompletableFuture<>();
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
+    private long credit;
+    private long bytesSent;
+    private boolean finished;
+    private IOException failure;
+
+    OutboundStream(long id, String name, OutboundQueue queue) {
+        this.id = id;
+        this.name = name;
+        this.queue = queue;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the number of bytes queued so far.
+     */
+    public synchronized long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Completes once the receiver accepted the stream, with the number of bytes it already has from an earlier
+     * attempt and that need not be written again. Fails if the stream was refused or its connection closed.
+     */
+    public CompletableFuture<Long> accepted() {
+        return accepted;
+    }
+
+    /**
+     * Sends the remaining bytes of the buffer, waiting for the receiver's credit as needed.
+     * Fails if the stream was refused, aborted by the receiver or its connection closed.
+     */
+    public void write(ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            int size = awaitCredit(Math.min(data.remaining(), CHUNK_SIZE));
+            ByteBuffer frame = FrameCodec.encode(Frame.STREAM_DATA, id, 0, data.slice(data.position(), size));
+            data.position(data.position() + size);
+            queue(frame);
+            synchronized (this) {
+                bytesSent += size;
+            }
+        }
+    }
+
+    /**
+     * Sends length bytes of the file from position, waiting for the receiver's credit as needed. The connection's
+     * writer hands them to the socket with FileChannel.transferTo. The returned future completes once the writer is
+     * done with the file, which must stay open until then.
+     */
+    public CompletableFuture<Void> transfer(FileChannel file, long position, long length) throws IOException {
+        CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+        long end = position + length;
+        while (position < end) {
+            int size = awaitCredit((int) Math.min(end - position, REGION_CHUNK_SIZE));
+            ByteBuffer header = FrameCodec.encodeHeader(Frame.STREAM_DATA, id, 0, size);
+            try {
+                written = queue.offerBulk(header, file, position, size);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while queuing stream " + name);
+            }
+            if (written == null) {
+                IOException failure = queue.getFailure();
+                throw failure != null ? failure : new IOException("Connection closed");
+            }
+            position += size;
+            synchronized (this) {
+                bytesSent += size;
+            }
+        }
+        // The regions are written in order: the last one is written after all the others
+        return written;
+    }
+
+    /**
+     * Ends the stream after the bytes written so far. The future completes once the receiver consumed them all,
+     * or fails if it could not.
+     */
+    public CompletableFuture<Void> finish() {
+        synchronized (this) {
+            if (finished || failure != null) {
+                return closed;
+            }
+            finished = true;
+        }
+        try {
+            // Behind the chunks, in the same lane, so that it cannot overtake them
+            queue(FrameCodec.encodeControl(Frame.STREAM_CLOSE, id, Frame.STREAM_OK));
+        } catch (IOException e) {
+            fail(e);
+        }
+        return closed;
+    }
+
+    private synchronized int awaitCredit(int wanted) throws IOException {
+        while (credit == 0 && failure == null && !finished) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the receiver");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        if (finished) {
+            throw new IOException("Stream " + name + " already finished");
+        }
+        int granted = (int) Math.min(wanted, credit);
+        credit -= granted;
+        return granted;
+    }
+
+    private void queue(ByteBuffer frame) throws IOException {
+        try {
+            if (!queue.offerBulk(frame)) {
+                IOException failure = queue.getFailure();
+                throw failure != null ? failure : new IOException("Connection closed");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queuing stream " + name);
+        }
+    }
+
+    /**
+     * Records that the receiver accepted the stream.
+     */
+    void acceptedAt(long position) {
+        accepted.complete(position);
+    }
+
+    /**
+     * Adds credit granted by the receiver.
+     */
+    synchronized void grant(long bytes) {
+        credit += bytes;
+        notifyAll();
+    }
+
+    /**
+     * Ends the stream as the receiver closed it with the given status.
+     */
+    void closedByPeer(long status) {
+        if (status == Frame.STREAM_OK) {
+            closed.complete(null);
+        } else if (status == Frame.STREAM_REFUSED) {
+            fail(new IOException("Stream " + name + " refused by the peer"));
+        } else {
+            fail(new IOException("Stream " + name + " failed on the peer"));
+        }
+    }
+
+    void fail(IOException cause) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = cause;
+            }
+            notifyAll();
+        }
+        accepted.completeExceptionally(cause);
+        closed.completeExceptionally(cause);
+    }
+}
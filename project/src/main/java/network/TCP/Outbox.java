@@ -0,0 +1,413 @@
+package network.TCP;
+
+import contacts.RosterSnapshot;
+import contacts.User;
+import database.DatabaseManager;
+import database.Message;
+import database.OutboxEntry;
+import network.EventBus;
+import network.UDPObserver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToIntFunction;
+
+/**
+ * Store-and-forward delivery of chat messages: every message is recorded in the history and in a
+ * persistent outbox, then sent in order over the pooled connection to its peer. Messages a peer did not
+ * acknowledge stay queued and are retried with an exponential, jittered backoff, and right away when the
+ * peer reappears in the roster of active users.
+ * Retries are timers on one shared scheduler thread; an attempt runs on a virtual thread while it connects
+ * and waits for the acknowledgements, so hundreds of offline peers hold no thread.
+ * A message is sent with the same id on every attempt, so a peer whose acknowledgement was lost drops the copy
+ * sent again (peers speaking only the line protocol may still receive it twice). Acknowledged messages leave the
+ * store, and a peer's queue is removed once it has nothing left to deliver.
+ */
+public class Outbox implements UDPObserver {
+    private static final Logger LOGGER = LogManager.getLogger(Outbox.class);
+
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 500;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long ACK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    // Message ids of the outbox entries, between the per-connection ids and the room ones
+    private static final long FIRST_MESSAGE_ID = 1L << 61;
+
+    private final TCPConnectionPool pool;
+    // TCP port of each peer, by IP address
+    private final ToIntFunction<String> ports;
+    private final Store store;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Map<String, PeerQueue> queues = new ConcurrentHashMap<>();
+    // Peers of the last roster and its version, to notice the ones that reappear
+    private Set<String> present = new HashSet<>();
+    private long presentVersion = -1;
+    private final ScheduledExecutorService retries;
+    private EventBus.Subscription presence;
+
+    /**
+     * Persistence of the outbox entries.
+     */
+    public interface Store {
+        /**
+         * Records a new message in the QUEUED state and returns its outbox id.
+         */
+        long add(Message message);
+
+        void update(OutboxEntry entry);
+
+        /**
+         * Returns the entries not acknowledged yet, in sending order.
+         */
+        List<OutboxEntry> loadUndelivered();
+    }
+
+    /**
+     * Creates an outbox sending to the given port over the pool's connections, stored in the database.
+     */
+    public Outbox(TCPConnectionPool pool, int port) {
+        this(pool, ip -> port);
+    }
+
+    /**
+     * Creates an outbox sending to the port each peer listens on, as given by ports, stored in the database.
+     */
+    public Outbox(TCPConnectionPool pool, ToIntFunction<String> ports) {
+        this(pool, ports, new DatabaseStore(), DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * Creates an outbox whose retries wait baseDelayMillis, doubled after each failure up to maxDelayMillis.
+     */
+    public Outbox(TCPConnectionPool pool, int port, Store store, long baseDelayMillis, long maxDelayMillis) {
+        this(pool, ip -> port, store, baseDelayMillis, maxDelayMillis);
+    }
+
+    /**
+     * Creates an outbox sending to the port each peer listens on, whose retries wait baseDelayMillis, doubled after
+     * each failure up to maxDelayMillis.
+     */
+    public Outbox(TCPConnectionPool pool, ToIntFunction<String> ports, Store store, long baseDelayMillis, long maxDelayMillis) {
+        this.pool = pool;
+        this.ports = ports;
+        this.store = store;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.retries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "outbox-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the messages left undelivered by the previous session, and starts listening to the roster of active users.
+     */
+    public void start() {
+        for (OutboxEntry entry : store.loadUndelivered()) {
+            enqueue(entry);
+        }
+        LOGGER.info("{} undelivered messages in the outbox", getQueuedCount());
+        queues.values().forEach(this::deliverNow);
+        presence = EventBus.getInstance().subscribePresence(this);
+    }
+
+    /**
+     * Records a message in the history and in the outbox, and tries to deliver it right away.
+     */
+    public OutboxEntry send(Message message) {
+        DatabaseManager.addMessage(message);
+        OutboxEntry entry = new OutboxEntry(store.add(message), message, OutboxEntry.State.QUEUED, 0);
+        deliverNow(enqueue(entry));
+        return entry;
+    }
+
+    /**
+     * Tries again at once to deliver the messages queued for the peers that reappeared in the roster.
+     */
+    @Override
+    public void update(RosterSnapshot activeUsers) {
+        List<String> appeared = new ArrayList<>();
+        synchronized (this) {
+            if (activeUsers.follows(presentVersion)) {
+                // Only the changes since the last roster
+                for (User user : activeUsers.getRemoved()) {
+                    present.remove(user.getStringAddress());
+                }
+                for (User user : activeUsers.getAdded()) {
+                    if (present.add(user.getStringAddress())) {
+                        appeared.add(user.getStringAddress());
+                    }
+                }
+            } else {
+                Set<String> now = new HashSet<>();
+                for (User user : activeUsers) {
+                    if (now.add(user.getStringAddress()) && !present.contains(user.getStringAddress())) {
+                        appeared.add(user.getStringAddress());
+                    }
+                }
+                present = now;
+            }
+            presentVersion = activeUsers.getVersion();
+        }
+        for (String ip : appeared) {
+            PeerQueue queue = queues.get(ip);
+            if (queue != null) {
+                LOGGER.debug("{} is back, delivering its queued messages", ip);
+                deliverNow(queue);
+            }
+        }
+    }
+
+    /**
+     * Returns the message id an entry is sent with, the same for every attempt.
+     */
+    static long messageId(OutboxEntry entry) {
+        return FIRST_MESSAGE_ID + entry.getId();
+    }
+
+    /**
+     * Returns whether a received message id is the one of an outbox entry, which a peer may send more than once.
+     */
+    static boolean isOutboxId(long messageId) {
+        return messageId >= FIRST_MESSAGE_ID && messageId < FIRST_MESSAGE_ID << 1;
+    }
+
+    /**
+     * Returns the number of peers with messages queued or being delivered.
+     */
+    public int getPeerCount() {
+        return queues.size();
+    }
+
+    /**
+     * Returns the number of messages not acknowledged yet.
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        for (PeerQueue queue : queues.values()) {
+            synchronized (queue) {
+                count += queue.entries.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Stops the retries; the queued messages stay in the store for the next session.
+     */
+    public void close() {
+        if (presence != null) {
+            presence.close();
+        }
+        retries.shutdownNow();
+    }
+
+    /**
+     * Adds the entry to the queue of its peer, created if the peer has none.
+     */
+    private PeerQueue enqueue(OutboxEntry entry) {
+        // Added under the map's lock so that the queue cannot be removed meanwhile
+        return queues.compute(entry.getMessage().getIpDest(), (ip, queue) -> {
+            if (queue == null) {
+                queue = new PeerQueue(ip);
+            }
+            queue.add(entry);
+            return queue;
+        });
+    }
+
+    /**
+     * Removes the queue of a peer once it has nothing left to deliver.
+     */
+    private void removeIfIdle(PeerQueue queue) {
+        queues.computeIfPresent(queue.ip, (ip, current) -> {
+            synchronized (current) {
+                return current == queue && current.entries.isEmpty() && !current.delivering && current.retry == null ? null : current;
+            }
+        });
+    }
+
+    /**
+     * Starts an attempt for the peer unless one is running, replacing the pending retry.
+     */
+    private void deliverNow(PeerQueue queue) {
+        synchronized (queue) {
+            if (queue.delivering || queue.entries.isEmpty() || retries.isShutdown()) {
+                return;
+            }
+            if (queue.retry != null) {
+                queue.retry.cancel(false);
+                queue.retry = null;
+            }
+            queue.delivering = true;
+        }
+        Thread.ofVirtual().name("outbox-" + queue.ip).start(() -> {
+            boolean delivered = false;
+            try {
+                delivered = attempt(queue);
+            } catch (RuntimeException e) {
+                LOGGER.error("Delivery to {} failed: {}", queue.ip, e.getMessage());
+            }
+            finish(queue, !delivered);
+        });
+    }
+
+    /**
+     * Sends the queued messages of the peer in order on one connection and waits for their acknowledgements.
+     * The acknowledged ones leave the queue; from the first failure on, the others stay queued for the next attempt.
+     * Returns whether every message of the batch was acknowledged.
+     */
+    private boolean attempt(PeerQueue queue) {
+        List<OutboxEntry> batch;
+        synchronized (queue) {
+            batch = new ArrayList<>(queue.entries);
+        }
+        TCPSender sender = pool.get(queue.ip, ports.applyAsInt(queue.ip));
+        if (!sender.isConnected()) {
+            return false;
+        }
+        List<CompletableFuture<Ack>> acks = new ArrayList<>();
+        for (OutboxEntry entry : batch) {
+            CompletableFuture<Ack> ack = sender.deliverAsync(entry.getMessage().getData(), entry.getMessage().getDate().getTime(), messageId(entry));
+            if (ack.isCompletedExceptionally()) {
+                break;
+            }
+            entry.setState(OutboxEntry.State.SENT);
+            store.update(entry);
+            acks.add(ack.orTimeout(ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        }
+        boolean failed = acks.size() < batch.size();
+        for (int i = 0; i < acks.size(); i++) {
+            OutboxEntry entry = batch.get(i);
+            try {
+                acks.get(i).get();
+                entry.setState(OutboxEntry.State.ACKED);
+                store.update(entry);
+                synchronized (queue) {
+                    queue.entries.remove(entry);
+                }
+            } catch (ExecutionException e) {
+                failed = true;
+                break;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed = true;
+                break;
+            }
+        }
+        return !failed;
+    }
+
+    /**
+     * Puts the unacknowledged messages back in the QUEUED state and schedules the next attempt:
+     * after a backoff if the attempt failed, right away if messages were queued meanwhile.
+     */
+    private void finish(PeerQueue queue, boolean failed) {
+        boolean again;
+        synchronized (queue) {
+            queue.delivering = false;
+            for (OutboxEntry entry : queue.entries) {
+                if (failed) {
+                    entry.setAttempts(entry.getAttempts() + 1);
+                }
+                if (entry.getState() != OutboxEntry.State.QUEUED || failed) {
+                    entry.setState(OutboxEntry.State.QUEUED);
+                    store.update(entry);
+                }
+            }
+            if (!failed) {
+                queue.failures = 0;
+                if (queue.retry != null) {
+                    queue.retry.cancel(false);
+                    queue.retry = null;
+                }
+                again = !queue.entries.isEmpty();
+            } else {
+                again = false;
+                long delay = backoff(queue.failures++);
+                LOGGER.debug("Delivery to {} failed, {} messages queued, retrying in {} ms", queue.ip, queue.entries.size(), delay);
+                if (!retries.isShutdown()) {
+                    queue.retry = retries.schedule(() -> deliverNow(queue), delay, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        if (again) {
+            deliverNow(queue);
+        } else if (!failed) {
+            removeIfIdle(queue);
+        }
+    }
+
+    /**
+     * Returns the delay before the next attempt: the base delay doubled for each failure, capped,
+     * drawn between half and all of it so that peers failing together do not retry together.
+     */
+    long backoff(int failures) {
+        long delay = baseDelayMillis << Math.min(failures, 30);
+        if (delay <= 0 || delay > maxDelayMillis) {
+            delay = maxDelayMillis;
+        }
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * The messages queued for one peer, in sending order, and the state of its delivery.
+     */
+    private static class PeerQueue {
+        private final String ip;
+        private final Queue<OutboxEntry> entries = new ArrayDeque<>();
+        private boolean delivering;
+        private int failures;
+        private ScheduledFuture<?> retry;
+
+        PeerQueue(String ip) {
+            this.ip = ip;
+        }
+
+        synchronized void add(OutboxEntry entry) {
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Keeps the outbox in the database's Outbox table, from which acknowledged entries are deleted.
+     */
+    static class DatabaseStore implements Store {
+        @Override
+        public long add(Message message) {
+            return DatabaseManager.addOutboxEntry(message);
+        }
+
+        @Override
+        public void update(OutboxEntry entry) {
+            if (entry.getState() == OutboxEntry.State.ACKED) {
+                DatabaseManager.deleteOutboxEntry(entry.getId());
+            } else {
+                DatabaseManager.updateOutboxEntry(entry.getId(), entry.getState(), entry.getAttempts());
+            }
+        }
+
+        @Override
+        public List<OutboxEntry> loadUndelivered() {
+            // Acknowledged entries kept by earlier versions
+            DatabaseManager.deleteAckedOutboxEntries();
+            return DatabaseManager.getUndeliveredOutboxEntries();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package network.TCP;
+
+import contacts.Room;
+import controller.TextingController;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * Sends the messages of group rooms to every member over the pooled connections.
+ * A message is encoded once into a room frame, and each member's outbound queue gets a duplicate of that buffer,
+ * which shares its bytes. The caller only encodes the frame and hands the fan-out over: members are reached in
+ * parallel on virtual threads, so connecting to slow or offline members holds back neither the caller nor the others.
+ * The pool must be able to hold a connection per member, or members evict each other's connections.
+ */
+public class RoomFanout {
+    private static final Logger LOGGER = LogManager.getLogger(RoomFanout.class);
+    private static final long ACK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    // Room frames go to many connections with the same id: ids are taken far above the per-connection ones
+    private static final AtomicLong NEXT_MESSAGE_ID = new AtomicLong(1L << 62);
+
+    private final TCPConnectionPool pool;
+    // TCP port of each member, by IP address
+    private final ToIntFunction<String> ports;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * How many members a message was sent to, and how many acknowledged it.
+     */
+    public record Delivery(int members, int acknowledged) {
+        public boolean complete() {
+            return acknowledged == members;
+        }
+    }
+
+    /**
+     * Creates a fan-out sending to the given port over the pool's connections.
+     */
+    public RoomFanout(TCPConnectionPool pool, int port) {
+        this(pool, ip -> port);
+    }
+
+    /**
+     * Creates a fan-out sending to the port each member listens on, as given by ports, over the pool's connections.
+     */
+    public RoomFanout(TCPConnectionPool pool, ToIntFunction<String> ports) {
+        this.pool = pool;
+        this.ports = ports;
+    }
+
+    /**
+     * Sends a message to every member of the room but this host, and returns at once.
+     * The future completes when every member has acknowledged the message or failed to.
+     */
+    public CompletableFuture<Delivery> send(Room room, String text, long timestamp) {
+        long messageId = NEXT_MESSAGE_ID.getAndIncrement();
+        ByteBuffer frame = FrameCodec.encodeRoomText(messageId, timestamp, room, text);
+        return CompletableFuture.supplyAsync(() -> fanOut(room, messageId, timestamp, frame), executor)
+                .thenCompose(RoomFanout::collect);
+    }
+
+    /**
+     * Waits for every member's answer and counts the acknowledgements.
+     */
+    private static CompletableFuture<Delivery> collect(List<CompletableFuture<Boolean>> acks) {
+        CompletableFuture<Integer> acknowledged = CompletableFuture.completedFuture(0);
+        for (CompletableFuture<Boolean> ack : acks) {
+            acknowledged = acknowledged.thenCombine(ack, (count, delivered) -> delivered ? count + 1 : count);
+        }
+        return acknowledged.thenApply(count -> new Delivery(acks.size(), count));
+    }
+
+    /**
+     * Queues the frame for every member, each on its own virtual thread, and returns whether each member acknowledged it.
+     */
+    private List<CompletableFuture<Boolean>> fanOut(Room room, long messageId, long timestamp, ByteBuffer frame) {
+        String localIp = TextingController.getLocalIPAddress();
+        List<CompletableFuture<Boolean>> acks = new ArrayList<>(room.getMembers().size());
+        for (String member : room.getMembers()) {
+            if (Objects.equals(member, localIp)) {
+                continue;
+            }
+            acks.add(CompletableFuture.supplyAsync(() -> pool.get(member, ports.applyAsInt(member)), executor)
+                    .thenCompose(sender -> sender.deliverFrame(messageId, timestamp, frame.duplicate()))
+                    .orTimeout(ACK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)
+                    .handle((ack, error) -> {
+                        if (error != null) {
+                            LOGGER.warn("Room message not delivered to {}: {}", member, error.getMessage());
+                        }
+                        return error == null;
+                    }));
+        }
+        return acks;
+    }
+
+    /**
+     * Stops the fan-out threads.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,48 @@
+package network.TCP;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives the streams that peers open on their connections to a server.
+ */
+public interface StreamHandler {
+
+    /**
+     * Refuses every stream.
+     */
+    StreamHandler REFUSE = (remoteIp, name) -> null;
+
+    /**
+     * Returns the receiver of a stream the peer opened, or null to refuse it. Called on the connection's reader.
+     */
+    Receiver open(String remoteIp, String name);
+
+    /**
+     * Consumes the bytes of one stream, in order, on a thread of its own: a slow receiver holds back its stream only.
+     */
+    interface Receiver {
+        /**
+         * Consumes the next chunk. Throwing aborts the stream and tells the sender it failed.
+         */
+        void onData(ByteBuffer data) throws IOException;
+
+        /**
+         * Called after the last chunk once the sender finished the stream; the sender is told it succeeded on return.
+         */
+        void onFinish() throws IOException;
+
+        /**
+         * Returns the number of bytes already received by an earlier attempt, which the sender does not send again.
+         * Called once, before the first chunk.
+         */
+        default long position() {
+            return 0;
+        }
+
+        /**
+         * Called instead of onFinish when the stream ends early: connection lost or onData failed.
+         */
+        default void onAbort() {}
+    }
+}
@@ -0,0 +1,208 @@
+package network.TCP;
+
+import network.EventBus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps warm connections to recently used peers, keyed by peer address.
+ * The least recently used connection is closed when the pool is full, connections left idle
+ * for too long are closed by a background check, and dead connections are replaced on the next use.
+ * Opening and closing connections are published on the event bus; a connection whose peer stopped
+ * answering heartbeats publishes its own loss and is replaced on the next use.
+ */
+public class TCPConnectionPool {
+    private static final Logger LOGGER = LogManager.getLogger(TCPConnectionPool.class);
+
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final LinkedHashMap<String, PooledConnection> connections = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledExecutorService maintenance;
+    private long opened;
+
+    /**
+     * Creates a pool of at most 16 connections closed after 5 minutes without use.
+     */
+    public TCPConnectionPool() {
+        this(16, TimeUnit.MINUTES.toMillis(5));
+    }
+
+    /**
+     * Creates a pool with the given capacity and idle timeout.
+     */
+    public TCPConnectionPool(int maxSize, long idleTimeoutMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tcp-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(10, idleTimeoutMillis / 2);
+        maintenance.scheduleWithFixedDelay(this::evictIdleAndDead, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns a connected sender to the given peer, reusing the pooled connection when it is still healthy.
+     * Check isConnected() on the result: the connection attempt may have failed.
+     */
+    public TCPSender get(String ip, int port) {
+        String key = ip + ":" + port;
+        PooledConnection stale;
+        synchronized (this) {
+            PooledConnection pooled = connections.get(key);
+            if (pooled != null && isHealthy(pooled.sender)) {
+                pooled.lastUsed = System.currentTimeMillis();
+                return pooled.sender;
+            }
+            stale = pooled == null ? null : connections.remove(key);
+        }
+        if (stale != null) {
+            LOGGER.debug("Replacing dead connection to {}", key);
+            stop(stale.sender, ip);
+        }
+
+        // Connect outside the lock so that a slow peer does not hold back the others
+        TCPSender sender = new TCPSender();
+        sender.startConnection(ip, port);
+        List<PooledConnection> evicted = new ArrayList<>();
+        TCPSender winner;
+        synchronized (this) {
+            opened++;
+            if (!sender.isConnected()) {
+                LOGGER.debug("Unable to connect to {}", key);
+                return sender;
+            }
+            PooledConnection concurrent = connections.get(key);
+            if (concurrent != null && isHealthy(concurrent.sender)) {
+                winner = concurrent.sender;
+            } else {
+                winner = null;
+                connections.put(key, new PooledConnection(ip, sender));
+                Iterator<PooledConnection> eldest = connections.values().iterator();
+                while (connections.size() > maxSize) {
+                    evicted.add(eldest.next());
+                    eldest.remove();
+                }
+            }
+        }
+        if (winner != null) {
+            // Another caller connected to the same peer meanwhile: the duplicate is closed silently
+            sender.stopConnection();
+            return winner;
+        }
+        EventBus.getInstance().publishConnection(ip, true);
+        for (PooledConnection unused : evicted) {
+            stop(unused.sender, unused.ip);
+        }
+        return sender;
+    }
+
+    /**
+     * Closes and forgets the connection to the given peer, if any.
+     */
+    public void close(String ip, int port) {
+        PooledConnection pooled;
+        synchronized (this) {
+            pooled = connections.remove(ip + ":" + port);
+        }
+        if (pooled != null) {
+            stop(pooled.sender, ip);
+        }
+    }
+
+    /**
+     * Closes every pooled connection.
+     */
+    public void closeAll() {
+        List<PooledConnection> all;
+        synchronized (this) {
+            all = new ArrayList<>(connections.values());
+            connections.clear();
+        }
+        for (PooledConnection pooled : all) {
+            stop(pooled.sender, pooled.ip);
+        }
+    }
+
+    /**
+     * Closes every connection and stops the background checks.
+     */
+    public void shutdown() {
+        maintenance.shutdownNow();
+        closeAll();
+    }
+
+    /**
+     * Returns the number of pooled connections.
+     */
+    public synchronized int size() {
+        return connections.size();
+    }
+
+    /**
+     * Returns how many connections the pool has opened since it was created.
+     */
+    public synchronized long getOpenedCount() {
+        return opened;
+    }
+
+    /**
+     * Closes the connections idle for longer than the timeout and drops the ones the peer has closed.
+     */
+    void evictIdleAndDead() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> removed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<PooledConnection> iterator = connections.values().iterator();
+            while (iterator.hasNext()) {
+                PooledConnection pooled = iterator.next();
+                if (now - pooled.lastUsed > idleTimeoutMillis || !isHealthy(pooled.sender)) {
+                    removed.add(pooled);
+                    iterator.remove();
+                }
+            }
+        }
+        for (PooledConnection pooled : removed) {
+            stop(pooled.sender, pooled.ip);
+        }
+    }
+
+    private static void stop(TCPSender sender, String ip) {
+        // A lost connection has already been published by the sender
+        boolean connected = sender.isConnected();
+        sender.stopConnection();
+        if (connected) {
+            EventBus.getInstance().publishConnection(ip, false);
+        }
+    }
+
+    private static boolean isHealthy(TCPSender sender) {
+        return sender.isConnected() && sender.getClientSocket() != null && !sender.getClientSocket().isClosed();
+    }
+
+    /**
+     * A pooled sender, the peer it is connected to and the last time it was handed out.
+     */
+    private static class PooledConnection {
+        private final String ip;
+        private final TCPSender sender;
+        private long lastUsed = System.currentTimeMillis();
+
+        PooledConnection(String ip, TCPSender sender) {
+            this.ip = ip;
+            this.sender = sender;
+        }
+    }
+}
@@ -3,22 +3,93 @@ package network.TCP;
 import controller.TextingController;
 import database.DatabaseManager;
 import database.Message;
+import network.EventBus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.Date;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class TCPSender {
     private Socket clientSocket;
     private BufferedReader in;
     private PrintWriter out;
-    private boolean Connected;
+    private volatile boolean Connected;
+    private int protocolVersion;
+    private SocketChannel channel;
+    private OutboundQueue outbound;
+    private FrameCodec.Reader frameReader;
+    private final AtomicLong nextMessageId = new AtomicLong(1);
+    // Messages waiting for their acknowledgement, by id for frames and in sending order for lines
+    private final Map<Long, PendingMessage> pendingFrames = new ConcurrentHashMap<>();
+    private final Queue<PendingMessage> pendingLines = new ConcurrentLinkedQueue<>();
+    private final Map<Long, OutboundStream> streams = new ConcurrentHashMap<>();
+    private final AtomicLong nextStreamId = new AtomicLong(1);
+    private Thread ackReader;
+    private final int queueCapacity;
+    private final long flushWindowMicros;
+    private final int maxBatchBytes;
+    private final Heartbeat heartbeat;
+    private String peer;
+    private ScheduledFuture<?> heartbeatTask;
+    private final AtomicLong nextHeartbeatId = new AtomicLong(1);
+    // Set once the peer answered a heartbeat: older peers never do, and are not timed out
+    private volatile boolean peerAnswersHeartbeats;
+    private volatile long lastHeardAt;
+    private final AtomicBoolean lost = new AtomicBoolean();
     private static final Logger LOGGER = LogManager.getLogger(TCPSender.class);
 
+    // Heartbeats of every sender are scheduled on one shared thread
+    private static final ScheduledExecutorService HEARTBEATS = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tcp-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates a sender with the default outbound queue settings.
+     */
+    public TCPSender() {
+        this(OutboundQueue.DEFAULT_CAPACITY, OutboundQueue.DEFAULT_FLUSH_WINDOW_MICROS, OutboundQueue.DEFAULT_MAX_BATCH_BYTES);
+    }
+
+    /**
+     * Creates a sender whose outbound queue holds queueCapacity messages and coalesces
+     * the messages sent within flushWindowMicros, up to maxBatchBytes, into one write.
+     */
+    public TCPSender(int queueCapacity, long flushWindowMicros, int maxBatchBytes) {
+        this(queueCapacity, flushWindowMicros, maxBatchBytes, Heartbeat.DEFAULT);
+    }
+
+    /**
+     * Creates a sender with the default outbound queue settings and the given heartbeat settings.
+     */
+    public TCPSender(Heartbeat heartbeat) {
+        this(OutboundQueue.DEFAULT_CAPACITY, OutboundQueue.DEFAULT_FLUSH_WINDOW_MICROS, OutboundQueue.DEFAULT_MAX_BATCH_BYTES, heartbeat);
+    }
+
+    /**
+     * Creates a sender with the given outbound queue and heartbeat settings.
+     */
+    public TCPSender(int queueCapacity, long flushWindowMicros, int maxBatchBytes, Heartbeat heartbeat) {
+        this.queueCapacity = queueCapacity;
+        this.flushWindowMicros = flushWindowMicros;
+        this.maxBatchBytes = maxBatchBytes;
+        this.heartbeat = heartbeat;
+    }
+
     /**
      * Checks if the connection is established.
      */
@@ -26,6 +97,13 @@ public class TCPSender {
         return Connected;
     }
 
+    /**
+     * Returns the negotiated framing version, or 0 when the peer only speaks the "cs_msg=" line protocol.
+     */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
     /**
      * Gets the current client socket.
      */
@@ -38,7 +116,8 @@ public class TCPSender {
      */
     public void startConnection(String ip, int port) {
         try {
-            this.clientSocket = new Socket(ip, port);
+            this.channel = SocketChannel.open(new InetSocketAddress(ip, port));
+            this.clientSocket = channel.socket();
             LOGGER.info("Connected to {}:{}", ip, port);
             System.out.println("Connected to ");
 
@@ -47,37 +126,324 @@ public class TCPSender {
 
             in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
             LOGGER.info("Input Stream initialized");
-        } catch (UnknownHostException e) {
+
+            negotiate();
+            outbound = new OutboundQueue(channel, ip, queueCapacity, flushWindowMicros, maxBatchBytes);
+            peer = ip;
+            lost.set(false);
+            peerAnswersHeartbeats = false;
+            lastHeardAt = System.currentTimeMillis();
+            Connected = true;
+            ackReader = Thread.ofVirtual().name("tcp-ack-reader-" + ip).start(this::readAcks);
+            if (protocolVersion > 0) {
+                heartbeatTask = HEARTBEATS.scheduleAtFixedRate(this::checkPeer,
+                        heartbeat.intervalMillis(), heartbeat.intervalMillis(), TimeUnit.MILLISECONDS);
+            }
+        } catch (UnresolvedAddressException e) {
             LOGGER.error("Unknown host: {}:{}", ip, port);
         } catch (IOException e) {
-            LOGGER.debug("Error when initializing connection :{}", e.getMessage());
+            LOGGER.warn("Unable to connect to {}:{}: {}", ip, port, e.getMessage());
+        }
+    }
+
+    /**
+     * Offers binary framing to the server and falls back to lines if the server echoes the hello back.
+     */
+    private void negotiate() throws IOException {
+        out.println(FrameCodec.hello());
+        protocolVersion = FrameCodec.acceptedVersion(in.readLine());
+        if (protocolVersion > 0) {
+            frameReader = new FrameCodec.Reader(new DataInputStream(new BufferedInputStream(clientSocket.getInputStream())));
+            LOGGER.info("Using binary frames, version {}", protocolVersion);
+        } else {
+            LOGGER.info("Peer only speaks the line protocol");
         }
     }
 
     /**
-     * Sends a message to the server and returns the server's response.
+     * Sends a message to the server and waits for it to be acknowledged.
+     * Returns the message once acknowledged, or null if it could not be delivered.
      */
     public String sendMessage(String msg) {
         try {
-            Date date = new Date(Instant.now().toEpochMilli());
-            Message message = new Message(msg, date, TextingController.getLocalIPAddress(), this.clientSocket.getInetAddress().getHostAddress());
-            System.out.println("IP Source = " + TextingController.getLocalIPAddress());
-            System.out.println("IP dest = " + clientSocket.getInetAddress().getHostAddress());
-            DatabaseManager.addMessage(message);
-            msg = "cs_msg=" + msg;
-            System.out.println("Message envoyé : " + msg);
-            out.println(msg);
-            return in.readLine();
-        }catch (IOException ioException) {
-            LOGGER.error("Error when sending message", ioException);
+            sendMessageAsync(msg).get();
+            return msg;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return null;
+        } catch (ExecutionException e) {
+            LOGGER.error("Error when sending message", e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Sends a message without waiting for the server.
+     * Many messages can be in flight on the connection; each future completes when the peer acknowledges its message.
+     * The future fails with a QueueFullException when the outbound queue is full: the caller should slow down and retry.
+     */
+    public CompletableFuture<Ack> sendMessageAsync(String msg) {
+        // Read before sending: stopConnection may clear the socket meanwhile
+        Socket socket = clientSocket;
+        if (socket == null) {
+            return CompletableFuture.failedFuture(new IOException("Not connected"));
+        }
+        String remoteIp = socket.getInetAddress().getHostAddress();
+        Date date = new Date(Instant.now().toEpochMilli());
+        CompletableFuture<Ack> ack = deliverAsync(msg, date.getTime());
+        if (!ack.isCompletedExceptionally()) {
+            Message message = new Message(msg, date, TextingController.getLocalIPAddress(), remoteIp);
+            DatabaseManager.addMessage(message);
+        }
+        return ack;
+    }
+
+    /**
+     * Sends a message like sendMessageAsync, without recording it in the history.
+     */
+    CompletableFuture<Ack> deliverAsync(String msg, long sentAt) {
+        return deliverAsync(msg, sentAt, 0);
+    }
+
+    /**
+     * Sends a message like deliverAsync with the given message id, or the next one of the connection if 0: used by
+     * the outbox, which records the message once and sends it with the same id however many attempts it takes,
+     * so that the peer can drop duplicates. Lines carry no id.
+     */
+    CompletableFuture<Ack> deliverAsync(String msg, long sentAt, long messageId) {
+        if (!Connected) {
+            return CompletableFuture.failedFuture(new IOException("Not connected"));
+        }
+        if (messageId == 0) {
+            messageId = nextMessageId.getAndIncrement();
+        }
+        if (protocolVersion > 0) {
+            return deliverFrame(messageId, sentAt, FrameCodec.encodeText(messageId, sentAt, msg));
+        }
+        PendingMessage pending = new PendingMessage(messageId, sentAt);
+        boolean queued;
+        // Lines carry no id: the server echoes them in order, so they are acknowledged in order
+        synchronized (this) {
+            pendingLines.add(pending);
+            queued = outbound.offer(ByteBuffer.wrap(("cs_msg=" + escapeLineBreaks(msg) + "\n").getBytes(StandardCharsets.UTF_8)));
+            if (!queued) {
+                pendingLines.remove(pending);
+            }
+        }
+        if (!queued) {
+            return CompletableFuture.failedFuture(queueFailure());
+        }
+        return pending.future;
+    }
+
+    /**
+     * Replaces the line breaks of a message sent as a line by the Unicode line separator, which readLine does not
+     * split on: a break would make the server echo two lines, and shift every later acknowledgement.
+     */
+    static String escapeLineBreaks(String msg) {
+        if (msg.indexOf('\n') < 0 && msg.indexOf('\r') < 0) {
+            return msg;
+        }
+        return msg.replace("\r\n", "\u2028").replace('\r', '\u2028').replace('\n', '\u2028');
+    }
+
+    /**
+     * Queues an already encoded frame carrying the given message id, and returns the future completed by its acknowledgement.
+     * The frame may be a duplicate of a buffer shared with other senders: only its position is consumed.
+     */
+    CompletableFuture<Ack> deliverFrame(long messageId, long sentAt, ByteBuffer frame) {
+        if (!Connected) {
+            return CompletableFuture.failedFuture(new IOException("Not connected"));
+        }
+        if (protocolVersion == 0) {
+            return CompletableFuture.failedFuture(new IOException("Peer only speaks the line protocol"));
+        }
+        PendingMessage pending = new PendingMessage(messageId, sentAt);
+        pendingFrames.put(messageId, pending);
+        if (!outbound.offer(frame)) {
+            pendingFrames.remove(messageId);
+            return CompletableFuture.failedFuture(queueFailure());
+        }
+        return pending.future;
+    }
+
+    /**
+     * Opens a stream multiplexed on this connection, for bytes too many to send as messages.
+     * Its chunks only go out when no message is waiting, and at the pace the peer consumes them.
+     * Fails if the peer speaks a protocol version without streams.
+     */
+    public OutboundStream openStream(String name) throws IOException {
+        if (!Connected) {
+            throw new IOException("Not connected");
+        }
+        if (protocolVersion < FrameCodec.STREAMS_VERSION) {
+            throw new IOException("Peer does not support streams (protocol version " + protocolVersion + ")");
+        }
+        OutboundStream stream = new OutboundStream(nextStreamId.getAndIncrement(), name, outbound);
+        streams.put(stream.getId(), stream);
+        if (!outbound.offer(FrameCodec.encode(Frame.STREAM_OPEN, stream.getId(), System.currentTimeMillis(), name.getBytes(StandardCharsets.UTF_8)))) {
+            streams.remove(stream.getId());
+            throw queueFailure();
+        }
+        return stream;
+    }
+
+    private IOException queueFailure() {
+        IOException failure = outbound.getFailure();
+        return failure != null ? failure : new QueueFullException(queueCapacity);
+    }
+
+    /**
+     * Returns the depth and batching counters of the outbound queue, or null when not connected.
+     */
+    public OutboundQueue.Metrics getOutboundMetrics() {
+        OutboundQueue queue = outbound;
+        return queue == null ? null : queue.getMetrics();
+    }
+
+    /**
+     * Returns whether the peer answers heartbeats, so that its silence is detected.
+     */
+    public boolean isMonitored() {
+        return peerAnswersHeartbeats;
+    }
+
+    /**
+     * Sends a heartbeat, or declares the peer lost if it has been silent for missThreshold intervals.
+     * A heartbeat is skipped when the outbound queue is full: the pending messages already probe the peer.
+     */
+    private void checkPeer() {
+        if (!Connected) {
+            return;
+        }
+        if (peerAnswersHeartbeats && System.currentTimeMillis() - lastHeardAt > heartbeat.timeoutMillis()) {
+            connectionLost("no answer for " + heartbeat.timeoutMillis() + " ms");
+            return;
+        }
+        OutboundQueue queue = outbound;
+        if (queue != null) {
+            queue.offer(FrameCodec.encodeControl(Frame.HEARTBEAT, nextHeartbeatId.getAndIncrement(), heartbeat.intervalMillis()));
+        }
+    }
+
+    /**
+     * Marks the connection as lost once, publishes it on the event bus and closes the socket,
+     * which fails the messages still waiting for their acknowledgement.
+     */
+    private void connectionLost(String reason) {
+        if (!lost.compareAndSet(false, true)) {
+            return;
+        }
+        LOGGER.warn("Connection to {} lost: {}", peer, reason);
+        Connected = false;
+        cancelHeartbeats();
+        EventBus.getInstance().publishConnection(peer, false);
+        Socket socket = clientSocket;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            LOGGER.debug(e.getMessage());
+        }
+    }
+
+    private void cancelHeartbeats() {
+        ScheduledFuture<?> task = heartbeatTask;
+        if (task != null) {
+            task.cancel(false);
         }
     }
 
+    /**
+     * Matches acknowledgements from the server with the pending messages until the connection closes.
+     * Any frame received proves that the peer is alive.
+     */
+    private void readAcks() {
+        FrameCodec.Reader frames = frameReader;
+        BufferedReader lines = in;
+        try {
+            if (frames != null) {
+                Frame frame;
+                while ((frame = frames.read()) != null) {
+                    lastHeardAt = System.currentTimeMillis();
+                    if (frame.type() == Frame.HEARTBEAT_ACK) {
+                        peerAnswersHeartbeats = true;
+                    } else if (frame.type() == Frame.ACK) {
+                        PendingMessage pending = pendingFrames.remove(frame.messageId());
+                        if (pending != null) {
+                            pending.acknowledge();
+                        }
+                    } else if (frame.type() == Frame.STREAM_ACCEPT) {
+                        OutboundStream stream = streams.get(frame.messageId());
+                        if (stream != null) {
+                            stream.acceptedAt(frame.timestamp());
+                        }
+                    } else if (frame.type() == Frame.STREAM_WINDOW) {
+                        OutboundStream stream = streams.get(frame.messageId());
+                        if (stream != null) {
+                            stream.grant(frame.timestamp());
+                        }
+                    } else if (frame.type() == Frame.STREAM_CLOSE) {
+                        OutboundStream stream = streams.remove(frame.messageId());
+                        if (stream != null) {
+                            stream.closedByPeer(frame.timestamp());
+                        }
+                    }
+                }
+            } else {
+                while (lines.readLine() != null) {
+                    PendingMessage pending = pendingLines.poll();
+                    if (pending != null) {
+                        pending.acknowledge();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Acknowledgement reader stopped: {}", e.getMessage());
+        } finally {
+            // A connection closed by stopConnection is not lost
+            if (Connected) {
+                connectionLost("closed by peer");
+            }
+            Connected = false;
+            failPending(new IOException("Connection closed before acknowledgement"));
+        }
+    }
+
+    private void failPending(IOException cause) {
+        for (PendingMessage pending : pendingFrames.values()) {
+            pending.future.completeExceptionally(cause);
+        }
+        pendingFrames.clear();
+        PendingMessage pending;
+        while ((pending = pendingLines.poll()) != null) {
+            pending.future.completeExceptionally(cause);
+        }
+        for (OutboundStream stream : streams.values()) {
+            stream.fail(cause);
+        }
+        streams.clear();
+    }
+
+    /**
+     * Returns the number of messages sent and not yet acknowledged.
+     */
+    public int getInFlightCount() {
+        return pendingFrames.size() + pendingLines.size();
+    }
+
     /**
      * Stops the connection and releases resources.
      */
     public void stopConnection() {
+        Connected = false;
+        cancelHeartbeats();
+        heartbeatTask = null;
+        if (outbound != null) {
+            outbound.close();
+            outbound = null;
+        }
         try {
             if (out != null) {
                 out.close();
@@ -91,9 +457,45 @@ public class TCPSender {
                 clientSocket.close();
                 clientSocket = null; // Réinitialiser pour éviter de fermer à nouveau
             }
+            if (ackReader != null) {
+                ackReader.join(1000);
+                ackReader = null;
+            }
+            channel = null;
+            frameReader = null;
+            protocolVersion = 0;
             LOGGER.info("Connection closed");
         } catch (IOException e) {
             LOGGER.error("Error closing the connection: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Signals that a message was refused because too many messages are already waiting to be written.
+     */
+    public static class QueueFullException extends IOException {
+        public QueueFullException(int capacity) {
+            super("Outbound queue full (" + capacity + " messages waiting)");
+        }
+    }
+
+    /**
+     * A sent message and the future completed by its acknowledgement.
+     */
+    private static class PendingMessage {
+        private final long messageId;
+        private final long sentAt;
+        private final CompletableFuture<Ack> future = new CompletableFuture<>();
+
+        PendingMessage(long messageId, long sentAt) {
+            this.messageId = messageId;
+            this.sentAt = sentAt;
+        }
+
+        void acknowledge() {
+            future.complete(new Ack(messageId, sentAt, System.currentTimeMillis()));
         }
     }
 }
\ No newline at end of file
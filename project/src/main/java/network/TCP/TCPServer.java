@@ -1,54 +1,107 @@
 package network.TCP;
 
+import contacts.RoomList;
 import controller.TextingController;
-import database.DatabaseManager;
 import database.Message;
-import network.TCPObserver;
+import network.EventBus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.net.ProtocolException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 public class TCPServer {
     private ServerSocket serverSocket;
     private static final Logger LOGGER = LogManager.getLogger(TCPServer.class);
-    private boolean isReady = false;
-    private boolean isClosed = false;
+    protected volatile boolean isReady = false;
+    protected volatile boolean isClosed = false;
+    private final ExecutorService executor;
+    protected final InboundPipeline inbound;
+    protected volatile Heartbeat heartbeat = Heartbeat.DEFAULT;
+    protected volatile StreamHandler streamHandler = StreamHandler.REFUSE;
+    protected final DeliveredIds delivered = new DeliveredIds();
 
     /**
-     * Checks if the server is closed.
+     * Available server engines: one platform thread per accepted socket, one virtual thread per accepted socket,
+     * or a selector-based event loop.
      */
-    public boolean isClosed() {
-        return isClosed;
+    public enum Engine {
+        THREAD_PER_CONNECTION,
+        VIRTUAL_THREADS,
+        NIO
     }
 
-    private static List<TCPObserver> TCPObservers = new ArrayList<>();
+    /**
+     * Creates a server backed by the given engine.
+     */
+    public static TCPServer create(Engine engine) {
+        return switch (engine) {
+            case NIO -> new NioTCPServer();
+            case VIRTUAL_THREADS -> new TCPServer(Executors.newVirtualThreadPerTaskExecutor());
+            case THREAD_PER_CONNECTION -> new TCPServer();
+        };
+    }
 
     /**
-     * Adds an observer to the list of observers.
+     * Creates a server running each client handler on its own platform thread.
      */
-    public void addObserver(TCPObserver TCPObserver) {
-        TCPObservers.add(TCPObserver);
+    public TCPServer() {
+        this(Executors.newThreadPerTaskExecutor(Thread.ofPlatform().name("tcp-client-", 0).factory()));
     }
 
     /**
-     * Removes an observer from the list of observers.
+     * Creates a server running the client handlers on the given executor.
      */
-    public void removeObserver(TCPObserver TCPObserver) {
-        TCPObservers.remove(TCPObserver);
+    public TCPServer(ExecutorService executor) {
+        this(executor, new InboundPipeline());
     }
 
     /**
-     * Notifies all observers of a new message.
+     * Creates a server running the client handlers on the given executor and passing received messages to the given pipeline.
+     * The server owns both: it starts the pipeline when it starts, and shuts them down when it stops.
      */
-    private static void notifyObservers(Message message) {
-        for (TCPObserver TCPObserver : TCPObservers) {
-            TCPObserver.update(message);
-        }
+    public TCPServer(ExecutorService executor, InboundPipeline inbound) {
+        this.executor = executor;
+        this.inbound = inbound;
+    }
+
+    /**
+     * Returns the queue occupancy and stage latencies of the received messages.
+     */
+    public InboundPipeline.Metrics getInboundMetrics() {
+        return inbound.getMetrics();
+    }
+
+    /**
+     * Sets how long a client that sends heartbeats may stay silent before its connection is closed.
+     * Applies to the connections accepted from now on.
+     */
+    public void setHeartbeat(Heartbeat heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    /**
+     * Sets the handler of the streams clients open on their connections; streams are refused until one is set.
+     * Applies to the connections accepted from now on.
+     */
+    public void setStreamHandler(StreamHandler streamHandler) {
+        this.streamHandler = streamHandler;
+    }
+
+    /**
+     * Checks if the server is closed.
+     */
+    public boolean isClosed() {
+        return isClosed;
     }
 
     /**
@@ -56,12 +109,13 @@ public class TCPServer {
      */
     public void start(int port) {
         try {
+            inbound.start();
             serverSocket = new ServerSocket(port);
             isReady = true;
             isClosed = false;
             while (!isClosed) {
                 try {
-                    new ClientHandler(serverSocket.accept()).start();
+                    executor.execute(new ClientHandler(serverSocket.accept(), inbound, heartbeat, streamHandler, delivered));
                 } catch (IOException e) {
                     if (!serverSocket.isClosed()) {
                         e.printStackTrace();
@@ -83,7 +137,8 @@ public class TCPServer {
     }
 
     /**
-     * Stops the server and releases resources.
+     * Stops the server and releases resources: the executor takes no more clients, and the connections already
+     * served end with their sockets. Messages already received are still stored and dispatched.
      */
     public void stop() {
         try {
@@ -94,53 +149,187 @@ public class TCPServer {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (executor != null) {
+            executor.shutdown();
+        }
+        inbound.close();
     }
 
     /**
-     * Handles client communication in a separate thread.
+     * Processes one line received from a peer and returns the line to echo back.
+     * Chat messages ("cs_msg=" prefix) coming from another host are passed to the sink, which queues them for storage.
      */
-    private static class ClientHandler extends Thread{
+    static String handleLine(String inputLine, String remoteIp, Consumer<Message> sink) {
+        if (inputLine.startsWith("cs_msg="))
+        {
+            inputLine = inputLine.substring("cs_msg=".length());
+            deliver(inputLine, remoteIp, null, sink);
+        }
+        return inputLine;
+    }
+
+    /**
+     * Processes one frame received from a peer and returns the frame to answer with, or null.
+     * Data frames are delivered like "cs_msg=" lines and acknowledged with their message id once queued,
+     * room frames likewise once their room is known, and heartbeats are answered with the same id.
+     * An outbox message already delivered is acknowledged again without being delivered.
+     * Stream frames are not handled here but by the connection's InboundStreams.
+     */
+    static ByteBuffer handleFrame(Frame frame, String remoteIp, DeliveredIds delivered, Consumer<Message> sink) throws ProtocolException {
+        if (frame.type() == Frame.DATA) {
+            if (Outbox.isOutboxId(frame.messageId()) && !delivered.add(remoteIp, frame.messageId())) {
+                LOGGER.debug("Dropping message {} from {}, delivered already", frame.messageId(), remoteIp);
+            } else {
+                deliver(frame.text(), remoteIp, null, sink);
+            }
+            return FrameCodec.encodeControl(Frame.ACK, frame.messageId(), System.currentTimeMillis());
+        }
+        if (frame.type() == Frame.ROOM_DATA) {
+            FrameCodec.RoomText roomText = FrameCodec.decodeRoomText(frame);
+            RoomList.addOrUpdate(roomText.room());
+            deliver(roomText.text(), remoteIp, roomText.room().getId(), sink);
+            return FrameCodec.encodeControl(Frame.ACK, frame.messageId(), System.currentTimeMillis());
+        }
+        if (frame.type() == Frame.HEARTBEAT) {
+            return FrameCodec.encodeControl(Frame.HEARTBEAT_ACK, frame.messageId(), System.currentTimeMillis());
+        }
+        LOGGER.debug("Ignoring frame of type {} from {}", frame.type(), remoteIp);
+        return null;
+    }
+
+    /**
+     * Turns a text coming from another host into a message, of the given room if not null, and passes it to the sink.
+     */
+    private static void deliver(String text, String remoteIp, String roomId, Consumer<Message> sink) {
+        // Looking the address up walks the network interfaces: done once per message
+        String localIp = TextingController.getLocalIPAddress();
+        if(!Objects.equals(remoteIp, localIp))
+        {
+            LOGGER.debug(text);
+            Date date = new Date(Instant.now().toEpochMilli());
+            sink.accept(new Message(text, date, remoteIp, localIp, null, roomId));
+        }
+    }
+
+    /**
+     * Handles the communication with one client on a thread of the server's executor.
+     */
+    private static class ClientHandler implements Runnable {
         private final Socket clientSocket;
+        private final InboundPipeline inbound;
+        private final Heartbeat heartbeat;
+        private final StreamHandler streamHandler;
+        private final DeliveredIds delivered;
+        private int peerTimeoutMillis;
         private BufferedReader in;
         private PrintWriter out;
 
         /**
-         * Creates a new ClientHandler with the given socket.
+         * Creates a new ClientHandler with the given socket, queuing the received messages in the given pipeline.
          */
-        public ClientHandler(Socket socket) {
+        public ClientHandler(Socket socket, InboundPipeline inbound, Heartbeat heartbeat, StreamHandler streamHandler, DeliveredIds delivered) {
             this.clientSocket = socket;
+            this.inbound = inbound;
+            this.heartbeat = heartbeat;
+            this.streamHandler = streamHandler;
+            this.delivered = delivered;
+        }
+
+        /**
+         * Queues a received message, blocking this reader while the pipeline is full.
+         * The socket is not read meanwhile, so TCP flow control slows the peer down.
+         */
+        private void submit(Message message) {
+            try {
+                if (!inbound.submit(message)) {
+                    LOGGER.debug("Pipeline closed, dropping message from {}", message.getIpSource());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
 
         /**
          * Runs the communication loop, reading and responding to client messages.
+         * Lines are processed until the client asks for binary framing with a hello line.
          */
         public void run() {
             try {
                 out = new PrintWriter(clientSocket.getOutputStream(), true);
                 in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
                 String inputLine;
+                String remoteIp = clientSocket.getInetAddress().getHostAddress();
                 while ((inputLine = in.readLine()) != null) {
-                    if (inputLine.startsWith("cs_msg="))
-                    {
-                        if(!Objects.equals(clientSocket.getInetAddress().getHostAddress(), TextingController.getLocalIPAddress()))
-                        {
-                            inputLine = inputLine.substring("cs_msg=".length());
-                            LOGGER.debug(inputLine);
-                            Date date = new Date(Instant.now().toEpochMilli());
-                            Message message = new Message(inputLine, date, clientSocket.getInetAddress().getHostAddress(), TextingController.getLocalIPAddress());
-                            DatabaseManager.addMessage(message);
-                            synchronized (this) {
-                                notifyObservers(message);
-                            }
-                        }
+                    int version = FrameCodec.requestedVersion(inputLine);
+                    if (version > 0) {
+                        // The client waits for this answer before sending frames, so nothing is buffered in the reader
+                        out.println(FrameCodec.PROTO_PREFIX + version);
+                        serveFrames(remoteIp);
+                        break;
                     }
-                    out.println(inputLine);
+                    out.println(handleLine(inputLine, remoteIp, this::submit));
                 }
                 in.close();
-                clientSocket.close();
+            } catch (SocketTimeoutException e) {
+                String remoteIp = clientSocket.getInetAddress().getHostAddress();
+                LOGGER.warn("Connection from {} lost: no heartbeat for {} ms", remoteIp, peerTimeoutMillis);
+                EventBus.getInstance().publishConnection(remoteIp, false);
             } catch (IOException e) {
                 LOGGER.debug(e.getMessage());
+            } finally {
+                try {
+                    clientSocket.close();
+                } catch (IOException e) {
+                    LOGGER.debug(e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Reads and answers frames until the client closes the connection.
+         * Once the client has sent a heartbeat, a read timeout closes the connection if it goes silent for
+         * missThreshold of the intervals its heartbeats carry.
+         */
+        private void serveFrames(String remoteIp) throws IOException {
+            FrameCodec.Reader reader = new FrameCodec.Reader(new DataInputStream(new BufferedInputStream(clientSocket.getInputStream())));
+            OutputStream output = clientSocket.getOutputStream();
+            InboundStreams streams = new InboundStreams(remoteIp, streamHandler, reply -> reply(output, reply));
+            try {
+                Frame frame;
+                while ((frame = reader.read()) != null) {
+                    if (frame.type() == Frame.HEARTBEAT) {
+                        int timeout = (int) heartbeat.peerTimeoutMillis(frame.timestamp());
+                        if (timeout != peerTimeoutMillis) {
+                            clientSocket.setSoTimeout(timeout);
+                            peerTimeoutMillis = timeout;
+                        }
+                    }
+                    if (frame.isStream()) {
+                        streams.onFrame(frame);
+                        continue;
+                    }
+                    ByteBuffer reply = handleFrame(frame, remoteIp, delivered, this::submit);
+                    if (reply != null) {
+                        reply(output, reply);
+                    }
+                }
+            } finally {
+                streams.closeAll();
+            }
+        }
+
+        /**
+         * Writes a reply; the stream threads answer on the same connection, so writes are serialized.
+         */
+        private void reply(OutputStream output, ByteBuffer reply) {
+            synchronized (output) {
+                try {
+                    output.write(reply.array(), reply.arrayOffset() + reply.position(), reply.remaining());
+                    output.flush();
+                } catch (IOException e) {
+                    LOGGER.debug("Unable to reply: {}", e.getMessage());
+                }
             }
         }
     }
-}
\ No newline at end of file
+}
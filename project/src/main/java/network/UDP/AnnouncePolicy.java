@@ -0,0 +1,50 @@
+package network.UDP;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * How often a node announces its presence, given the number of peers it sees.
+ * Every broadcast is parsed by every node, so the interval grows with the roster to keep the packets of the whole
+ * network near targetPacketsPerSecond, between baseIntervalMillis and maxIntervalMillis. Each delay is drawn within
+ * jitter of the interval so that nodes started together drift apart instead of announcing in bursts.
+ * A peer is declared gone after missThreshold of the longest intervals it may be using without an announcement.
+ * Every node computes the interval from about the same roster, which is what keeps their timeouts in agreement.
+ */
+public record AnnouncePolicy(long baseIntervalMillis, long maxIntervalMillis, double targetPacketsPerSecond,
+                             double jitter, int missThreshold) {
+
+    public static final AnnouncePolicy DEFAULT = new AnnouncePolicy(2000, 30000, 50, 0.25, 3);
+
+    public AnnouncePolicy {
+        if (baseIntervalMillis <= 0 || maxIntervalMillis < baseIntervalMillis) {
+            throw new IllegalArgumentException("Invalid intervals: " + baseIntervalMillis + ", " + maxIntervalMillis);
+        }
+        if (targetPacketsPerSecond <= 0 || jitter < 0 || jitter >= 1 || missThreshold < 1) {
+            throw new IllegalArgumentException("Invalid announce policy");
+        }
+    }
+
+    /**
+     * Returns the mean interval between two announcements of a node seeing the given number of peers.
+     */
+    public long intervalMillis(int peers) {
+        // The peers and this node share the packet budget
+        long interval = (long) Math.ceil((peers + 1) * 1000 / targetPacketsPerSecond);
+        return Math.min(maxIntervalMillis, Math.max(baseIntervalMillis, interval));
+    }
+
+    /**
+     * Returns the delay before the next announcement, drawn within the jitter around the interval.
+     */
+    public long nextDelayMillis(int peers, RandomGenerator random) {
+        double factor = 1 - jitter + 2 * jitter * random.nextDouble();
+        return Math.round(intervalMillis(peers) * factor);
+    }
+
+    /**
+     * Returns how long a peer may stay silent before it is removed from the roster.
+     */
+    public long inactivityTimeoutMillis(int peers) {
+        return Math.round(missThreshold * intervalMillis(peers) * (1 + jitter));
+    }
+}
@@ -0,0 +1,114 @@
+package network.UDP;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntSupplier;
+
+/**
+ * Sends the presence announcements of this node at the pace of an AnnouncePolicy, on the presence timer.
+ * State changes (login, rename) are announced at once through announceNow(), which also restarts the period,
+ * and stopping sends a goodbye so that peers drop this node without waiting for its timeout.
+ * An announcement that fails is logged, and the next one is scheduled all the same.
+ */
+public class AnnounceScheduler {
+    private static final Logger LOGGER = LogManager.getLogger(AnnounceScheduler.class);
+
+    /**
+     * Sends one announcement.
+     */
+    @FunctionalInterface
+    public interface Announcement {
+        void send() throws IOException;
+    }
+
+    private final PresenceTimer timer;
+    private final AnnouncePolicy policy;
+    private final Announcement announcement;
+    private final Announcement goodbye;
+    private final IntSupplier peers;
+    private PresenceTimer.Task next;
+    private boolean started;
+    private boolean stopped;
+
+    /**
+     * Creates a scheduler sending the announcement on the timer, at the policy's pace for the number of peers given by peers.
+     */
+    public AnnounceScheduler(PresenceTimer timer, AnnouncePolicy policy, Announcement announcement, Announcement goodbye,
+                             IntSupplier peers) {
+        this.timer = timer;
+        this.policy = policy;
+        this.announcement = announcement;
+        this.goodbye = goodbye;
+        this.peers = peers;
+    }
+
+    /**
+     * Announces this node at once, then periodically.
+     */
+    public synchronized void start() {
+        if (!started && !stopped) {
+            started = true;
+            announceNow();
+        }
+    }
+
+    /**
+     * Announces at once, for a change the peers should learn about before the next period.
+     */
+    public synchronized void announceNow() {
+        if (!started || stopped) {
+            return;
+        }
+        reschedule(0);
+    }
+
+    private void reschedule(long delay) {
+        if (next != null) {
+            next.cancel();
+        }
+        try {
+            next = timer.schedule(this::announce, delay);
+        } catch (RejectedExecutionException e) {
+            // The timer was shut down meanwhile
+        }
+    }
+
+    private void announce() {
+        try {
+            announcement.send();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to announce presence: {}", e.getMessage());
+        } catch (RuntimeException e) {
+            LOGGER.error("Announcement failed", e);
+        }
+        synchronized (this) {
+            if (!stopped) {
+                reschedule(policy.nextDelayMillis(peers.getAsInt(), ThreadLocalRandom.current()));
+            }
+        }
+    }
+
+    /**
+     * Stops announcing and tells the peers this node is leaving.
+     */
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        if (next != null) {
+            next.cancel();
+        }
+        if (started) {
+            try {
+                goodbye.send();
+            } catch (IOException e) {
+                LOGGER.debug("Unable to say goodbye: {}", e.getMessage());
+            }
+        }
+    }
+}
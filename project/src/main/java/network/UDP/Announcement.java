@@ -0,0 +1,82 @@
+package network.UDP;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary layout of the discovery packets, replacing the "cs_nickname=" text of older versions.
+ *
+ * A packet is laid out as: magic (short), version (byte), type (byte), node id (long), sequence number (long),
+ * TCP port (unsigned short), roster digest (long), nickname length (unsigned byte), nickname (UTF-8).
+ * The node id is drawn at random when a session starts and the sequence number grows with every packet the node
+ * sends, so receivers can tell a fresh packet from a stale or duplicated one. The roster digest summarizes the
+ * users the sender sees: nodes with the same roster send the same digest.
+ * The magic cannot start a text packet, so both formats can share the discovery port.
+ */
+public final class Announcement {
+
+    public static final short MAGIC = (short) 0xC55C;
+    public static final byte VERSION = 1;
+
+    /**
+     * The sender is online, under the nickname of the packet.
+     */
+    public static final byte HELLO = 1;
+
+    /**
+     * The sender is leaving.
+     */
+    public static final byte BYE = 2;
+
+    static final int VERSION_OFFSET = 2;
+    static final int TYPE_OFFSET = 3;
+    static final int NODE_ID_OFFSET = 4;
+    static final int SEQUENCE_OFFSET = 12;
+    static final int TCP_PORT_OFFSET = 20;
+    static final int DIGEST_OFFSET = 22;
+    static final int NICKNAME_LENGTH_OFFSET = 30;
+    public static final int HEADER_SIZE = 31;
+    public static final int MAX_NICKNAME_BYTES = 255;
+    public static final int MAX_SIZE = HEADER_SIZE + MAX_NICKNAME_BYTES;
+
+    private Announcement() {}
+
+    /**
+     * Returns the UTF-8 bytes of a nickname, cut to the longest prefix of whole characters that fits in a packet.
+     */
+    public static byte[] nicknameBytes(String nickname) {
+        byte[] bytes = nickname.getBytes(StandardCharsets.UTF_8);
+        int end = nickname.length();
+        while (bytes.length > MAX_NICKNAME_BYTES) {
+            end = nickname.offsetByCodePoints(end, -1);
+            bytes = nickname.substring(0, end).getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a packet into the buffer at its position, and leaves the buffer flipped, ready to be sent.
+     */
+    public static ByteBuffer encode(ByteBuffer buffer, byte type, long nodeId, long sequence, int tcpPort, long digest, byte[] nickname) {
+        if (nickname.length > MAX_NICKNAME_BYTES) {
+            throw new IllegalArgumentException("Nickname too long: " + nickname.length + " bytes");
+        }
+        buffer.putShort(MAGIC);
+        buffer.put(VERSION);
+        buffer.put(type);
+        buffer.putLong(nodeId);
+        buffer.putLong(sequence);
+        buffer.putShort((short) tcpPort);
+        buffer.putLong(digest);
+        buffer.put((byte) nickname.length);
+        buffer.put(nickname);
+        return buffer.flip();
+    }
+
+    /**
+     * Returns whether the remaining bytes of the buffer start like a binary packet rather than a text one.
+     */
+    public static boolean isBinary(ByteBuffer packet) {
+        return packet.remaining() >= Short.BYTES && packet.getShort(packet.position()) == MAGIC;
+    }
+}
@@ -0,0 +1,168 @@
+package network.UDP;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks the binary announcements received, and lets through only the ones newer than the last packet of their node.
+ * The last sequence number of every node is kept in an open-addressing table on the node ids, so malformed,
+ * stale and duplicate packets are rejected without allocating. Nicknames are decoded once per node and kept
+ * until the node renames itself. Not thread-safe: used by the discovery thread only.
+ */
+public class AnnouncementFilter {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Slot i holds node ids[i]; an id of 0 marks a free slot
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private long[] sequences = new long[INITIAL_CAPACITY];
+    private long[] seenAt = new long[INITIAL_CAPACITY];
+    private byte[][] nicknameBytes = new byte[INITIAL_CAPACITY][];
+    private String[] nicknames = new String[INITIAL_CAPACITY];
+    private int size;
+
+    // Fields of the last accepted packet
+    private long nodeId;
+    private long sequence;
+    private int tcpPort;
+    private long digest;
+    private String nickname;
+
+    /**
+     * Checks the remaining bytes of the packet. Returns its type if it is a well-formed announcement newer than the
+     * last one of its node, whose fields are then available from the getters, or 0 otherwise.
+     */
+    public byte accept(ByteBuffer packet, long now) {
+        int start = packet.position();
+        int length = packet.remaining();
+        if (length < Announcement.HEADER_SIZE || packet.getShort(start) != Announcement.MAGIC
+                || packet.get(start + Announcement.VERSION_OFFSET) != Announcement.VERSION) {
+            return 0;
+        }
+        byte type = packet.get(start + Announcement.TYPE_OFFSET);
+        long id = packet.getLong(start + Announcement.NODE_ID_OFFSET);
+        long seq = packet.getLong(start + Announcement.SEQUENCE_OFFSET);
+        int nicknameLength = Byte.toUnsignedInt(packet.get(start + Announcement.NICKNAME_LENGTH_OFFSET));
+        if ((type != Announcement.HELLO && type != Announcement.BYE) || id == 0 || seq <= 0
+                || length != Announcement.HEADER_SIZE + nicknameLength) {
+            return 0;
+        }
+        int slot = slot(id);
+        if (ids[slot] == id && seq <= sequences[slot]) {
+            return 0;
+        }
+        if (ids[slot] != id) {
+            if (2 * (size + 1) > ids.length) {
+                grow();
+                slot = slot(id);
+            }
+            ids[slot] = id;
+            size++;
+        }
+        sequences[slot] = seq;
+        seenAt[slot] = now;
+        if (!sameNickname(nicknameBytes[slot], packet, start + Announcement.HEADER_SIZE, nicknameLength)) {
+            byte[] bytes = new byte[nicknameLength];
+            packet.get(start + Announcement.HEADER_SIZE, bytes);
+            nicknameBytes[slot] = bytes;
+            nicknames[slot] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        nodeId = id;
+        sequence = seq;
+        tcpPort = Short.toUnsignedInt(packet.getShort(start + Announcement.TCP_PORT_OFFSET));
+        digest = packet.getLong(start + Announcement.DIGEST_OFFSET);
+        nickname = nicknames[slot];
+        return type;
+    }
+
+    private static boolean sameNickname(byte[] known, ByteBuffer packet, int offset, int length) {
+        if (known == null || known.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (known[i] != packet.get(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot of the node, or the free slot where it belongs.
+     */
+    private int slot(long id) {
+        int mask = ids.length - 1;
+        int slot = Long.hashCode(id * 0x9E3779B97F4A7C15L) & mask;
+        while (ids[slot] != 0 && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        rebuild(ids.length * 2, Long.MIN_VALUE);
+    }
+
+    /**
+     * Forgets the nodes not heard from since the given time, so that the table does not keep every node ever seen.
+     */
+    public void expire(long seenBefore) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != 0 && seenAt[i] < seenBefore) {
+                rebuild(ids.length, seenBefore);
+                return;
+            }
+        }
+    }
+
+    private void rebuild(int capacity, long seenBefore) {
+        long[] oldIds = ids;
+        long[] oldSequences = sequences;
+        long[] oldSeenAt = seenAt;
+        byte[][] oldNicknameBytes = nicknameBytes;
+        String[] oldNicknames = nicknames;
+        ids = new long[capacity];
+        sequences = new long[capacity];
+        seenAt = new long[capacity];
+        nicknameBytes = new byte[capacity][];
+        nicknames = new String[capacity];
+        size = 0;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] != 0 && oldSeenAt[i] >= seenBefore) {
+                int slot = slot(oldIds[i]);
+                ids[slot] = oldIds[i];
+                sequences[slot] = oldSequences[i];
+                seenAt[slot] = oldSeenAt[i];
+                nicknameBytes[slot] = oldNicknameBytes[i];
+                nicknames[slot] = oldNicknames[i];
+                size++;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes whose sequence number is remembered.
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getTcpPort() {
+        return tcpPort;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+}
@@ -0,0 +1,49 @@
+package network.UDP;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+
+/**
+ * Writes the binary announcements of one node: its node id, drawn at random, and the next sequence number with
+ * every packet, into one buffer reused for all of them. A session has one; simulations one per virtual node.
+ */
+public class AnnouncementWriter {
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final long nodeId;
+    private final ByteBuffer packet = ByteBuffer.allocate(Announcement.MAX_SIZE);
+    private long sequence;
+    private byte[] nickname = new byte[0];
+
+    /**
+     * Creates the writer of a node with a random id.
+     */
+    public AnnouncementWriter() {
+        this(RANDOM.nextLong() | 1);
+    }
+
+    /**
+     * Creates the writer of the node of the given id, never 0.
+     */
+    public AnnouncementWriter(long nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Sets the nickname of the next announcements.
+     */
+    public synchronized void setNickname(String nickname) {
+        this.nickname = Announcement.nicknameBytes(nickname);
+    }
+
+    /**
+     * Writes the next announcement of the given type, and returns the buffer, ready to be sent until the next call.
+     */
+    public synchronized ByteBuffer write(byte type, int tcpPort, long digest) {
+        return Announcement.encode(packet.clear(), type, nodeId, ++sequence, tcpPort, digest, nickname);
+    }
+}
@@ -0,0 +1,152 @@
+package network.UDP;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the presence announcements through one long-lived channel per route, a route being an interface and
+ * the address announcements go to from it. Subclasses tell which routes exist and how to open their channels.
+ * Text announcements are encoded once and their bytes reused until the text changes, so an announce costs one
+ * send per route. The routes are listed again every rescan interval, to follow networks coming and going.
+ */
+public abstract class Announcer implements AutoCloseable {
+    private static final Logger LOGGER = LogManager.getLogger(Announcer.class);
+    private static final long RESCAN_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    protected final int port;
+    private final Map<Route, DatagramChannel> channels = new LinkedHashMap<>();
+    private long lastScan;
+    private String text;
+    private ByteBuffer packet;
+    private boolean closed;
+
+    /**
+     * Where announcements go from one interface, and the local address they leave from.
+     * The interface and the local address are null for a route left to the routing table.
+     */
+    protected record Route(NetworkInterface networkInterface, InetAddress local, InetSocketAddress destination) {}
+
+    /**
+     * Creates an announcer sending to the given port; the channels are opened on the first announce.
+     */
+    protected Announcer(int port) {
+        this.port = port;
+    }
+
+    /**
+     * Returns the routes announcements currently have to take.
+     */
+    protected abstract List<Route> routes();
+
+    /**
+     * Opens the channel announcements take on the given route.
+     */
+    protected abstract DatagramChannel open(Route route) throws IOException;
+
+    /**
+     * Announces the text on every route. The encoded bytes are kept until a different text is announced.
+     */
+    public synchronized void announce(String text) throws IOException {
+        if (!text.equals(this.text)) {
+            this.text = text;
+            packet = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        }
+        announce(packet.rewind());
+    }
+
+    /**
+     * Announces the remaining bytes of the packet on every route, leaving its position unchanged.
+     */
+    public synchronized void announce(ByteBuffer packet) throws IOException {
+        if (closed) {
+            throw new IOException("Announcer closed");
+        }
+        int start = packet.position();
+        long now = System.currentTimeMillis();
+        if (channels.isEmpty() || now - lastScan >= RESCAN_INTERVAL_MILLIS) {
+            lastScan = now;
+            scan();
+        }
+        boolean sent = false;
+        for (Map.Entry<Route, DatagramChannel> entry : List.copyOf(channels.entrySet())) {
+            try {
+                entry.getValue().send(packet.position(start), entry.getKey().destination());
+                sent = true;
+            } catch (IOException e) {
+                // The interface went away: dropped until the next scan finds it again
+                LOGGER.debug("Unable to announce to {}: {}", entry.getKey().destination(), e.getMessage());
+                closeChannel(entry.getValue());
+                channels.remove(entry.getKey());
+            }
+        }
+        if (!sent) {
+            throw new IOException("No interface to announce on");
+        }
+        packet.position(start);
+    }
+
+    /**
+     * Returns the addresses the announcements currently go to.
+     */
+    public synchronized List<InetSocketAddress> getTargets() {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (Route route : channels.keySet()) {
+            addresses.add(route.destination());
+        }
+        return addresses;
+    }
+
+    /**
+     * Opens a channel for every new route and closes the channels of the ones that disappeared.
+     */
+    private void scan() {
+        Map<Route, DatagramChannel> kept = new LinkedHashMap<>();
+        for (Route route : routes()) {
+            DatagramChannel existing = channels.remove(route);
+            if (existing != null) {
+                kept.put(route, existing);
+                continue;
+            }
+            try {
+                kept.put(route, open(route));
+            } catch (IOException e) {
+                LOGGER.debug("Unable to open a channel to {}: {}", route.destination(), e.getMessage());
+            }
+        }
+        channels.values().forEach(Announcer::closeChannel);
+        channels.clear();
+        channels.putAll(kept);
+        LOGGER.debug("Announcing to {}", getTargets());
+    }
+
+    private static void closeChannel(DatagramChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug(e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the channels of every route.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        channels.values().forEach(Announcer::closeChannel);
+        channels.clear();
+    }
+}
@@ -0,0 +1,81 @@
+package network.UDP;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.InterfaceAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends the presence announcement to the directed broadcast address of every active IPv4 interface,
+ * each through a long-lived channel bound to that interface's address.
+ * Without any interface that has a broadcast address, announcements go to 255.255.255.255.
+ */
+public class BroadcastAnnouncer extends Announcer {
+    private static final Logger LOGGER = LogManager.getLogger(BroadcastAnnouncer.class);
+
+    /**
+     * Creates an announcer sending to the given port; the channels are opened on the first announce.
+     */
+    public BroadcastAnnouncer(int port) {
+        super(port);
+    }
+
+    /**
+     * Returns a route to the broadcast address of every IPv4 address of the interfaces that are up, loopback excluded.
+     */
+    @Override
+    protected List<Route> routes() {
+        List<Route> routes = new ArrayList<>();
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                for (InterfaceAddress address : networkInterface.getInterfaceAddresses()) {
+                    if (address.getAddress() instanceof Inet4Address && address.getBroadcast() != null) {
+                        routes.add(new Route(networkInterface, address.getAddress(),
+                                new InetSocketAddress(address.getBroadcast(), port)));
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            LOGGER.warn("Unable to list the network interfaces: {}", e.getMessage());
+        }
+        if (routes.isEmpty()) {
+            try {
+                routes.add(new Route(null, null, new InetSocketAddress(InetAddress.getByName("255.255.255.255"), port)));
+            } catch (UnknownHostException e) {
+                LOGGER.warn("Unable to resolve the broadcast address: {}", e.getMessage());
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Opens a broadcast channel bound to the local address of the route.
+     */
+    @Override
+    protected DatagramChannel open(Route route) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+            channel.bind(new InetSocketAddress(route.local(), 0));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+}
@@ -0,0 +1,83 @@
+package network.UDP;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How peers find each other: the transport of the announcements, the port, and for multicast the groups and TTL.
+ * Every peer of a network has to use the same mode and port.
+ *
+ * @param mode   broadcast to every host of the segment, or multicast to the hosts that joined the groups
+ * @param port   UDP port announcements are sent to and received on
+ * @param groups multicast groups, IPv4 and IPv6 ones joined on the interfaces of their family
+ * @param ttl    multicast time to live: 1 keeps announcements on the local link
+ */
+public record DiscoveryConfig(Mode mode, int port, List<InetAddress> groups, int ttl) {
+
+    public enum Mode {
+        BROADCAST,
+        MULTICAST
+    }
+
+    /**
+     * Default multicast groups: administratively scoped for IPv4, site-local scoped for IPv6.
+     */
+    public static final String DEFAULT_GROUPS = "239.255.67.83,ff15::4353";
+
+    public DiscoveryConfig {
+        groups = List.copyOf(groups);
+        if (mode == Mode.MULTICAST) {
+            if (groups.isEmpty()) {
+                throw new IllegalArgumentException("Multicast discovery needs at least one group");
+            }
+            for (InetAddress group : groups) {
+                if (!group.isMulticastAddress()) {
+                    throw new IllegalArgumentException("Not a multicast address: " + group.getHostAddress());
+                }
+            }
+        }
+        if (ttl < 1 || ttl > 255) {
+            throw new IllegalArgumentException("TTL out of range: " + ttl);
+        }
+    }
+
+    /**
+     * Returns the broadcast discovery on the given port, as in the first versions.
+     */
+    public static DiscoveryConfig broadcast(int port) {
+        return new DiscoveryConfig(Mode.BROADCAST, port, List.of(), 1);
+    }
+
+    /**
+     * Returns the multicast discovery on the given port, groups and TTL.
+     */
+    public static DiscoveryConfig multicast(int port, List<InetAddress> groups, int ttl) {
+        return new DiscoveryConfig(Mode.MULTICAST, port, groups, ttl);
+    }
+
+    /**
+     * Reads the discovery from the system properties agora.discovery.mode (broadcast or multicast),
+     * agora.discovery.port, agora.discovery.groups (comma-separated) and agora.discovery.ttl.
+     */
+    public static DiscoveryConfig fromSystemProperties(int defaultPort) throws UnknownHostException {
+        Mode mode = Mode.valueOf(System.getProperty("agora.discovery.mode", "BROADCAST").toUpperCase());
+        int port = Integer.parseInt(System.getProperty("agora.discovery.port", String.valueOf(defaultPort)));
+        List<InetAddress> groups = new ArrayList<>();
+        if (mode == Mode.MULTICAST) {
+            for (String group : System.getProperty("agora.discovery.groups", DEFAULT_GROUPS).split(",")) {
+                groups.add(InetAddress.getByName(group.trim()));
+            }
+        }
+        int ttl = Integer.parseInt(System.getProperty("agora.discovery.ttl", "1"));
+        return new DiscoveryConfig(mode, port, groups, ttl);
+    }
+
+    /**
+     * Creates the announcer sending with this discovery.
+     */
+    public Announcer announcer() {
+        return mode == Mode.BROADCAST ? new BroadcastAnnouncer(port) : new MulticastAnnouncer(port, groups, ttl);
+    }
+}
@@ -0,0 +1,43 @@
+package network.UDP;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Presence timer on the system clock, running the tasks on a single-threaded scheduled executor.
+ */
+class ExecutorPresenceTimer implements PresenceTimer {
+    private final ScheduledExecutorService executor;
+
+    ExecutorPresenceTimer(String name) {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public long now() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delayMillis) {
+        ScheduledFuture<?> future = executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    @Override
+    public Task scheduleAtFixedRate(Runnable task, long periodMillis) {
+        ScheduledFuture<?> future = executor.scheduleAtFixedRate(task, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    @Override
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,112 @@
+package network.UDP;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolFamily;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sends the presence announcement to the discovery multicast groups, on every interface that is up and supports
+ * multicast and has an address of the group's family: IPv4 groups on IPv4 interfaces, IPv6 groups on IPv6 ones.
+ * Only the hosts that joined a group receive its announcements, and IPv6-only networks are covered.
+ * Announcements loop back to this host, so that peers running on it see them as well.
+ */
+public class MulticastAnnouncer extends Announcer {
+    private static final Logger LOGGER = LogManager.getLogger(MulticastAnnouncer.class);
+
+    private final List<InetAddress> groups;
+    private final int ttl;
+
+    /**
+     * Creates an announcer sending to the given groups and port, crossing at most ttl routers minus one.
+     */
+    public MulticastAnnouncer(int port, List<InetAddress> groups, int ttl) {
+        super(port);
+        this.groups = List.copyOf(groups);
+        this.ttl = ttl;
+    }
+
+    /**
+     * Returns a route to every group through every multicast interface of its family,
+     * or through the default interface of the routing table when there is none.
+     */
+    @Override
+    protected List<Route> routes() {
+        List<Route> routes = new ArrayList<>();
+        for (InetAddress group : groups) {
+            InetSocketAddress destination = new InetSocketAddress(group, port);
+            for (NetworkInterface networkInterface : interfaces(group)) {
+                routes.add(new Route(networkInterface, localAddress(networkInterface, group), destination));
+            }
+        }
+        if (routes.isEmpty()) {
+            for (InetAddress group : groups) {
+                routes.add(new Route(null, null, new InetSocketAddress(group, port)));
+            }
+        }
+        return routes;
+    }
+
+    /**
+     * Opens a channel of the group's family sending through the interface of the route.
+     */
+    @Override
+    protected DatagramChannel open(Route route) throws IOException {
+        DatagramChannel channel = DatagramChannel.open(family(route.destination().getAddress()));
+        try {
+            if (route.networkInterface() != null) {
+                channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, route.networkInterface());
+            }
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            channel.bind(new InetSocketAddress(route.local(), 0));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * Returns the interfaces that are up, support multicast and have an address of the group's family.
+     */
+    public static List<NetworkInterface> interfaces(InetAddress group) {
+        List<NetworkInterface> interfaces = new ArrayList<>();
+        try {
+            for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (networkInterface.isUp() && networkInterface.supportsMulticast()
+                        && localAddress(networkInterface, group) != null) {
+                    interfaces.add(networkInterface);
+                }
+            }
+        } catch (SocketException e) {
+            LOGGER.warn("Unable to list the network interfaces: {}", e.getMessage());
+        }
+        return interfaces;
+    }
+
+    private static InetAddress localAddress(NetworkInterface networkInterface, InetAddress group) {
+        for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+            if (family(address) == family(group)) {
+                return address;
+            }
+        }
+        return null;
+    }
+
+    static ProtocolFamily family(InetAddress address) {
+        return address instanceof Inet4Address ? StandardProtocolFamily.INET : StandardProtocolFamily.INET6;
+    }
+}
@@ -0,0 +1,111 @@
+package network.UDP;
+
+import contacts.ActiveUserList;
+import contacts.Roster;
+import contacts.RosterSnapshot;
+import network.EventBus;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Runs the periodic presence work of a session on one timer: the announcements of this node, and the expiry ticks
+ * of its roster, at a fixed rate of one per tick of its timing wheel. Every change of the roster, expiry or arrival,
+ * is published once on the event bus. A tick that fails is logged and
+ * the next one runs all the same, so an error does not end discovery for the rest of the session.
+ * Started with the session, announcing once logged in, and stopped when the session closes.
+ */
+public class PresenceService {
+    private static final Logger LOGGER = LogManager.getLogger(PresenceService.class);
+    public static final long TICK_MILLIS = 100;
+
+    private final PresenceTimer timer;
+    private final AnnouncePolicy policy;
+    private final Roster roster;
+    private final EventBus bus;
+    private final AnnounceScheduler announcements;
+    private PresenceTimer.Task ticks;
+    private boolean stopped;
+    private long publishedVersion;
+
+    /**
+     * Creates the service of the active user list on the given timer, announcing at the policy's pace with the given
+     * announcement and goodbye, and publishing on the event bus of the session.
+     */
+    public PresenceService(PresenceTimer timer, AnnouncePolicy policy, AnnounceScheduler.Announcement announcement,
+                           AnnounceScheduler.Announcement goodbye) {
+        this(timer, policy, announcement, goodbye, ActiveUserList.roster(), EventBus.getInstance());
+    }
+
+    /**
+     * Creates the service of the given roster, publishing its changes on the given event bus.
+     */
+    public PresenceService(PresenceTimer timer, AnnouncePolicy policy, AnnounceScheduler.Announcement announcement,
+                           AnnounceScheduler.Announcement goodbye, Roster roster, EventBus bus) {
+        this.timer = timer;
+        this.policy = policy;
+        this.roster = roster;
+        this.bus = bus;
+        this.announcements = new AnnounceScheduler(timer, policy, announcement, goodbye, roster::size);
+    }
+
+    /**
+     * Starts expiring the silent users.
+     */
+    public synchronized void start() {
+        if (ticks == null && !stopped) {
+            ticks = timer.scheduleAtFixedRate(this::tick, TICK_MILLIS);
+        }
+    }
+
+    /**
+     * Starts announcing this node, at once then periodically.
+     */
+    public void startAnnouncing() {
+        announcements.start();
+    }
+
+    /**
+     * Announces this node at once, for a change the peers should learn about before the next period.
+     */
+    public void announceNow() {
+        announcements.announceNow();
+    }
+
+    private void tick() {
+        try {
+            roster.removeInactiveUsers(timer.now(), policy.inactivityTimeoutMillis(roster.size()));
+            publishIfChanged();
+        } catch (RuntimeException e) {
+            LOGGER.error("Presence tick failed", e);
+        }
+    }
+
+    /**
+     * Publishes the roster on the event bus if a peer appeared, left or changed since the last publication.
+     */
+    public synchronized void publishIfChanged() {
+        if (roster.isChanged()) {
+            RosterSnapshot snapshot = roster.snapshot();
+            // The discovery thread and the ticks may both see the change: each version is published once
+            if (snapshot.getVersion() != publishedVersion) {
+                publishedVersion = snapshot.getVersion();
+                bus.publishPresence(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Says goodbye, stops the announcements and the expiry ticks, and releases the timer.
+     */
+    public synchronized void stop() {
+        if (stopped) {
+            return;
+        }
+        stopped = true;
+        announcements.stop();
+        if (ticks != null) {
+            ticks.cancel();
+        }
+        timer.shutdown();
+    }
+}
@@ -0,0 +1,42 @@
+package network.UDP;
+
+/**
+ * Clock and delayed tasks of the presence service: the system clock on a scheduled executor in a session,
+ * a virtual clock in tests and simulations, so that minutes of discovery run in milliseconds.
+ */
+public interface PresenceTimer {
+
+    /**
+     * A scheduled task, which can be cancelled before it runs (again).
+     */
+    interface Task {
+        void cancel();
+    }
+
+    /**
+     * Returns the current time in milliseconds.
+     */
+    long now();
+
+    /**
+     * Runs the task once after the delay.
+     */
+    Task schedule(Runnable task, long delayMillis);
+
+    /**
+     * Runs the task every period, the n-th run due at the first one plus n periods, so that late runs do not drift.
+     */
+    Task scheduleAtFixedRate(Runnable task, long periodMillis);
+
+    /**
+     * Cancels every task and releases the timer.
+     */
+    void shutdown();
+
+    /**
+     * Returns a timer on the system clock, running its tasks on one daemon thread of the given name.
+     */
+    static PresenceTimer system(String name) {
+        return new ExecutorPresenceTimer(name);
+    }
+}
@@ -1,88 +1,200 @@
 package network.UDP;
 
 import contacts.ActiveUserList;
-import contacts.User;
 import contacts.UserAlreadyExists;
 import controller.ContactController;
-import database.DatabaseManager;
-import network.UDPObserver;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.net.DatagramSocket;
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
-public class UDPServer extends Thread{
+/**
+ * Receives the discovery announcements of the other peers on a non-blocking DatagramChannel.
+ * Each announcement is handled as soon as it arrives, and the roster is published through the presence service
+ * as soon as it changes, so a new peer appears within one announce interval.
+ * Datagrams are read into one direct buffer reused for the whole session. Binary announcements go through an
+ * {@link AnnouncementFilter}, which drops the stale and duplicate ones; text announcements of older versions are still handled.
+ * Silent peers are removed by the expiry ticks of the PresenceService.
+ * In multicast mode the discovery groups are joined on every interface of their family, again at every rescan interval.
+ */
+public class UDPServer extends Thread {
+    private static final Logger LOGGER = LogManager.getLogger(UDPServer.class);
 
-    DatagramSocket socket;
+    // Larger than any announcement: longer datagrams are truncated
+    private static final int MAX_DATAGRAM_SIZE = 1500;
+    private static final long SWEEP_INTERVAL_MILLIS = 500;
+    private static final long RESCAN_INTERVAL_MILLIS = 30_000;
 
-    private static List<UDPObserver> udpObservers = new ArrayList<>();
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final AnnouncePolicy policy;
+    private final DiscoveryConfig discovery;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+    private final byte[] bytes = new byte[MAX_DATAGRAM_SIZE];
+    private final AnnouncementFilter filter = new AnnouncementFilter();
+    private volatile PresenceService presence;
+    private volatile boolean running = true;
+    private long lastSweep;
+    private long lastScan;
 
-    public void addObserver(UDPObserver observer) {
-        udpObservers.add(observer);
-    }
-    public void removeObserver(UDPObserver observer) {
-        udpObservers.remove(observer);
+    /**
+     * Binds the discovery channel to the given port; the announcements are read once the thread is started.
+     */
+    public UDPServer(int port) throws IOException {
+        this(port, AnnouncePolicy.DEFAULT);
     }
 
-    private static void notifyObservers(HashSet<User> activeUsers) {
-        for (UDPObserver UDPObserver : udpObservers) {
-            UDPObserver.update(activeUsers);
-        }
+    /**
+     * Binds the discovery channel to the given port, expecting the peers to announce at the pace of the given policy.
+     */
+    public UDPServer(int port, AnnouncePolicy policy) throws IOException {
+        this(DiscoveryConfig.broadcast(port), policy);
     }
 
-    public UDPServer (DatagramSocket socket){
-        this.socket = socket;
+    /**
+     * Binds the discovery channel to the port of the given discovery, joining its groups in multicast mode.
+     */
+    public UDPServer(DiscoveryConfig discovery, AnnouncePolicy policy) throws IOException {
+        super("udp-discovery");
+        this.policy = policy;
+        this.discovery = discovery;
+        setDaemon(true);
+        if (discovery.mode() == DiscoveryConfig.Mode.MULTICAST) {
+            // An IPv6 channel joins the IPv4 groups as well
+            boolean ipv6 = discovery.groups().stream().anyMatch(group -> group instanceof Inet6Address);
+            channel = DatagramChannel.open(ipv6 ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+            // Several peers of one host may join the groups
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(discovery.port()));
+            joinGroups();
+        } else {
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(discovery.port()));
+        }
+        selector = Selector.open();
     }
 
     /**
-     * A thread to periodically send the nickname to indicate online presence.
-     **/
-    public class SendNickNameThread extends Thread {
-        @Override
-        public void run() {
-            while (true) {
+     * Joins every discovery group on every multicast interface of its family; joining again is a no-op.
+     */
+    private void joinGroups() {
+        lastScan = System.currentTimeMillis();
+        for (InetAddress group : discovery.groups()) {
+            List<NetworkInterface> interfaces = MulticastAnnouncer.interfaces(group);
+            if (interfaces.isEmpty()) {
+                LOGGER.debug("No interface to join {} on", group.getHostAddress());
+            }
+            for (NetworkInterface networkInterface : interfaces) {
                 try {
-                    ContactController.sendNickname();
+                    channel.join(group, networkInterface);
                 } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    LOGGER.debug("Unable to join {} on {}: {}", group.getHostAddress(), networkInterface.getName(), e.getMessage());
                 }
+            }
+        }
+    }
 
-                try {
-                    Thread.sleep(2000);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
+    /**
+     * Publishes the roster through the given presence service as soon as an announcement changes it.
+     */
+    public void setPresence(PresenceService presence) {
+        this.presence = presence;
+    }
+
+    /**
+     * Returns the socket view of the discovery channel, closed with it.
+     */
+    public DatagramSocket getSocket() {
+        return channel.socket();
+    }
+
+    /**
+     * Handles the announcements as they arrive until the server is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            lastSweep = System.currentTimeMillis();
+            while (running) {
+                selector.select(SWEEP_INTERVAL_MILLIS);
+                selector.selectedKeys().clear();
+                receiveAll();
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SWEEP_INTERVAL_MILLIS) {
+                    lastSweep = now;
+                    long timeout = policy.inactivityTimeoutMillis(ActiveUserList.getActiveCount());
+                    // Sequence numbers are kept longer than users, so that late duplicates of a departed node stay rejected
+                    filter.expire(now - 10 * timeout);
                 }
+                if (discovery.mode() == DiscoveryConfig.Mode.MULTICAST && now - lastScan >= RESCAN_INTERVAL_MILLIS) {
+                    joinGroups();
+                }
+                PresenceService service = presence;
+                if (service != null) {
+                    service.publishIfChanged();
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                LOGGER.error("Discovery stopped: {}", e.getMessage());
             }
+        } finally {
+            close();
         }
     }
 
     /**
-     * A thread to periodically update the list of active users :
-     * Every 4 seconds, we read the nicknames received with addNewUsers
-     * If a user has not sent anything for 6 seconds, it is removed
-     * If there has been a change, the users are displayed
-     **/
-    public class UpdateUserThread extends Thread {
-        @Override
-        public void run() {
-            while (true){
-                try {
-                    ContactController.addNewUsers(socket,4000);
-                } catch (UserAlreadyExists e) {
-                    throw new RuntimeException(e);
-                }
-                ActiveUserList.removeInactiveUsers(6000);
-                if (ActiveUserList.getMaj_users()){
-                    synchronized (this) {
-                        System.out.println("appel obseerver update");
-                        notifyObservers(ActiveUserList.activeUsers);
+     * Handles every datagram waiting in the channel.
+     */
+    private void receiveAll() throws IOException {
+        SocketAddress origin;
+        while ((origin = channel.receive(buffer.clear())) != null) {
+            InetAddress address = ((InetSocketAddress) origin).getAddress();
+            try {
+                if (Announcement.isBinary(buffer.flip())) {
+                    byte type = filter.accept(buffer, System.currentTimeMillis());
+                    if (type != 0) {
+                        ContactController.handleAnnouncement(address, type, filter.getNickname(), filter.getTcpPort());
                     }
-                    DatabaseManager.displayAllUsers();
-                    ActiveUserList.setMaj_users(false);
+                } else {
+                    int length = buffer.remaining();
+                    buffer.get(bytes, 0, length);
+                    ContactController.handleContactDiscoveryMessage(
+                            new UDPMessage(new String(bytes, 0, length, StandardCharsets.UTF_8), address));
                 }
+            } catch (UserAlreadyExists e) {
+                LOGGER.warn("Ignoring announcement from {}: {}", address.getHostAddress(), e.getMessage());
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Stops handling announcements and closes the channel.
+     */
+    public void close() {
+        running = false;
+        try {
+            selector.close();
+            channel.close();
+        } catch (IOException e) {
+            LOGGER.debug(e.getMessage());
+        }
+    }
+}
@@ -1,10 +1,7 @@
 package network;
 
-import contacts.User;
-import database.Message;
-
-import java.util.HashSet;
+import contacts.RosterSnapshot;
 
 public interface UDPObserver {
-    void update(HashSet<User> activeUsers);
+    void update(RosterSnapshot activeUsers);
 }
\ No newline at end of file
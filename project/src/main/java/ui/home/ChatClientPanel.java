@@ -4,17 +4,20 @@ import assets.AudioPlayer;
 import assets.AvatarGenerator;
 import com.sun.tools.javac.Main;
 import contacts.ActiveUserList;
+import contacts.Room;
 import contacts.User;
 import controller.ContactController;
 import controller.MainController;
 import controller.TextingController;
 import database.Message;
+import network.MessageRouter;
 import network.TCPObserver;
 import ui.design.FontUtil;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.File;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
 import java.util.List;
@@ -26,7 +29,9 @@ public class ChatClientPanel extends JPanel implements TCPObserver {
     public List<Message> messages_history;
     private JPanel chatArea;
     private String userIP;
+    // The contact's IP address, or the room id in a group conversation
     private String contactIP;
+    private Room room;
     private JLabel chatTitle;
 
     /**
@@ -38,14 +43,45 @@ public class ChatClientPanel extends JPanel implements TCPObserver {
 
         // Initial setup
         String contactNickname = ActiveUserList.getNicknameByIp(ipAddress);
-        MainController.client.stopConnection();
         userContact = ContactController.getUserFromNickname(contactNickname);
         assert userContact != null;
         userIP = MainController.getMainUser().getIp_address().getHostAddress();
         contactIP = userContact.getIp_address().getHostAddress();
-        MainController.client.startConnection(contactIP, 4500);
         messages_history = TextingController.getMessagesWith(contactIP);
 
+        if (!Objects.equals(userIP, contactIP))
+        {
+            buildLayout("Chat with " + contactNickname, index);
+        }
+        else
+        {
+            buildLayout("Personal notes", index);
+        }
+    }
+
+    /**
+     * Initializes the group variant of the chat panel: the messages of the room, sent to all of its members.
+     */
+    public ChatClientPanel(Room room, int index) throws UnknownHostException {
+        FontUtil.registerFont("fonts/NokiaPureHeadline_Regular.ttf");
+        FontUtil.registerFont("fonts/NokiaPureHeadline_Ultralight.ttf");
+
+        this.room = room;
+        userIP = MainController.getMainUser().getIp_address().getHostAddress();
+        contactIP = room.getId();
+        messages_history = TextingController.getRoomMessages(room.getId());
+
+        buildLayout(roomTitle(), index);
+    }
+
+    private String roomTitle() {
+        return room.getName() + " (" + room.getMembers().size() + " members)";
+    }
+
+    /**
+     * Sets up the title, the chat area and the message input, then loads the history.
+     */
+    private void buildLayout(String title, int index) {
         setLayout(new BorderLayout());
         setBackground(Color.WHITE);
 
@@ -54,14 +90,7 @@ public class ChatClientPanel extends JPanel implements TCPObserver {
         ImageIcon avatarIcon = new ImageIcon(avatar.getScaledInstance(50, 50, Image.SCALE_SMOOTH));
         JLabel avatarLabel = new JLabel(avatarIcon);
 
-        if (!Objects.equals(userIP, contactIP))
-        {
-            chatTitle = new JLabel("Chat with " + contactNickname, JLabel.LEFT);
-        }
-        else
-        {
-            chatTitle = new JLabel("Personal notes", JLabel.LEFT);
-        }
+        chatTitle = new JLabel(title, JLabel.LEFT);
         chatTitle.setFont(new Font("Nokia Pure Headline", Font.BOLD, 24));
         chatTitle.setForeground(new Color(0, 0, 0));
 
@@ -109,6 +138,17 @@ public class ChatClientPanel extends JPanel implements TCPObserver {
         sendButton.setFocusPainted(false);
         sendButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
 
+        JButton fileButton = new JButton("+");
+        fileButton.setToolTipText("Send a file");
+        fileButton.setFont(new Font("Nokia Pure Headline", Font.PLAIN, 20));
+        fileButton.setBorderPainted(false);
+        fileButton.setContentAreaFilled(false);
+        fileButton.setFocusPainted(false);
+        fileButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        // Files are only sent in one-to-one conversations
+        fileButton.setVisible(room == null);
+
+        messagePanel.add(fileButton, BorderLayout.WEST);
         messagePanel.add(messageField, BorderLayout.CENTER);
         messagePanel.add(sendButton, BorderLayout.EAST);
         add(messagePanel, BorderLayout.SOUTH);
@@ -122,9 +162,11 @@ public class ChatClientPanel extends JPanel implements TCPObserver {
             }
         });
 
+        fileButton.addActionListener(e -> fileButtonHandler(contactIP));
+
         messageField.addActionListener(e -> {
             try {
-                sendButtonHandler(messageField, userContact.getIp_address().getHostAddress());
+                sendButtonHandler(messageField, contactIP);
             } catch (UnknownHostException ex) {
                 throw new RuntimeException(ex);
             }
@@ -191,7 +233,16 @@ public class ChatClientPanel extends JPanel implements TCPObserver {
         bubblePanel.setOpaque(false);
         bubblePanel.setBorder(BorderFactory.createEmptyBorder(10, 15, 10, 15));
 
-        JLabel messageLabel = new JLabel("<html><p style='width: 300px; word-wrap: break-word;'>" + msg.getData() + "</p></html>");
+        String text = msg.isFile() ? "<i>File:</i> " + msg.getData() : msg.getData();
+        if (room != null && !msg.getIpSource().equals(userIP)) {
+            // In a group, show who wrote the message
+            String sender = ActiveUserList.getNicknameByIp(msg.getIpSource());
+            text = "<b>" + (sender != null ? sender : msg.getIpSource()) + "</b><br>" + text;
+        }
+        JLabel messageLabel = new JLabel("<html><p style='width: 300px; word-wrap: break-word;'>" + text + "</p></html>");
+        if (msg.isFile()) {
+            messageLabel.setToolTipText(msg.getFilePath());
+        }
         messageLabel.setFont(new Font("Nokia Pure Headline", Font.PLAIN, 16));
         messageLabel.setForeground(msg.getIpSource().equals(userIP) ? Color.WHITE : Color.BLACK);
 
@@ -220,9 +271,14 @@ public class ChatClientPanel extends JPanel implements TCPObserver {
         String message = messageField.getText();
         if (!message.isEmpty()) {
             AudioPlayer.playMP3("sounds/send.mp3");
-            TextingController.sendMessage(message);
+            if (room != null) {
+                TextingController.sendToRoom(room, message);
+                messages_history = TextingController.getRoomMessages(room.getId());
+            } else {
+                TextingController.sendMessage(contactIP, message);
+                messages_history = TextingController.getMessagesWith(contactIP);
+            }
             messageField.setText("");
-            messages_history = TextingController.getMessagesWith(contactIP);
             loadMessages();
 
             JScrollBar verticalScrollBar = ((JScrollPane) chatArea.getParent().getParent()).getVerticalScrollBar();
@@ -230,27 +286,82 @@ public class ChatClientPanel extends JPanel implements TCPObserver {
         }
     }
 
+    /**
+     * Handles the action when the file button is clicked: sends the chosen file and shows it once the peer has stored it.
+     */
+    private void fileButtonHandler(String contactIP) {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        TextingController.sendFile(contactIP, file.toPath()).whenComplete((ignored, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null) {
+                JOptionPane.showMessageDialog(this, "Unable to send " + file.getName(), "File transfer", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            AudioPlayer.playMP3("sounds/send.mp3");
+            try {
+                refresh();
+            } catch (UnknownHostException ex) {
+                throw new RuntimeException(ex);
+            }
+        }));
+    }
+
+    /**
+     * Subscribes to the messages of this conversation once the panel is part of a displayed window.
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        MessageRouter.getInstance().subscribe(contactIP, this);
+    }
+
+    /**
+     * Unsubscribes when the panel is removed or its window disposed.
+     */
+    @Override
+    public void removeNotify() {
+        MessageRouter.getInstance().unsubscribe(contactIP, this);
+        super.removeNotify();
+    }
+
+    /**
+     * Receives the messages sent by this contact, or to this room; they are shown if the conversation is on screen,
+     * and loaded from the history by refresh() otherwise.
+     */
     @Override
     public void update(Message message) {
-        if (Objects.equals(message.getIpSource(), contactIP) && Objects.equals(HomeFrame.currentContact, ActiveUserList.getNicknameByIp(message.getIpSource()))) {
-            SwingUtilities.invokeLater(() -> {
-                JScrollBar verticalScrollBar = ((JScrollPane) chatArea.getParent().getParent()).getVerticalScrollBar();
-                SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm");
-
-                AudioPlayer.playMP3("sounds/receive.mp3");
-                addMessageBubble(message, dateFormat);
-                revalidate();
-                repaint();
-                SwingUtilities.invokeLater(() -> verticalScrollBar.setValue(verticalScrollBar.getMaximum()));
-            });
-        }
+        SwingUtilities.invokeLater(() -> {
+            if (!isShowing()) {
+                return;
+            }
+            JScrollBar verticalScrollBar = ((JScrollPane) chatArea.getParent().getParent()).getVerticalScrollBar();
+            SimpleDateFormat dateFormat = new SimpleDateFormat("HH:mm");
+
+            AudioPlayer.playMP3("sounds/receive.mp3");
+            addMessageBubble(message, dateFormat);
+            revalidate();
+            repaint();
+            SwingUtilities.invokeLater(() -> verticalScrollBar.setValue(verticalScrollBar.getMaximum()));
+        });
     }
 
     public void refresh() throws UnknownHostException {
-        MainController.client.stopConnection();
+        if (room != null) {
+            messages_history = TextingController.getRoomMessages(room.getId());
+            loadMessages();
+            chatTitle.setText(roomTitle());
+            return;
+        }
         assert userContact != null;
+        String previousIP = contactIP;
         contactIP = userContact.getIp_address().getHostAddress();
-        MainController.client.startConnection(contactIP, 4500);
+        if (isDisplayable() && !Objects.equals(previousIP, contactIP)) {
+            MessageRouter.getInstance().unsubscribe(previousIP, this);
+            MessageRouter.getInstance().subscribe(contactIP, this);
+        }
         messages_history = TextingController.getMessagesWith(contactIP);
         loadMessages();
         if (!Objects.equals(userIP, contactIP))
@@ -2,10 +2,14 @@ package ui.home;
 
 import assets.AvatarGenerator;
 import contacts.ActiveUserList;
+import contacts.Room;
+import contacts.RosterSnapshot;
+import contacts.RoomList;
 import contacts.User;
 import controller.ContactController;
 import controller.MainController;
-import network.UDP.UDPServer;
+import controller.TextingController;
+import network.EventBus;
 import network.UDPObserver;
 import ui.design.FontUtil;
 import ui.View;
@@ -14,17 +18,18 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.net.UnknownHostException;
-import java.util.HashSet;
+import java.util.List;
 
 public class HomeFrame extends JPanel implements UDPObserver {
 
-    private final UDPServer udpServer;
-    private final DefaultListModel<String> contacts;
     private final DefaultListModel<String> contactsNicknames;
+    private final DefaultListModel<Room> rooms;
     public static JPanel mainPanel;
     public static CardLayout cardLayout;
     private JDialog profileDialog;
     public static String currentContact;
+    // Version of the roster shown, read and written on the Swing thread
+    private long shownVersion = -1;
 
     /**
      * Constructor that initializes the HomeFrame UI.
@@ -33,26 +38,23 @@ public class HomeFrame extends JPanel implements UDPObserver {
         FontUtil.registerFont("fonts/NokiaPureHeadline_Regular.ttf");
         FontUtil.registerFont("fonts/NokiaPureHeadline_Ultralight.ttf");
 
-        this.contacts = new DefaultListModel<>();
         this.contactsNicknames = new DefaultListModel<>();
+        this.rooms = new DefaultListModel<>();
         this.cardLayout = new CardLayout();
         this.mainPanel = new JPanel(cardLayout);
-        this.udpServer = new UDPServer(MainController.socket);
 
-        udpServer.addObserver(this);
+        EventBus.getInstance().subscribePresence(this);
 
-        for (User contact : ActiveUserList.activeUsers) {
-            contacts.addElement(contact.getIp_address().getHostName());
-        }
-
-        for (int i = 0; i < contacts.size(); i++) {
-            String ipAddress = contacts.getElementAt(i);
-            String nickname = ActiveUserList.getNicknameByIp(ipAddress);
-            contactsNicknames.addElement(nickname);
+        // The list is keyed by nickname, which is unique in the roster
+        for (User contact : ActiveUserList.getAllContacts()) {
+            contactsNicknames.addElement(contact.getNickname());
         }
         contactsNicknames.addElement(myNickname);
 
-        startUDPServer();
+        RoomList.getAllRooms().forEach(rooms::addElement);
+        RoomList.addListener(() -> SwingUtilities.invokeLater(this::updateRooms));
+
+        startAnnouncing();
         initializeHome();
     }
 
@@ -105,6 +107,7 @@ public class HomeFrame extends JPanel implements UDPObserver {
 
         contactsList.setFixedCellHeight(70);
         contactsPanel.add(new JScrollPane(contactsList), BorderLayout.CENTER);
+        contactsPanel.add(createGroupsPanel(), BorderLayout.SOUTH);
         add(contactsPanel, BorderLayout.WEST);
 
         // Default Message Panel
@@ -138,6 +141,97 @@ public class HomeFrame extends JPanel implements UDPObserver {
         });
     }
 
+    /**
+     * Creates the list of group rooms, with a button to create a new one.
+     */
+    private JPanel createGroupsPanel() {
+        JPanel groupsPanel = new JPanel(new BorderLayout());
+        groupsPanel.setOpaque(false);
+        groupsPanel.setBorder(BorderFactory.createMatteBorder(1, 0, 0, 0, new Color(230, 230, 230))); // Top border
+
+        JLabel groupsLabel = new JLabel("Groups", JLabel.CENTER);
+        groupsLabel.setFont(new Font("Nokia Pure Headline", Font.BOLD, 18));
+        groupsLabel.setBorder(BorderFactory.createEmptyBorder(10, 0, 10, 0)); // Padding
+
+        JButton newGroupButton = new JButton("+");
+        newGroupButton.setToolTipText("New group");
+        newGroupButton.setFont(new Font("Nokia Pure Headline", Font.PLAIN, 20));
+        newGroupButton.setBorderPainted(false);
+        newGroupButton.setContentAreaFilled(false);
+        newGroupButton.setFocusPainted(false);
+        newGroupButton.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        newGroupButton.addActionListener(e -> newGroupHandler());
+
+        JPanel header = new JPanel(new BorderLayout());
+        header.setOpaque(false);
+        header.add(groupsLabel, BorderLayout.CENTER);
+        header.add(newGroupButton, BorderLayout.EAST);
+        groupsPanel.add(header, BorderLayout.NORTH);
+
+        JList<Room> roomsList = new JList<>(rooms);
+        roomsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        roomsList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                Room room = (Room) value;
+                label.setText("    " + room.getName() + " (" + room.getMembers().size() + ")");
+                label.setFont(new Font("NokiaPureHeadline_Ultralight.ttf", Font.PLAIN, 18));
+                label.setBorder(BorderFactory.createEmptyBorder(10, 20, 10, 20)); // Padding
+                label.setForeground(Color.BLACK);
+                label.setBackground(isSelected ? new Color(230, 230, 230) : Color.WHITE); // Highlight selected item
+                label.setOpaque(true);
+                return label;
+            }
+        });
+        roomsList.setFixedCellHeight(50);
+        roomsList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && roomsList.getSelectedValue() != null) {
+                try {
+                    showGroupPanel(roomsList.getSelectedValue(), roomsList.getSelectedIndex());
+                } catch (UnknownHostException ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        });
+        JScrollPane scrollPane = new JScrollPane(roomsList);
+        scrollPane.setPreferredSize(new Dimension(300, 180));
+        groupsPanel.add(scrollPane, BorderLayout.CENTER);
+        return groupsPanel;
+    }
+
+    /**
+     * Asks for a name and members among the active users, and creates the group room.
+     */
+    private void newGroupHandler() {
+        JList<User> members = new JList<>(ActiveUserList.getAllContacts().toArray(new User[0]));
+        members.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        members.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, ((User) value).getNickname(), index, isSelected, cellHasFocus);
+            }
+        });
+        JTextField name = new JTextField();
+        JPanel form = new JPanel(new BorderLayout(0, 10));
+        form.add(name, BorderLayout.NORTH);
+        form.add(new JScrollPane(members), BorderLayout.CENTER);
+        int choice = JOptionPane.showConfirmDialog(this, form, "New group: name and members", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        List<User> selected = members.getSelectedValuesList();
+        if (choice != JOptionPane.OK_OPTION || name.getText().isBlank() || selected.isEmpty()) {
+            return;
+        }
+        TextingController.createRoom(name.getText().trim(), selected.stream().map(User::getStringAddress).toList());
+    }
+
+    /**
+     * Reloads the list of group rooms.
+     */
+    private void updateRooms() {
+        rooms.clear();
+        RoomList.getAllRooms().forEach(rooms::addElement);
+    }
+
     /**
      * Creates and returns the profile button panel.
      */
@@ -201,7 +295,6 @@ public class HomeFrame extends JPanel implements UDPObserver {
         if (!View.activePanels.containsKey(ContactController.getIpFromNickname(contact))) {
             ChatClientPanel chatPanel = new ChatClientPanel(ContactController.getIpFromNickname(contact), index);
             View.activePanels.put(ContactController.getIpFromNickname(contact), chatPanel);
-            MainController.server.addObserver(chatPanel);
             mainPanel.add(chatPanel, "chat_" + ContactController.getIpFromNickname(contact));
         }
         cardLayout.show(mainPanel, "chat_" + ContactController.getIpFromNickname(contact));
@@ -214,27 +307,53 @@ public class HomeFrame extends JPanel implements UDPObserver {
     }
 
     /**
-     * Starts the UDP server with two threads for sending and updating users.
+     * Displays the chat panel of the selected group room.
      */
-    private void startUDPServer() {
-        Thread sendNickNameThread = udpServer.new SendNickNameThread();
-        sendNickNameThread.start();
+    private void showGroupPanel(Room room, int index) throws UnknownHostException {
+        if (!View.activePanels.containsKey(room.getId())) {
+            ChatClientPanel chatPanel = new ChatClientPanel(room, index);
+            View.activePanels.put(room.getId(), chatPanel);
+            mainPanel.add(chatPanel, "room_" + room.getId());
+        }
+        cardLayout.show(mainPanel, "room_" + room.getId());
+        View.activePanels.get(room.getId()).refresh();
+    }
 
-        Thread updateUserThread = udpServer.new UpdateUserThread();
-        updateUserThread.start();
+    /**
+     * Starts announcing the nickname; the announcements of the others are handled by the UDP server since the session started.
+     */
+    private void startAnnouncing() {
+        MainController.presence.startAnnouncing();
     }
 
     /**
-     * Updates the list of active users.
+     * Updates the list of active users, on the Swing thread: applies the changes of the new version to the one shown,
+     * or shows the whole roster again if a version was missed.
      */
     @Override
-    public void update(HashSet<User> activeUsers) {
-        contacts.clear();
-        contactsNicknames.clear();
+    public void update(RosterSnapshot activeUsers) {
+        SwingUtilities.invokeLater(() -> {
+            if (activeUsers.follows(shownVersion)) {
+                for (User user : activeUsers.getRemoved()) {
+                    contactsNicknames.removeElement(user.getNickname());
+                }
+                for (RosterSnapshot.Rename rename : activeUsers.getRenamed()) {
+                    int index = contactsNicknames.indexOf(rename.from().getNickname());
+                    if (index >= 0) {
+                        contactsNicknames.set(index, rename.to().getNickname());
+                    }
+                }
+                for (User user : activeUsers.getAdded()) {
+                    contactsNicknames.addElement(user.getNickname());
+                }
+            } else {
+                contactsNicknames.clear();
 
-        for (User user : activeUsers) {
-            contacts.addElement(user.getIp_address().toString());
-            contactsNicknames.addElement(user.getNickname());
-        }
+                for (User user : activeUsers) {
+                    contactsNicknames.addElement(user.getNickname());
+                }
+            }
+            shownVersion = activeUsers.getVersion();
+        });
     }
 }
\ No newline at end of file
@@ -0,0 +1,67 @@
+package chatsystem.benchmark;
+
+import network.UDP.AnnouncePolicy;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Simulates the presence announcements of a LAN of growing size, in virtual time, and reports the broadcast
+ * packets every node has to parse: the mean rate and the busiest 100 ms once the first minute has passed.
+ * The fixed schedule the adaptive policy replaced (every node every 2 s, no jitter) is compared with it,
+ * for nodes started at the same instant (a floor powering up) as the worst case.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.AnnounceRateSimulation
+ * Optional argument: simulated minutes (default 10).
+ */
+public class AnnounceRateSimulation {
+    private static final long WINDOW_MILLIS = 100;
+    private static final long SETTLE_MILLIS = 60_000;
+
+    /**
+     * Mean packet rate and busiest window of one simulated run.
+     */
+    private record Result(double packetsPerSecond, int peakPerWindow) {}
+
+    public static void main(String[] args) {
+        long duration = (args.length > 0 ? Long.parseLong(args[0]) : 10) * 60_000;
+        AnnouncePolicy adaptive = AnnouncePolicy.DEFAULT;
+        AnnouncePolicy fixed = new AnnouncePolicy(2000, 2000, Double.MAX_VALUE, 0, 3);
+
+        System.out.printf("%-6s | %-24s | %-44s%n", "", "fixed 2 s", "adaptive");
+        System.out.printf("%-6s | %10s %13s | %11s %10s %13s %7s%n",
+                "peers", "packets/s", "peak/100 ms", "interval ms", "packets/s", "peak/100 ms", "timeout");
+        for (int nodes : new int[]{10, 50, 100, 250, 500, 1000, 2000}) {
+            Result before = simulate(fixed, nodes, duration, new Random(1));
+            Result after = simulate(adaptive, nodes, duration, new Random(1));
+            System.out.printf("%-6d | %10.1f %13d | %11d %10.1f %13d %6.1fs%n", nodes,
+                    before.packetsPerSecond(), before.peakPerWindow(),
+                    adaptive.intervalMillis(nodes - 1), after.packetsPerSecond(), after.peakPerWindow(),
+                    adaptive.inactivityTimeoutMillis(nodes - 1) / 1000.0);
+        }
+    }
+
+    /**
+     * Runs the given number of nodes, all starting at time 0 and seeing every other node, for the duration.
+     */
+    private static Result simulate(AnnouncePolicy policy, int nodes, long duration, Random random) {
+        // Next announcement time of each node, earliest first
+        PriorityQueue<Long> schedule = new PriorityQueue<>();
+        for (int i = 0; i < nodes; i++) {
+            schedule.add(0L);
+        }
+        int[] windows = new int[(int) (duration / WINDOW_MILLIS) + 1];
+        long packets = 0;
+        while (schedule.peek() < duration) {
+            long time = schedule.poll();
+            packets++;
+            windows[(int) (time / WINDOW_MILLIS)]++;
+            schedule.add(time + policy.nextDelayMillis(nodes - 1, random));
+        }
+        int peak = 0;
+        for (int i = (int) (SETTLE_MILLIS / WINDOW_MILLIS); i < windows.length; i++) {
+            peak = Math.max(peak, windows[i]);
+        }
+        return new Result(packets * 1000.0 / duration, peak);
+    }
+}
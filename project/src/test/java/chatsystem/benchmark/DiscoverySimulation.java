@@ -0,0 +1,44 @@
+package chatsystem.benchmark;
+
+import chatsystem.network.DiscoverySimulator;
+import network.UDP.AnnouncePolicy;
+
+/**
+ * Simulates the discovery of LANs of growing size in one JVM, with the roster, filter and presence code of a session
+ * on every node, and reports how long the nodes take to all see each other, the share of the node pairs in the
+ * rosters from then on, the peers wrongly removed for their silence, the broadcasts sent per second, and the CPU
+ * every node spends on discovery. Nodes start within 10 s of each other; every packet copy is lost with the
+ * given probability and delivered after the given delay, plus up to as much again.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.DiscoverySimulation
+ * Optional arguments: loss (default 0.05), delay in ms (default 5), simulated minutes (default 2), node counts (default 10 50 100 300).
+ */
+public class DiscoverySimulation {
+    private static final long START_SPREAD_MILLIS = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        double loss = args.length > 0 ? Double.parseDouble(args[0]) : 0.05;
+        long delay = args.length > 1 ? Long.parseLong(args[1]) : 5;
+        long duration = (args.length > 2 ? Long.parseLong(args[2]) : 2) * 60_000;
+        int[] counts = {10, 50, 100, 300};
+        if (args.length > 3) {
+            counts = new int[args.length - 3];
+            for (int i = 3; i < args.length; i++) {
+                counts[i - 3] = Integer.parseInt(args[i]);
+            }
+        }
+        System.out.printf("loss %.0f%%, delay %d-%d ms, starts within %d s, %d simulated s%n",
+                loss * 100, delay, 2 * delay, START_SPREAD_MILLIS / 1000, duration / 1000);
+        System.out.printf("%-6s %15s %17s %9s %11s %14s %17s%n",
+                "nodes", "convergence s", "coverage mean/min", "expired", "packets/s", "deliveries/s", "CPU us/node/s");
+        for (int nodes : counts) {
+            DiscoverySimulator simulator = new DiscoverySimulator(nodes, AnnouncePolicy.DEFAULT, loss, delay, delay,
+                    START_SPREAD_MILLIS, 1);
+            DiscoverySimulator.Result result = simulator.run(duration);
+            System.out.printf("%-6d %15s %7.2f%% %7.2f%% %9d %11.1f %14.0f %17.1f%n", nodes,
+                    result.convergenceMillis() < 0 ? "never" : String.format("%.1f", result.convergenceMillis() / 1000.0),
+                    100 * result.meanCoverage(), 100 * result.minCoverage(), result.expirations(),
+                    result.packetsPerSecond(), result.deliveriesPerSecond(), result.cpuMicrosPerNodeSecond());
+        }
+    }
+}
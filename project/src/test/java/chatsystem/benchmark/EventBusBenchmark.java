@@ -0,0 +1,75 @@
+package chatsystem.benchmark;
+
+import database.Message;
+import network.EventBus;
+import network.TCPObserver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Events per second a network thread can publish to the event bus, compared with the observer lists the bus replaced:
+ * a static ArrayList walked by the publishing thread under a lock, each observer running on that thread.
+ * handlerTokens is the CPU work done per event by each subscriber (Blackhole.consumeCPU tokens).
+ *
+ * Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java -Dexec.args="-cp %classpath org.openjdk.jmh.Main EventBusBenchmark"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EventBusBenchmark {
+
+    @Param({"1", "4"})
+    public int subscribers;
+
+    @Param({"0", "200"})
+    public long handlerTokens;
+
+    private final Message message = new Message("benchmark", new Date(), "10.0.0.1", "10.0.0.2");
+    private final AtomicLong handled = new AtomicLong();
+    private EventBus bus;
+    private List<EventBus.Subscription> subscriptions;
+    private List<TCPObserver> observers;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bus = new EventBus(EventBus.DEFAULT_RING_SIZE);
+        subscriptions = new ArrayList<>();
+        observers = new ArrayList<>();
+        for (int i = 0; i < subscribers; i++) {
+            TCPObserver observer = received -> {
+                Blackhole.consumeCPU(handlerTokens);
+                handled.incrementAndGet();
+            };
+            observers.add(observer);
+            subscriptions.add(bus.subscribeMessages(observer));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        subscriptions.forEach(EventBus.Subscription::close);
+    }
+
+    @Benchmark
+    public void eventBus() {
+        bus.publishMessage(message);
+    }
+
+    @Benchmark
+    public void observerList() {
+        synchronized (this) {
+            for (TCPObserver observer : observers) {
+                observer.update(message);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package chatsystem.benchmark;
+
+import network.TCP.FileTransferReceiver;
+import network.TCP.FileTransferSender;
+import network.TCP.InboundPipeline;
+import network.TCP.TCPConnectionPool;
+import network.TCP.TCPServer;
+
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * Sends a large file over loopback and reports the throughput together with the CPU time
+ * and the heap used by the process, which should stay flat whatever the file size.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.FileTransferBenchmark
+ * Optional argument: file size in MB (default 1024).
+ */
+public class FileTransferBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 1024;
+        int port = 5400;
+        Path directory = Files.createTempDirectory("file-transfer-benchmark");
+        Path file = directory.resolve("payload.bin");
+        try (RandomAccessFile payload = new RandomAccessFile(file.toFile(), "rw")) {
+            byte[] block = new byte[1024 * 1024];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) (i * 31);
+            }
+            for (long i = 0; i < megabytes; i++) {
+                payload.write(block);
+            }
+        }
+
+        TCPServer server = new TCPServer(Executors.newVirtualThreadPerTaskExecutor(), new InboundPipeline(1024, 64, batch -> { }, message -> { }));
+        server.setStreamHandler(new FileTransferReceiver(directory.resolve("received"), Long.MAX_VALUE, (remoteIp, fileName, size) -> true));
+        Thread serverThread = new Thread(() -> server.start(port));
+        serverThread.start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+        TCPConnectionPool connections = new TCPConnectionPool();
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        com.sun.management.OperatingSystemMXBean os = (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        long cpuBefore = os.getProcessCpuTime();
+        long start = System.nanoTime();
+
+        long sent = new FileTransferSender().send(connections, "localhost", port, file);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double cpuSeconds = (os.getProcessCpuTime() - cpuBefore) / 1e9;
+        long heapAfter = memory.getHeapMemoryUsage().getUsed();
+
+        System.out.printf("%-12s %12s%n", "size", megabytes + " MB");
+        System.out.printf("%-12s %12.3f%n", "seconds", seconds);
+        System.out.printf("%-12s %12.0f%n", "MB/s", sent / 1048576.0 / seconds);
+        System.out.printf("%-12s %12.3f (%.0f%% of one core)%n", "cpu seconds", cpuSeconds, 100 * cpuSeconds / seconds);
+        System.out.printf("%-12s %12d KB%n", "heap delta", (heapAfter - heapBefore) / 1024);
+
+        connections.shutdown();
+        server.stop();
+        serverThread.join(5000);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
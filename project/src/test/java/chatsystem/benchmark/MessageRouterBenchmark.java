@@ -0,0 +1,77 @@
+package chatsystem.benchmark;
+
+import database.Message;
+import network.MessageRouter;
+import network.TCPObserver;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of delivering one message with the given number of open conversations: routed through the dispatch table,
+ * or broadcast to every panel as before, each panel comparing the sender with its contact and looking the
+ * sender's nickname up in a list of that size.
+ *
+ * Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java -Dexec.args="-cp %classpath org.openjdk.jmh.Main MessageRouterBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageRouterBenchmark {
+
+    @Param({"1", "10", "100", "500"})
+    public int conversations;
+
+    private final MessageRouter router = new MessageRouter();
+    private final List<TCPObserver> panels = new ArrayList<>();
+    private final List<String> nicknames = new ArrayList<>();
+    private final List<String> addresses = new ArrayList<>();
+    private Message message;
+    private Blackhole blackhole;
+
+    @Setup(Level.Trial)
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        for (int i = 0; i < conversations; i++) {
+            String ip = "10.0." + (i / 250) + "." + (i % 250);
+            addresses.add(ip);
+            nicknames.add("user" + i);
+            router.subscribe(ip, blackhole::consume);
+            panels.add(received -> {
+                if (Objects.equals(received.getIpSource(), ip) && nicknameByIp(received.getIpSource()) != null) {
+                    this.blackhole.consume(received);
+                }
+            });
+        }
+        message = new Message("hello", new Date(), addresses.get(conversations / 2), "10.0.9.9");
+    }
+
+    private String nicknameByIp(String ip) {
+        for (int i = 0; i < addresses.size(); i++) {
+            if (addresses.get(i).equals(ip)) {
+                return nicknames.get(i);
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public int routed() {
+        return router.route(message);
+    }
+
+    @Benchmark
+    public void broadcast() {
+        for (TCPObserver panel : panels) {
+            panel.update(message);
+        }
+    }
+}
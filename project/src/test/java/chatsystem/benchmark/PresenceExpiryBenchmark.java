@@ -0,0 +1,116 @@
+package chatsystem.benchmark;
+
+import contacts.ExpiryWheel;
+import network.UDP.AnnouncePolicy;
+
+import java.util.Random;
+
+/**
+ * Compares the presence expiry of 10,000 simulated users in virtual time: the full walk the active user list used to
+ * make every 500 ms sweep, against the timing wheel checked every 100 ms tick. Every user announces at the pace of
+ * the default policy; 1% of them go silent along the run. Reports the CPU spent on expiry per simulated second,
+ * the checks made, and how late the silent users were noticed after their timeout.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.PresenceExpiryBenchmark
+ * Optional arguments: users (default 10000), simulated minutes (default 10).
+ */
+public class PresenceExpiryBenchmark {
+    private static final long SWEEP_MILLIS = 500;
+    private static final long TICK_MILLIS = 100;
+
+    /**
+     * A simulated user: when it last announced, when it will next, and when it goes silent.
+     */
+    private static final class Peer {
+        long lastSeen;
+        long nextAnnounce;
+        long silentFrom = Long.MAX_VALUE;
+        boolean expired;
+    }
+
+    private record Result(long nanos, long checks, double meanLateMillis, long maxLateMillis, int expired) {}
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long duration = (args.length > 1 ? Long.parseLong(args[1]) : 10) * 60_000;
+        AnnouncePolicy policy = AnnouncePolicy.DEFAULT;
+        long timeout = policy.inactivityTimeoutMillis(users - 1);
+        System.out.printf("%d users, announce every %d ms, timeout %d ms, %d simulated s%n",
+                users, policy.intervalMillis(users - 1), timeout, duration / 1000);
+
+        for (int round = 0; round < 3; round++) {
+            Result scan = run(false, users, duration, policy, timeout);
+            Result wheel = run(true, users, duration, policy, timeout);
+            System.out.printf("round %d%n", round);
+            print("full walk", scan, duration);
+            print("timing wheel", wheel, duration);
+        }
+    }
+
+    private static void print(String name, Result result, long duration) {
+        System.out.printf("  %-12s %8.1f us/simulated s %12d checks %5d expired, late mean %6.1f ms max %4d ms%n",
+                name, result.nanos() / 1000.0 / (duration / 1000.0), result.checks(), result.expired(),
+                result.meanLateMillis(), result.maxLateMillis());
+    }
+
+    private static Result run(boolean useWheel, int users, long duration, AnnouncePolicy policy, long timeout) {
+        Random random = new Random(1);
+        Peer[] peers = new Peer[users];
+        ExpiryWheel<Peer> wheel = new ExpiryWheel<>(TICK_MILLIS, 512, 0);
+        for (int i = 0; i < users; i++) {
+            Peer peer = new Peer();
+            peer.nextAnnounce = random.nextInt((int) policy.intervalMillis(users - 1));
+            if (i % 100 == 0) {
+                peer.silentFrom = random.nextLong(duration / 2);
+            }
+            peers[i] = peer;
+            wheel.schedule(peer, timeout);
+        }
+        long[] checks = new long[1];
+        long[] late = new long[2];
+        int[] expired = new int[1];
+        long nanos = 0;
+        long step = useWheel ? TICK_MILLIS : SWEEP_MILLIS;
+        for (long now = 0; now < duration; now += 10) {
+            // Announcements: refreshing is a store in both cases
+            for (Peer peer : peers) {
+                if (peer.nextAnnounce <= now && now < peer.silentFrom) {
+                    peer.lastSeen = now;
+                    peer.nextAnnounce = now + policy.nextDelayMillis(users - 1, random);
+                }
+            }
+            if (now % step != 0) {
+                continue;
+            }
+            long time = now;
+            long start = System.nanoTime();
+            if (useWheel) {
+                wheel.advance(now, (peer, at) -> {
+                    checks[0]++;
+                    if (at - peer.lastSeen > timeout) {
+                        expire(peer, at, timeout, late, expired);
+                        return -1;
+                    }
+                    return peer.lastSeen + timeout;
+                });
+            } else {
+                for (Peer peer : peers) {
+                    checks[0]++;
+                    if (!peer.expired && time - peer.lastSeen > timeout) {
+                        expire(peer, time, timeout, late, expired);
+                    }
+                }
+            }
+            nanos += System.nanoTime() - start;
+        }
+        return new Result(nanos, checks[0], expired[0] == 0 ? 0 : (double) late[0] / expired[0], late[1], expired[0]);
+    }
+
+    private static void expire(Peer peer, long now, long timeout, long[] late, int[] expired) {
+        peer.expired = true;
+        long lateness = now - (peer.lastSeen + timeout);
+        late[0] += lateness;
+        late[1] = Math.max(late[1], lateness);
+        expired[0]++;
+    }
+}
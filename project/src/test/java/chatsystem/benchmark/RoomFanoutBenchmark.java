@@ -0,0 +1,72 @@
+package chatsystem.benchmark;
+
+import contacts.Room;
+import network.TCP.InboundPipeline;
+import network.TCP.NioTCPServer;
+import network.TCP.RoomFanout;
+import network.TCP.TCPConnectionPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fan-out latency of a group message on loopback, for rooms of growing size.
+ * Members are distinct loopback addresses (127.0.0.x) served by one NIO server, so each member has its own connection.
+ * For each size it reports the time spent on the sending thread, which should stay flat, and the time until every
+ * member has acknowledged the message (median and 99th percentile over the rounds).
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.RoomFanoutBenchmark
+ * Optional argument: rounds per room size (default 200).
+ */
+public class RoomFanoutBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int port = 5500;
+        NioTCPServer server = new NioTCPServer(2, new InboundPipeline(4096, 256, batch -> { }, message -> { }));
+        Thread serverThread = new Thread(() -> server.start(port));
+        serverThread.start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+
+        System.out.printf("%-8s %16s %16s %16s %16s%n", "members", "caller p50 us", "caller p99 us", "all acked p50 us", "all acked p99 us");
+        for (int size : new int[]{10, 50, 100, 200}) {
+            List<String> members = new ArrayList<>();
+            for (int i = 1; i <= size; i++) {
+                members.add("127.0.0." + i);
+            }
+            Room room = Room.create("benchmark", members);
+            TCPConnectionPool pool = new TCPConnectionPool(size, 600000);
+            RoomFanout fanout = new RoomFanout(pool, port);
+            // Warm up the connections and the code paths
+            for (int i = 0; i < 20; i++) {
+                fanout.send(room, "warm-up", System.currentTimeMillis()).get();
+            }
+
+            long[] caller = new long[rounds];
+            long[] acked = new long[rounds];
+            for (int i = 0; i < rounds; i++) {
+                long start = System.nanoTime();
+                var delivery = fanout.send(room, "message " + i, System.currentTimeMillis());
+                caller[i] = System.nanoTime() - start;
+                if (!delivery.get().complete()) {
+                    throw new IllegalStateException("Message " + i + " not acknowledged by every member");
+                }
+                acked[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(caller);
+            Arrays.sort(acked);
+            System.out.printf("%-8d %16.1f %16.1f %16.1f %16.1f%n", size,
+                    caller[rounds / 2] / 1e3, caller[rounds * 99 / 100] / 1e3,
+                    acked[rounds / 2] / 1e3, acked[rounds * 99 / 100] / 1e3);
+
+            fanout.close();
+            pool.shutdown();
+        }
+
+        server.stop();
+        serverThread.join(5000);
+    }
+}
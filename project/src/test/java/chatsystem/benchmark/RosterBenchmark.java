@@ -0,0 +1,111 @@
+package chatsystem.benchmark;
+
+import contacts.Roster;
+import contacts.User;
+import contacts.UserAlreadyExists;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and refreshing announcements per second on a roster of the given size, from four threads, compared with
+ * the synchronized HashSet the roster replaced, which answered lookups with a linear scan under its lock.
+ * The churn group refreshes from three threads while a fourth renames one address over and over, under the roster lock.
+ *
+ * Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java -Dexec.args="-cp %classpath org.openjdk.jmh.Main RosterBenchmark"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+public class RosterBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int users;
+
+    private final HashSet<User> set = new HashSet<>();
+    private Roster roster;
+    private InetAddress[] addresses;
+    private String[] nicknames;
+    private InetAddress renamed;
+    private int renames; // Only touched by the renaming thread
+
+    @Setup(Level.Trial)
+    public void setup() throws UnknownHostException, UserAlreadyExists {
+        roster = new Roster();
+        addresses = new InetAddress[users];
+        nicknames = new String[users];
+        for (int i = 0; i < users; i++) {
+            addresses[i] = InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i});
+            nicknames[i] = "user-" + i;
+            User user = new User(nicknames[i], addresses[i]);
+            roster.addUser(user);
+            set.add(user);
+        }
+        renamed = InetAddress.getByAddress(new byte[]{10, 1, 0, 0});
+        roster.announce(renamed, "renamed-0");
+    }
+
+    @Benchmark
+    public User rosterByNickname() {
+        return roster.getByNickname(nicknames[ThreadLocalRandom.current().nextInt(users)]);
+    }
+
+    @Benchmark
+    public User rosterByAddress() {
+        return roster.getByAddress(addresses[ThreadLocalRandom.current().nextInt(users)]);
+    }
+
+    @Benchmark
+    public void rosterAnnounce() throws UserAlreadyExists {
+        int i = ThreadLocalRandom.current().nextInt(users);
+        roster.announce(addresses[i], nicknames[i]);
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(3)
+    public void churnAnnounce() throws UserAlreadyExists {
+        rosterAnnounce();
+    }
+
+    @Benchmark
+    @Group("churn")
+    @GroupThreads(1)
+    public void churnRename() throws UserAlreadyExists {
+        roster.announce(renamed, "renamed-" + (++renames & 1));
+    }
+
+    @Benchmark
+    public User setByNickname() {
+        String nickname = nicknames[ThreadLocalRandom.current().nextInt(users)];
+        synchronized (set) {
+            for (User user : set) {
+                if (user.getNickname().equals(nickname)) {
+                    return user;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public User setByAddress() {
+        InetAddress address = addresses[ThreadLocalRandom.current().nextInt(users)];
+        synchronized (set) {
+            for (User user : set) {
+                if (user.getIp_address().equals(address)) {
+                    return user;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,60 @@
+package chatsystem.benchmark;
+
+import contacts.Roster;
+import contacts.RosterSnapshot;
+import contacts.User;
+import contacts.UserAlreadyExists;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of publishing the roster after one user renamed itself: a versioned snapshot with its changes, compared with
+ * the copy of every user the presence events used to carry.
+ *
+ * Run with: mvn test-compile exec:exec -Dexec.classpathScope=test -Dexec.executable=java -Dexec.args="-cp %classpath org.openjdk.jmh.Main RosterSnapshotBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RosterSnapshotBenchmark {
+
+    @Param({"100", "1000", "5000"})
+    public int users;
+
+    private Roster roster;
+    private InetAddress renaming;
+    private long renames;
+
+    @Setup(Level.Trial)
+    public void setup() throws UnknownHostException, UserAlreadyExists {
+        roster = new Roster();
+        for (int i = 0; i < users; i++) {
+            roster.announce(InetAddress.getByAddress(new byte[]{10, 0, (byte) (i >> 8), (byte) i}), "user-" + i);
+        }
+        renaming = InetAddress.getByAddress(new byte[]{10, 0, 0, 0});
+        roster.snapshot();
+    }
+
+    private void rename() throws UserAlreadyExists {
+        roster.announce(renaming, "renamed-" + (renames++ & 1));
+    }
+
+    @Benchmark
+    public RosterSnapshot snapshot() throws UserAlreadyExists {
+        rename();
+        return roster.snapshot();
+    }
+
+    @Benchmark
+    public HashSet<User> copy() throws UserAlreadyExists {
+        rename();
+        return roster.getAll();
+    }
+}
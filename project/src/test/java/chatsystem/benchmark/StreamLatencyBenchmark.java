@@ -0,0 +1,94 @@
+package chatsystem.benchmark;
+
+import network.TCP.InboundPipeline;
+import network.TCP.OutboundStream;
+import network.TCP.StreamHandler;
+import network.TCP.TCPSender;
+import network.TCP.TCPServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the round trip of chat messages sent every 5 ms on an idle connection, then while a bulk stream
+ * is transferred on the same connection, and reports their p50 and p99.
+ * At most a window of chunks is ever ahead of a message, so the p99 should stay within tens of milliseconds.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.StreamLatencyBenchmark
+ * Optional argument: stream size in MB (default 500).
+ */
+public class StreamLatencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 500) * 1024 * 1024;
+        int port = 5500;
+
+        AtomicLong received = new AtomicLong();
+        TCPServer server = new TCPServer(Executors.newVirtualThreadPerTaskExecutor(), new InboundPipeline(1024, 64, batch -> { }, message -> { }));
+        server.setStreamHandler((remoteIp, name) -> new StreamHandler.Receiver() {
+            @Override
+            public void onData(ByteBuffer data) {
+                received.addAndGet(data.remaining());
+            }
+
+            @Override
+            public void onFinish() {
+            }
+        });
+        Thread serverThread = new Thread(() -> server.start(port));
+        serverThread.start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", port);
+
+        long[] idle = roundTrips(client, new CompletableFuture<>(), 200);
+        OutboundStream stream = client.openStream("bulk.bin");
+        long start = System.nanoTime();
+        CompletableFuture<Void> done = CompletableFuture.runAsync(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            try {
+                for (long sent = 0; sent < size; sent += buffer.capacity()) {
+                    stream.write(buffer.clear());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, Executors.newVirtualThreadPerTaskExecutor()).thenCompose(ignored -> stream.finish());
+        long[] loaded = roundTrips(client, done, 100000);
+        done.get(5, TimeUnit.MINUTES);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%-16s %10s %10s %10s%n", "connection", "messages", "p50 (us)", "p99 (us)");
+        System.out.printf("%-16s %10d %10d %10d%n", "idle", idle.length, idle[idle.length / 2], idle[idle.length * 99 / 100]);
+        System.out.printf("%-16s %10d %10d %10d%n", "during transfer", loaded.length, loaded[loaded.length / 2], loaded[loaded.length * 99 / 100]);
+        System.out.printf("transferred %d MB in %.3f s (%.0f MB/s)%n", received.get() / 1048576, seconds, received.get() / 1048576.0 / seconds);
+
+        client.stopConnection();
+        server.stop();
+        serverThread.join(5000);
+    }
+
+    /**
+     * Returns the sorted round trips in microseconds of chat messages sent every 5 ms until done completes.
+     */
+    private static long[] roundTrips(TCPSender client, CompletableFuture<?> done, int max) throws Exception {
+        long[] roundTrips = new long[max];
+        int count = 0;
+        while (!done.isDone() && count < max) {
+            long start = System.nanoTime();
+            client.sendMessageAsync("ping " + count).get(5, TimeUnit.SECONDS);
+            roundTrips[count++] = (System.nanoTime() - start) / 1000;
+            Thread.sleep(5);
+        }
+        long[] measured = Arrays.copyOf(roundTrips, Math.max(count, 1));
+        Arrays.sort(measured);
+        return measured;
+    }
+}
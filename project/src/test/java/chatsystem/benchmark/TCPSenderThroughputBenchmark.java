@@ -0,0 +1,61 @@
+package chatsystem.benchmark;
+
+import network.TCP.Ack;
+import network.TCP.TCPSender;
+import network.TCP.TCPServer;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures how long a burst of messages takes on one loopback connection,
+ * waiting for each acknowledgement before the next message (synchronous send)
+ * versus keeping all of them in flight (asynchronous send).
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.TCPSenderThroughputBenchmark
+ * Optional argument: number of messages (default 10000).
+ */
+public class TCPSenderThroughputBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int port = 5300;
+
+        TCPServer server = new TCPServer();
+        Thread serverThread = new Thread(() -> server.start(port));
+        serverThread.start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", port);
+        // Warm up both paths
+        for (int i = 0; i < 500; i++) {
+            client.sendMessage("warmup " + i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            client.sendMessage("sync " + i);
+        }
+        double syncSeconds = (System.nanoTime() - start) / 1e9;
+
+        start = System.nanoTime();
+        CompletableFuture<?>[] acks = new CompletableFuture[messages];
+        for (int i = 0; i < messages; i++) {
+            acks[i] = client.sendMessageAsync("async " + i);
+        }
+        CompletableFuture.allOf(acks).join();
+        double asyncSeconds = (System.nanoTime() - start) / 1e9;
+        long lastRoundTrip = ((Ack) acks[messages - 1].join()).roundTripMillis();
+
+        System.out.printf("%-8s %10s %12s %14s%n", "mode", "messages", "seconds", "messages/s");
+        System.out.printf("%-8s %10d %12.3f %14.0f%n", "sync", messages, syncSeconds, messages / syncSeconds);
+        System.out.printf("%-8s %10d %12.3f %14.0f%n", "async", messages, asyncSeconds, messages / asyncSeconds);
+        System.out.printf("last async message acknowledged after %d ms%n", lastRoundTrip);
+
+        client.stopConnection();
+        server.stop();
+        serverThread.join(5000);
+    }
+}
@@ -0,0 +1,114 @@
+package chatsystem.benchmark;
+
+import network.TCP.NioTCPServer;
+import network.TCP.TCPServer;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the thread-per-connection engine with the NIO engine of the TCP server.
+ * For each engine it opens many loopback connections, measures how many server threads they cost,
+ * then has a few client threads ping-pong lines over every connection to measure messages per second.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.TCPServerBenchmark
+ * Optional arguments: connections (default 500), messages per connection (default 200).
+ */
+public class TCPServerBenchmark {
+
+    private static final int CLIENT_THREADS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        System.out.printf("%-22s %12s %14s %14s %14s%n", "engine", "connections", "server threads", "conn/thread", "messages/s");
+        run("thread-per-connection", new TCPServer(), 5100, connections, messages);
+        run("nio", new NioTCPServer(), 5101, connections, messages);
+    }
+
+    private static void run(String name, TCPServer server, int port, int connections, int messages) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+
+        Thread serverThread = new Thread(() -> server.start(port));
+        serverThread.start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+
+        List<Peer> peers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            peers.add(new Peer(new Socket("localhost", port)));
+        }
+        // Make sure every connection has been picked up by the server before counting threads
+        for (Peer peer : peers) {
+            peer.exchange("warmup");
+        }
+        int serverThreads = Math.max(1, threads.getThreadCount() - threadsBefore);
+
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENT_THREADS);
+        AtomicLong exchanged = new AtomicLong();
+        List<Future<?>> done = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < CLIENT_THREADS; t++) {
+            int first = t;
+            done.add(clients.submit(() -> {
+                for (int m = 0; m < messages; m++) {
+                    for (int i = first; i < peers.size(); i += CLIENT_THREADS) {
+                        peers.get(i).exchange("ping " + m);
+                        exchanged.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : done) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        clients.shutdown();
+
+        System.out.printf("%-22s %12d %14d %14.1f %14.0f%n", name, connections, serverThreads,
+                (double) connections / serverThreads, exchanged.get() / seconds);
+
+        for (Peer peer : peers) {
+            peer.close();
+        }
+        server.stop();
+        serverThread.join(5000);
+        // Let the handler threads of this run die before the next engine counts its own
+        Thread.sleep(1000);
+    }
+
+    /**
+     * A raw line-oriented client connection.
+     */
+    private static class Peer {
+        private final Socket socket;
+        private final BufferedReader in;
+        private final PrintWriter out;
+
+        Peer(Socket socket) throws IOException {
+            this.socket = socket;
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            this.out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        }
+
+        String exchange(String line) throws IOException {
+            out.println(line);
+            return in.readLine();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
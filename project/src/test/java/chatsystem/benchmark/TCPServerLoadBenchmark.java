@@ -0,0 +1,95 @@
+package chatsystem.benchmark;
+
+import network.TCP.TCPServer;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Load test holding thousands of concurrent loopback connections against the TCP server.
+ * For every engine it reports the heap used and the platform thread count while all connections are open,
+ * and the p99 latency of echo round trips sent over all of them at once.
+ *
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=chatsystem.benchmark.TCPServerLoadBenchmark
+ * Optional arguments: connections (default 5000), echoes per connection (default 20).
+ * The file descriptor limit (ulimit -n) must allow two sockets per connection.
+ */
+public class TCPServerLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int echoes = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.printf("%-22s %12s %12s %16s %14s%n", "engine", "connections", "heap (MB)", "platform threads", "p99 echo (ms)");
+        int port = 5200;
+        for (TCPServer.Engine engine : TCPServer.Engine.values()) {
+            run(engine, port++, connections, echoes);
+        }
+    }
+
+    private static void run(TCPServer.Engine engine, int port, int connections, int echoes) throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        TCPServer server = TCPServer.create(engine);
+        Thread serverThread = new Thread(() -> server.start(port));
+        serverThread.start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+
+        List<Socket> sockets = new ArrayList<>();
+        List<BufferedReader> readers = new ArrayList<>();
+        List<PrintWriter> writers = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Socket socket = new Socket("localhost", port);
+            sockets.add(socket);
+            readers.add(new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)));
+            writers.add(new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true));
+        }
+        // One round trip per connection so that every handler is up before sampling
+        for (int i = 0; i < connections; i++) {
+            writers.get(i).println("hello");
+            readers.get(i).readLine();
+        }
+        System.gc();
+        long heap = memory.getHeapMemoryUsage().getUsed();
+        int platformThreads = threads.getThreadCount();
+
+        // Client side uses virtual threads so that it does not skew the platform thread count
+        long[] latencies = new long[connections * echoes];
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < connections; i++) {
+                int index = i;
+                clients.submit(() -> {
+                    for (int e = 0; e < echoes; e++) {
+                        long start = System.nanoTime();
+                        writers.get(index).println("echo " + e);
+                        readers.get(index).readLine();
+                        latencies[index * echoes + e] = System.nanoTime() - start;
+                    }
+                    return null;
+                });
+            }
+        }
+        Arrays.sort(latencies);
+        double p99 = latencies[(int) Math.ceil(latencies.length * 0.99) - 1] / 1e6;
+
+        System.out.printf("%-22s %12d %12.1f %16d %14.2f%n", engine, connections, heap / (1024.0 * 1024.0), platformThreads, p99);
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        server.stop();
+        serverThread.join(5000);
+        Thread.sleep(1000);
+    }
+}
@@ -0,0 +1,79 @@
+package chatsystem.contacts;
+
+import contacts.ExpiryWheel;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExpiryWheelTest {
+
+    /**
+     * Tests that the expiry wheel calls back each item at the first tick on or after its deadline, including deadlines
+     * more than one turn away, and moves the items the callback refreshes.
+     */
+    @Test
+    void firesAtDeadlines() {
+        ExpiryWheel<String> wheel = new ExpiryWheel<>(100, 8, 0);
+        Map<String, Long> fired = new HashMap<>();
+        wheel.schedule("soon", 250);
+        wheel.schedule("far", 2050); // Beyond the 800 ms turn
+        wheel.schedule("refreshed", 300);
+        wheel.schedule("past", -1000);
+        assertEquals(100, wheel.nextCheck());
+
+        for (long now = 0; now <= 3000; now += 10) {
+            long time = now;
+            wheel.advance(now, (item, at) -> {
+                if (item.equals("refreshed") && at < 1000) {
+                    return 1200;
+                }
+                fired.put(item, time);
+                return -1;
+            });
+        }
+        assertEquals(0, (long) fired.get("past"));
+        assertEquals(300, (long) fired.get("soon"));
+        assertEquals(2100, (long) fired.get("far"));
+        assertEquals(1200, (long) fired.get("refreshed"));
+        assertEquals(0, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.nextCheck());
+
+        // A jump of several turns visits every slot once
+        wheel.schedule("late", 3100);
+        wheel.advance(10_000, (item, at) -> {
+            fired.put(item, at);
+            return -1;
+        });
+        assertEquals(10_000, (long) fired.get("late"));
+    }
+
+    /**
+     * Tests that no item is called back before its deadline, nor more than a tick after it, whatever the deadlines
+     * and the pace of the advances.
+     */
+    @Test
+    void neverFiresEarly() {
+        Random random = new Random(42);
+        ExpiryWheel<Long> wheel = new ExpiryWheel<>(100, 16, 0);
+        // Each item is its own deadline
+        for (int i = 0; i < 1000; i++) {
+            long deadline = random.nextInt(5000);
+            wheel.schedule(deadline, deadline);
+        }
+        long now = 0;
+        while (wheel.size() > 0) {
+            long step = 1 + random.nextInt(50);
+            now += step;
+            long time = now;
+            wheel.advance(now, (deadline, at) -> {
+                assertTrue(deadline <= time, "deadline " + deadline + " reached at " + time);
+                assertTrue(time < deadline + 100 + step, "deadline " + deadline + " reached late at " + time);
+                return -1;
+            });
+        }
+    }
+}
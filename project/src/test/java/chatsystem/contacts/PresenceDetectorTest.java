@@ -0,0 +1,154 @@
+package chatsystem.contacts;
+
+import contacts.ArrivalWindow;
+import contacts.PresenceDetector;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresenceDetectorTest {
+    private static final long FIXED_TIMEOUT = 6000;
+    private static final long STEP = 50;
+
+    /**
+     * What a replay of a trace saw: the times the peer was wrongly taken offline or away while still announcing,
+     * and how long after its last announcement its departure was noticed.
+     */
+    private record Replay(int offlineFlaps, int awayFlaps, long awayAfter, long offlineAfter) {}
+
+    /**
+     * Returns the arrival times of a peer announcing every 2 s with 25% jitter for 20 minutes, where each
+     * announcement is lost with the given probability, along with the next 0 to burst - 1 ones.
+     */
+    private static long[] trace(long seed, double loss, int burst) {
+        Random random = new Random(seed);
+        List<Long> arrivals = new ArrayList<>();
+        int dropped = 0;
+        for (long time = 0; time < 20 * 60_000; time += 1500 + random.nextInt(1001)) {
+            if (dropped > 0) {
+                dropped--;
+            } else if (random.nextDouble() < loss) {
+                dropped = random.nextInt(burst);
+            } else {
+                arrivals.add(time);
+            }
+        }
+        return arrivals.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Replays the trace, the peer leaving after its last arrival, through the detector, and through the fixed timeout.
+     */
+    private static Replay[] replay(long[] arrivals, PresenceDetector detector) {
+        ArrivalWindow window = new ArrivalWindow();
+        long departure = arrivals[arrivals.length - 1];
+        int next = 0;
+        int offlineFlaps = 0;
+        int awayFlaps = 0;
+        int fixedFlaps = 0;
+        boolean offline = false;
+        boolean away = false;
+        boolean fixedOffline = false;
+        long awayAfter = -1;
+        long offlineAfter = -1;
+        long fixedAfter = -1;
+        for (long now = 0; offlineAfter < 0 || fixedAfter < 0; now += STEP) {
+            while (next < arrivals.length && arrivals[next] <= now) {
+                window.record(arrivals[next++]);
+                offline = away = fixedOffline = false;
+            }
+            boolean gone = next == arrivals.length;
+            long silence = now - window.last();
+            if (!fixedOffline && silence > FIXED_TIMEOUT) {
+                fixedOffline = true;
+                if (gone) {
+                    fixedAfter = silence;
+                } else {
+                    fixedFlaps++;
+                }
+            }
+            if (!detector.knows(window)) {
+                continue;
+            }
+            double phi = detector.phi(window, now);
+            if (!away && phi >= detector.getAwayThreshold()) {
+                away = true;
+                if (gone) {
+                    awayAfter = silence;
+                } else {
+                    awayFlaps++;
+                }
+            }
+            if (!offline && phi >= detector.getOfflineThreshold()) {
+                offline = true;
+                if (gone) {
+                    offlineAfter = silence;
+                } else {
+                    offlineFlaps++;
+                }
+            }
+        }
+        return new Replay[]{new Replay(offlineFlaps, awayFlaps, awayAfter, offlineAfter),
+                new Replay(fixedFlaps, fixedFlaps, fixedAfter, fixedAfter)};
+    }
+
+    /**
+     * Tests that on a steady network the detector notices a departure no later than the fixed timeout, without flapping.
+     */
+    @Test
+    void steadyPeerDetectedNoLater() {
+        for (long seed = 1; seed <= 5; seed++) {
+            Replay[] replays = replay(trace(seed, 0.005, 1), PresenceDetector.DEFAULT);
+            Replay phi = replays[0];
+            Replay fixed = replays[1];
+            assertEquals(0, phi.offlineFlaps(), "seed " + seed + ": " + phi);
+            assertTrue(phi.offlineAfter() <= fixed.offlineAfter(), "seed " + seed + ": " + phi + " vs " + fixed);
+        }
+    }
+
+    /**
+     * Tests that on a lossy network, where the fixed timeout takes the peer offline again and again, the detector
+     * learns the wider intervals and keeps the peer online. Its departure takes longer to notice there: the gaps
+     * of a lossy network are as long as a departure, within two and a half times the fixed timeout.
+     */
+    @Test
+    void lossyPeerDoesNotFlap() {
+        int fixedFlaps = 0;
+        int phiFlaps = 0;
+        for (long seed = 1; seed <= 5; seed++) {
+            Replay[] replays = replay(trace(seed, 0.08, 4), PresenceDetector.DEFAULT);
+            Replay phi = replays[0];
+            Replay fixed = replays[1];
+            fixedFlaps += fixed.offlineFlaps();
+            phiFlaps += phi.offlineFlaps();
+            assertTrue(phi.offlineAfter() <= 2.5 * FIXED_TIMEOUT, "seed " + seed + ": " + phi + " vs " + fixed);
+        }
+        assertTrue(fixedFlaps >= 50, "fixed timeout flaps: " + fixedFlaps);
+        assertTrue(phiFlaps * 5 <= fixedFlaps, "detector flaps: " + phiFlaps + ", fixed: " + fixedFlaps);
+    }
+
+    /**
+     * Tests that phi grows with the silence, and that the deadlines match the thresholds.
+     */
+    @Test
+    void phiGrowsWithSilence() {
+        ArrivalWindow window = new ArrivalWindow();
+        for (long time = 0; time <= 20_000; time += 2000) {
+            window.record(time);
+        }
+        PresenceDetector detector = PresenceDetector.DEFAULT;
+        assertTrue(detector.knows(window));
+        assertEquals(2000, window.mean(), 0.001);
+        assertTrue(detector.phi(window, 21_000) < 0.1);
+        assertTrue(detector.phi(window, 24_000) < detector.phi(window, 24_500));
+        long away = detector.awayDeadline(window);
+        long offline = detector.offlineDeadline(window);
+        assertTrue(away < offline);
+        assertEquals(detector.getAwayThreshold(), detector.phi(window, away), 0.05);
+        assertEquals(detector.getOfflineThreshold(), detector.phi(window, offline), 0.05);
+    }
+}
@@ -0,0 +1,290 @@
+package chatsystem.contacts;
+
+import contacts.Roster;
+import contacts.RosterSnapshot;
+import contacts.User;
+import contacts.UserAlreadyExists;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RosterTest {
+
+    private static InetAddress address(int network, int host) throws UnknownHostException {
+        return InetAddress.getByAddress(new byte[]{10, (byte) network, (byte) (host >> 8), (byte) host});
+    }
+
+    /**
+     * Tests that a rename moves the address to the new nickname and releases the old one, and that a nickname held
+     * by another address cannot be taken.
+     */
+    @Test
+    void renameMovesBothIndexes() throws Exception {
+        Roster roster = new Roster(() -> 0);
+        InetAddress first = address(0, 1);
+        InetAddress second = address(0, 2);
+        roster.announce(first, "alice");
+        roster.announce(second, "bob");
+        long digest = roster.digest();
+
+        roster.announce(first, "carol");
+        assertEquals("carol", roster.getByAddress(first).getNickname());
+        assertSame(roster.getByAddress(first), roster.getByNickname("carol"));
+        assertNull(roster.getByNickname("alice"));
+        assertEquals(2, roster.size());
+        assertNotEquals(digest, roster.digest());
+
+        assertThrows(UserAlreadyExists.class, () -> roster.announce(second, "carol"));
+        assertEquals("bob", roster.getNicknameByIp(second.getHostAddress()));
+
+        roster.announce(first, "alice");
+        assertEquals(digest, roster.digest());
+    }
+
+    /**
+     * Tests that every snapshot carries the users added, removed and renamed since the one before, and that a kept
+     * snapshot does not change with the roster.
+     */
+    @Test
+    void snapshotsCarryTheirChanges() throws Exception {
+        Roster roster = new Roster(() -> 0);
+        InetAddress first = address(0, 1);
+        InetAddress second = address(0, 2);
+        roster.announce(first, "alice");
+        roster.announce(second, "bob");
+        RosterSnapshot v1 = roster.snapshot();
+        assertTrue(v1.follows(RosterSnapshot.EMPTY.getVersion()));
+        assertEquals(2, v1.getAdded().size());
+        assertSame(v1, roster.snapshot(), "no change, no new version");
+
+        roster.announce(first, "carol");
+        roster.removeUser(second, "bob");
+        roster.announce(address(0, 3), "dave");
+        RosterSnapshot v2 = roster.snapshot();
+        assertTrue(v2.follows(v1.getVersion()));
+        assertEquals(List.of("dave"), v2.getAdded().stream().map(User::getNickname).toList());
+        assertEquals(List.of("bob"), v2.getRemoved().stream().map(User::getNickname).toList());
+        assertEquals(1, v2.getRenamed().size());
+        assertEquals("alice", v2.getRenamed().get(0).from().getNickname());
+        assertEquals("carol", v2.getRenamed().get(0).to().getNickname());
+
+        // Users who came and went between two snapshots do not show
+        roster.announce(address(0, 4), "eve");
+        roster.removeUser(address(0, 4), "eve");
+        RosterSnapshot v3 = roster.snapshot();
+        assertTrue(v3.getAdded().isEmpty() && v3.getRemoved().isEmpty() && v3.getRenamed().isEmpty());
+        assertFalse(v3.follows(v1.getVersion()), "a missed version is noticed");
+
+        assertEquals(Set.of("alice", "bob"), nicknames(v1));
+        assertEquals(Set.of("carol", "dave"), nicknames(v2));
+        assertNotNull(v1.get("alice"));
+        assertNull(v2.get("alice"));
+
+        // Nicknames of the same hash
+        List<String> colliding = List.of("AaAa", "AaBB", "BBAa", "BBBB");
+        for (int i = 0; i < colliding.size(); i++) {
+            roster.announce(address(0, 10 + i), colliding.get(i));
+        }
+        roster.removeUser(address(0, 11), "AaBB");
+        RosterSnapshot v4 = roster.snapshot();
+        assertEquals(Set.of("carol", "dave", "AaAa", "BBAa", "BBBB"), nicknames(v4));
+        assertNull(v4.get("AaBB"));
+        assertEquals("BBBB", v4.get("BBBB").getNickname());
+    }
+
+    /**
+     * Tests that snapshots match the roster through thousands of random additions, renames and removals, keeping
+     * every earlier version intact.
+     */
+    @Test
+    void snapshotsMatchRoster() throws Exception {
+        Roster roster = new Roster(() -> 0);
+        Random random = new Random(3);
+        List<RosterSnapshot> versions = new ArrayList<>();
+        List<Set<String>> expected = new ArrayList<>();
+        Map<Integer, String> names = new HashMap<>();
+        for (int step = 0; step < 20_000; step++) {
+            int host = random.nextInt(3000);
+            InetAddress address = address(3, host);
+            String current = names.get(host);
+            if (current != null && random.nextInt(3) == 0) {
+                roster.removeUser(address, current);
+                names.remove(host);
+            } else {
+                String nickname = "user-" + host + "-" + random.nextInt(4);
+                roster.announce(address, nickname);
+                names.put(host, nickname);
+            }
+            if (step % 1000 == 0) {
+                versions.add(roster.snapshot());
+                expected.add(new HashSet<>(names.values()));
+            }
+        }
+        for (int i = 0; i < versions.size(); i++) {
+            RosterSnapshot version = versions.get(i);
+            assertEquals(expected.get(i), nicknames(version));
+            assertEquals(expected.get(i).size(), version.size());
+            for (String nickname : expected.get(i)) {
+                assertEquals(nickname, version.get(nickname).getNickname());
+            }
+        }
+    }
+
+    private static Set<String> nicknames(RosterSnapshot snapshot) {
+        Set<String> nicknames = new HashSet<>();
+        for (User user : snapshot) {
+            nicknames.add(user.getNickname());
+        }
+        return nicknames;
+    }
+
+    /**
+     * Tests that a known user is refreshed while another thread holds the roster lock, and that a newcomer waits
+     * for it.
+     */
+    @Test
+    void refreshTakesNoLock() throws Exception {
+        AtomicLong clock = new AtomicLong(1000);
+        Roster roster = new Roster(clock::get);
+        roster.announce(address(1, 1), "known");
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (roster) {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        try {
+            locked.await();
+            clock.set(3000);
+            roster.announce(address(1, 1), "known");
+            assertEquals(3000, roster.getByNickname("known").getLastSeen());
+
+            InetAddress address = address(1, 2);
+            Thread newcomer = new Thread(() -> {
+                try {
+                    roster.announce(address, "newcomer");
+                } catch (UserAlreadyExists e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            newcomer.start();
+            newcomer.join(200);
+            assertTrue(newcomer.isAlive(), "newcomer added under another thread's lock");
+            release.countDown();
+            newcomer.join(TimeUnit.SECONDS.toMillis(5));
+            assertNotNull(roster.getByNickname("newcomer"));
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+    }
+
+    /**
+     * Tests the roster under concurrent announcements, renames, expiry and lookups: a renaming address is always
+     * found, every lookup returns a user of the nickname or address asked for, and the indexes agree at the end.
+     */
+    @Test
+    void concurrentAnnounceExpireLookup() throws Exception {
+        Roster roster = new Roster(() -> 0);
+        int renamers = 32;
+        List<InetAddress> stable = new ArrayList<>();
+        for (int i = 0; i < renamers; i++) {
+            stable.add(address(1, i));
+            roster.announce(stable.get(i), "stable-" + i + "-0");
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicLong renames = new AtomicLong();
+        AtomicLong expired = new AtomicLong();
+        AtomicLong lookups = new AtomicLong();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+
+        // Renames every stable address, over and over
+        threads.add(new Thread(() -> {
+            try {
+                for (int round = 1; running.get(); round++) {
+                    for (int i = 0; i < renamers; i++) {
+                        roster.announce(stable.get(i), "stable-" + i + "-" + round);
+                        renames.incrementAndGet();
+                    }
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        }));
+        // Adds transient users long silent, which the expiry removes
+        threads.add(new Thread(() -> {
+            try {
+                for (int i = 0; running.get(); i++) {
+                    roster.addUser(new User("transient-" + i, address(2, i & 0xFFFF), -60_000));
+                    roster.removeInactiveUsers(0, 6000);
+                    expired.incrementAndGet();
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        }));
+        // Looks the users up by address and by nickname
+        for (int r = 0; r < 2; r++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (running.get()) {
+                        for (int i = 0; i < renamers; i++) {
+                            User user = roster.getByAddress(stable.get(i));
+                            assertNotNull(user, "address without user during a rename");
+                            assertEquals(stable.get(i), user.getIp_address());
+                            User byNickname = roster.getByNickname(user.getNickname());
+                            if (byNickname != null) {
+                                assertEquals(user.getNickname(), byNickname.getNickname());
+                            }
+                            lookups.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(1000);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        assertTrue(failures.isEmpty(), "failures: " + failures);
+        assertTrue(renames.get() > renamers && expired.get() > 0 && lookups.get() > 0,
+                renames + " renames, " + expired + " expiry rounds, " + lookups + " lookups");
+
+        roster.removeInactiveUsers(0, 6000);
+        assertEquals(renamers, roster.size());
+        Set<String> nicknames = new HashSet<>();
+        for (User user : roster.users()) {
+            assertSame(user, roster.getByNickname(user.getNickname()));
+            assertSame(user, roster.getByAddress(user.getIp_address()));
+            nicknames.add(user.getNickname());
+        }
+        assertEquals(renamers, nicknames.size());
+    }
+}
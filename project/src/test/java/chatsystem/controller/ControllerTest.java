@@ -6,6 +6,8 @@ import contacts.UserAlreadyExists;
 import controller.ContactController;
 import controller.MainController;
 import database.DatabaseManager;
+import network.EventBus;
+import network.UDP.Announcement;
 import network.UDP.UDPMessage;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -15,6 +17,9 @@ import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.net.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -72,6 +77,17 @@ class ControllerTest {
         assertTrue(ActiveUserList.nicknameUsed(user2.getNickname()));
     }
 
+    /**
+     * Tests that peers are reached on the TCP port they announced, or on this session's port by default.
+     */
+    @Test
+    void announcedTcpPort() throws UserAlreadyExists {
+        assertEquals(port + 500, ContactController.getTcpPort(user3.getStringAddress()));
+        ContactController.handleAnnouncement(user3.getIp_address(), Announcement.HELLO, user3.getNickname(), 4700);
+        assertTrue(ActiveUserList.userExists(user3));
+        assertEquals(4700, ContactController.getTcpPort(user3.getStringAddress()));
+    }
+
     /**
      * Tests the nickname sending functionality.
      */
@@ -124,6 +140,28 @@ class ControllerTest {
         assertEquals("unique_user", ContactController.getNickname(), "Nickname should be set correctly after inscription");
     }
 
+    /**
+     * Tests that registration waits for the first roster heard rather than a fixed delay, and refuses a nickname
+     * taken by a user of that roster.
+     */
+    @Test
+    void inscriptionWaitsForFirstRoster() throws Exception {
+        CompletableFuture<Boolean> registered = CompletableFuture.supplyAsync(() -> {
+            try {
+                return ContactController.inscription(user1.getNickname());
+            } catch (IOException | UserAlreadyExists e) {
+                throw new CompletionException(e);
+            }
+        });
+        Thread.sleep(200);
+        long start = System.currentTimeMillis();
+        ActiveUserList.addUser(user1);
+        EventBus.getInstance().publishPresence(ActiveUserList.getAllContacts());
+
+        assertFalse(registered.get(3, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start < 1000, "registration took " + (System.currentTimeMillis() - start) + " ms");
+    }
+
     /**
      * Tests displaying the list of active users.
      */
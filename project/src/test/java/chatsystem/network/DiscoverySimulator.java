@@ -0,0 +1,202 @@
+package chatsystem.network;
+
+import contacts.Roster;
+import contacts.User;
+import contacts.UserAlreadyExists;
+import controller.ContactController;
+import network.EventBus;
+import network.UDP.AnnouncePolicy;
+import network.UDP.Announcement;
+import network.UDP.AnnouncementFilter;
+import network.UDP.AnnouncementWriter;
+import network.UDP.PresenceService;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs the discovery of many peers in one JVM, in virtual time: every node has its own roster, announcement filter
+ * and presence service, handling the announcements it receives with the controller code of a session. The nodes
+ * broadcast over an in-memory fabric, which loses every copy of a packet with the given probability and delivers
+ * the others after the given delay plus a random jitter; as on a LAN, a node receives its own broadcasts too.
+ * The nodes start at random times within the start spread, and the network has converged once every node has
+ * added every node to its roster. Losses may remove a peer from a roster for a while afterwards: the coverage tells
+ * the share of the node pairs in the rosters after convergence.
+ */
+public class DiscoverySimulator {
+    private static final long STEP_MILLIS = PresenceService.TICK_MILLIS;
+    private static final int TCP_PORT = 4500;
+    // The rosters are published like in a session, with no one subscribed
+    private static final EventBus BUS = new EventBus(1024);
+
+    /**
+     * Outcome of a run: when every node had seen every node (-1 if never), the broadcasts sent and delivered, the CPU
+     * time of the run, the mean and fewest roster entries at the steps after convergence, out of nodes squared, and the
+     * peers removed from a roster for their silence; no node leaves, so every expiration is a false one.
+     */
+    public record Result(int nodes, long durationMillis, long convergenceMillis, long packets, long deliveries,
+                         long cpuNanos, double meanCoverage, double minCoverage, long expirations) {
+
+        public double packetsPerSecond() {
+            return packets * 1000.0 / durationMillis;
+        }
+
+        public double deliveriesPerSecond() {
+            return deliveries * 1000.0 / durationMillis;
+        }
+
+        /**
+         * Returns the CPU time spent per node and per simulated second, in microseconds.
+         */
+        public double cpuMicrosPerNodeSecond() {
+            return cpuNanos / 1000.0 / nodes / (durationMillis / 1000.0);
+        }
+    }
+
+    /**
+     * A simulated peer, with the discovery state of a session.
+     */
+    private final class Node {
+        final InetAddress address;
+        final BitSet seen = new BitSet();
+        final Roster roster = new Roster(timer::now) {
+            @Override
+            protected void added(User user) {
+                int peer = index(user.getIp_address());
+                if (!seen.get(peer)) {
+                    seen.set(peer);
+                    pairsSeen++;
+                }
+            }
+
+            @Override
+            protected void expired(User user) {
+                expirations++;
+            }
+        };
+        final AnnouncementFilter filter = new AnnouncementFilter();
+        final AnnouncementWriter writer;
+        final PresenceService presence;
+
+        Node(int index) throws UnknownHostException {
+            address = InetAddress.getByAddress(new byte[]{10, (byte) (index >> 16), (byte) (index >> 8), (byte) index});
+            writer = new AnnouncementWriter(index + 1);
+            writer.setNickname("node-" + index);
+            presence = new PresenceService(timer, policy, () -> broadcast(this, Announcement.HELLO),
+                    () -> broadcast(this, Announcement.BYE), roster, BUS);
+        }
+
+        void receive(InetAddress origin, byte[] packet) {
+            byte type = filter.accept(ByteBuffer.wrap(packet), timer.now());
+            if (type == 0) {
+                return;
+            }
+            try {
+                ContactController.handleAnnouncement(roster, origin, type, filter.getNickname());
+            } catch (UserAlreadyExists e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private final VirtualTimer timer = new VirtualTimer(0);
+    private final AnnouncePolicy policy;
+    private final double loss;
+    private final long delayMillis;
+    private final long jitterMillis;
+    private final long startSpreadMillis;
+    private final Random random;
+    private final List<Node> nodes = new ArrayList<>();
+    private long packets;
+    private long deliveries;
+    private long pairsSeen;
+    private long expirations;
+
+    /**
+     * Creates the given number of nodes announcing at the policy's pace, on a fabric losing the given share of the
+     * packet copies and delivering the others within delay to delay plus jitter.
+     */
+    public DiscoverySimulator(int count, AnnouncePolicy policy, double loss, long delayMillis, long jitterMillis,
+                              long startSpreadMillis, long seed) throws UnknownHostException {
+        this.policy = policy;
+        this.loss = loss;
+        this.delayMillis = delayMillis;
+        this.jitterMillis = jitterMillis;
+        this.startSpreadMillis = startSpreadMillis;
+        this.random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            nodes.add(new Node(i));
+        }
+    }
+
+    private static int index(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        return (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+    }
+
+    /**
+     * Sends the next announcement of the node to every node, itself included, each copy lost or delayed on its own.
+     */
+    private void broadcast(Node sender, byte type) {
+        ByteBuffer packet = sender.writer.write(type, TCP_PORT, sender.roster.digest());
+        byte[] bytes = new byte[packet.remaining()];
+        packet.get(bytes);
+        packets++;
+        for (Node receiver : nodes) {
+            if (random.nextDouble() < loss) {
+                continue;
+            }
+            long delay = delayMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+            timer.schedule(() -> {
+                deliveries++;
+                receiver.receive(sender.address, bytes);
+            }, delay);
+        }
+    }
+
+    /**
+     * Starts the nodes and runs the network for the given virtual time.
+     */
+    public Result run(long durationMillis) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        for (Node node : nodes) {
+            timer.schedule(() -> {
+                node.presence.start();
+                node.presence.startAnnouncing();
+            }, startSpreadMillis > 0 ? random.nextLong(startSpreadMillis) : 0);
+        }
+        long full = (long) nodes.size() * nodes.size();
+        long convergence = -1;
+        long minEntries = full;
+        long totalEntries = 0;
+        long steps = 0;
+        for (long elapsed = STEP_MILLIS; elapsed <= durationMillis; elapsed += STEP_MILLIS) {
+            timer.advance(STEP_MILLIS);
+            if (convergence < 0 && pairsSeen == full) {
+                convergence = elapsed;
+            }
+            if (convergence >= 0) {
+                long entries = 0;
+                for (Node node : nodes) {
+                    entries += node.roster.size();
+                }
+                minEntries = Math.min(minEntries, entries);
+                totalEntries += entries;
+                steps++;
+            }
+        }
+        long cpu = threads.getCurrentThreadCpuTime() - cpuStart;
+        timer.shutdown();
+        return new Result(nodes.size(), durationMillis, convergence, packets, deliveries, cpu,
+                steps == 0 ? 0 : (double) totalEntries / steps / full, steps == 0 ? 0 : (double) minEntries / full,
+                expirations);
+    }
+}
@@ -0,0 +1,247 @@
+package chatsystem.network;
+
+import contacts.RosterSnapshot;
+import contacts.User;
+import database.Message;
+import network.EventBus;
+import network.NetworkEvent;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventBusTest {
+
+    private static Message message(int i) {
+        return new Message(String.valueOf(i), new Date(), "10.0.0.1", "10.0.0.2");
+    }
+
+    /**
+     * Tests that every subscriber sees every event, in order, even when the ring wraps around many times.
+     */
+    @Test
+    public void everySubscriberSeesEveryEventInOrder() throws Exception {
+        // Publishers wait long enough for the subscribers to be scheduled on a loaded machine
+        EventBus bus = new EventBus(8, 10_000);
+        int events = 10000;
+        List<List<String>> received = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        List<EventBus.Subscription> subscriptions = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            List<String> seen = new ArrayList<>();
+            received.add(seen);
+            subscriptions.add(bus.subscribe("test-" + s, event -> {
+                seen.add(event.getMessage().getData());
+                if (seen.size() == events) {
+                    done.countDown();
+                }
+            }));
+        }
+
+        for (int i = 0; i < events; i++) {
+            bus.publishMessage(message(i));
+        }
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (List<String> seen : received) {
+            for (int i = 0; i < events; i++) {
+                assertEquals(String.valueOf(i), seen.get(i));
+            }
+        }
+        subscriptions.forEach(EventBus.Subscription::close);
+    }
+
+    /**
+     * Tests that a slow subscriber makes the publisher wait instead of losing events, while it keeps within the
+     * publishers' maximum wait.
+     */
+    @Test
+    public void slowSubscriberLosesNothing() throws Exception {
+        EventBus bus = new EventBus(4, 10_000);
+        List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        EventBus.Subscription slow = bus.subscribe("slow", event -> {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            seen.add(event.getMessage().getData());
+        });
+
+        for (int i = 0; i < 50; i++) {
+            bus.publishMessage(message(i));
+            assertTrue(slow.getLag() <= 4);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (seen.size() < 50 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(50, seen.size());
+        assertEquals(0, slow.getLag());
+        assertEquals(0, slow.getDropped());
+        slow.close();
+    }
+
+    /**
+     * Tests that a stuck subscriber holds back the publisher once, for the maximum wait, then is lapped: it still
+     * receives every message, in order, and skips the connection events it missed, which it counts.
+     */
+    @Test
+    public void stuckSubscriberIsLapped() throws Exception {
+        EventBus bus = new EventBus(4, 50);
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<Integer> seen = Collections.synchronizedList(new ArrayList<>());
+        List<String> connections = Collections.synchronizedList(new ArrayList<>());
+        EventBus.Subscription stuck = bus.subscribe("stuck", event -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (event.getType() == NetworkEvent.Type.MESSAGE) {
+                seen.add(Integer.parseInt(event.getMessage().getData()));
+            } else {
+                connections.add(event.getPeer());
+            }
+        });
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            bus.publishMessage(message(i));
+            bus.publishConnection("10.0.0." + i, true);
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(millis < 1000, "published in " + millis + " ms");
+        assertEquals(1, bus.getLapCount());
+
+        blocked.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stuck.getLag() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, stuck.getLag());
+        assertEquals(100, seen.size());
+        for (int i = 0; i < seen.size(); i++) {
+            assertEquals(i, (int) seen.get(i));
+        }
+        assertTrue(stuck.getDropped() > 0);
+        assertEquals(100, connections.size() + stuck.getDropped());
+        assertEquals("10.0.0.99", connections.get(connections.size() - 1));
+        stuck.close();
+    }
+
+    /**
+     * Tests that messages published from several threads at once all reach a subscriber lapped meanwhile,
+     * each thread's in the order it published them.
+     */
+    @Test
+    public void concurrentPublishersLoseNoMessage() throws Exception {
+        EventBus bus = new EventBus(8, 5);
+        int publishers = 4;
+        int events = 5000;
+        List<String> seen = Collections.synchronizedList(new ArrayList<>());
+        EventBus.Subscription slow = bus.subscribe("slow", event -> {
+            if (event.getSequence() % 500 == 0) {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            seen.add(event.getMessage().getData());
+        });
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < publishers; p++) {
+            int publisher = p;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < events; i++) {
+                    bus.publishMessage(new Message(publisher + ":" + i, new Date(), "10.0.0.1", "10.0.0.2"));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (seen.size() < publishers * events && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(publishers * events, seen.size());
+        int[] last = new int[publishers];
+        java.util.Arrays.fill(last, -1);
+        for (String data : seen) {
+            String[] fields = data.split(":");
+            int publisher = Integer.parseInt(fields[0]);
+            int i = Integer.parseInt(fields[1]);
+            assertEquals(last[publisher] + 1, i, "message of publisher " + publisher + " out of order");
+            last[publisher] = i;
+        }
+        assertEquals(0, slow.getDropped());
+        slow.close();
+    }
+
+    /**
+     * Tests that a closed subscription no longer holds back the publisher.
+     */
+    @Test
+    public void closedSubscriptionReleasesPublisher() {
+        EventBus bus = new EventBus(2);
+        CountDownLatch blocked = new CountDownLatch(1);
+        EventBus.Subscription stuck = bus.subscribe("stuck", event -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        bus.publishMessage(message(0));
+        stuck.close();
+        blocked.countDown();
+        for (int i = 1; i < 100; i++) {
+            bus.publishMessage(message(i));
+        }
+        assertEquals(100, bus.getPublishedCount());
+    }
+
+    /**
+     * Tests that observers only receive the events of their kind, and that presence events carry a snapshot.
+     */
+    @Test
+    public void observersReceiveTheirEvents() throws Exception {
+        EventBus bus = new EventBus(16);
+        List<Message> messages = Collections.synchronizedList(new ArrayList<>());
+        List<RosterSnapshot> rosters = Collections.synchronizedList(new ArrayList<>());
+        List<NetworkEvent.Type> all = Collections.synchronizedList(new ArrayList<>());
+        EventBus.Subscription tcp = bus.subscribeMessages(messages::add);
+        EventBus.Subscription udp = bus.subscribePresence(rosters::add);
+        EventBus.Subscription any = bus.subscribe("all", event -> all.add(event.getType()));
+
+        HashSet<User> users = new HashSet<>();
+        users.add(new User("alice", InetAddress.getByName("10.0.0.3")));
+        bus.publishPresence(users);
+        users.clear();
+        bus.publishMessage(message(1));
+        bus.publishConnection("10.0.0.3", true);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((all.size() < 3 || messages.isEmpty() || rosters.isEmpty()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of(NetworkEvent.Type.PRESENCE, NetworkEvent.Type.MESSAGE, NetworkEvent.Type.CONNECTION), all);
+        assertEquals(1, messages.size());
+        assertEquals(1, rosters.size());
+        assertEquals(1, rosters.get(0).size());
+        tcp.close();
+        udp.close();
+        any.close();
+    }
+}
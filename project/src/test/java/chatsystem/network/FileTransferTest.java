@@ -0,0 +1,156 @@
+package chatsystem.network;
+
+import database.DatabaseManager;
+import network.TCP.FileTransferReceiver;
+import network.TCP.FileTransferSender;
+import network.TCP.InboundPipeline;
+import network.TCP.OutboundStream;
+import network.TCP.TCPConnectionPool;
+import network.TCP.TCPSender;
+import network.TCP.TCPServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileTransferTest {
+    private static final int PORT = 5020;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long MAX_SIZE = 16 * 1024 * 1024;
+
+    private static Path receiveDirectory;
+    private static Path sendDirectory;
+    private static TCPServer server;
+    private static TCPConnectionPool connections;
+
+    /**
+     * Starts a chat server receiving files into a temporary directory, up to 16 MB, unless named "unwanted".
+     */
+    @BeforeAll
+    public static void setup() throws Exception {
+        DatabaseManager.getInstance();
+        receiveDirectory = Files.createTempDirectory("received");
+        sendDirectory = Files.createTempDirectory("sent");
+        server = new TCPServer(Executors.newVirtualThreadPerTaskExecutor(), new InboundPipeline(1024, 64, batch -> { }, message -> { }));
+        server.setStreamHandler(new FileTransferReceiver(receiveDirectory, MAX_SIZE,
+                (remoteIp, fileName, size) -> !fileName.startsWith("unwanted")));
+        new Thread(() -> server.start(PORT)).start();
+        while (!server.isReady()) {
+            Thread.sleep(100);
+        }
+        connections = new TCPConnectionPool();
+    }
+
+    /**
+     * Stops the server and deletes the temporary directories.
+     */
+    @AfterAll
+    public static void tearDown() throws IOException {
+        connections.shutdown();
+        server.stop();
+        for (Path directory : new Path[]{receiveDirectory, sendDirectory}) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static Path randomFile(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return Files.write(sendDirectory.resolve(name), content);
+    }
+
+    /**
+     * Tests that a file spanning several chunks arrives identical.
+     */
+    @Test
+    public void transferSeveralChunks() throws IOException {
+        Path file = randomFile("several.bin", 10 * CHUNK_SIZE + 123);
+        long sent = new FileTransferSender(CHUNK_SIZE, 1).send(connections, "localhost", PORT, file);
+
+        assertEquals(Files.size(file), sent);
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(receiveDirectory.resolve("several.bin")));
+    }
+
+    /**
+     * Tests that a transfer resumes after the chunks already received.
+     */
+    @Test
+    public void resumeFromPartialFile() throws IOException {
+        Path file = randomFile("resumed.bin", 8 * CHUNK_SIZE);
+        byte[] content = Files.readAllBytes(file);
+        // Three whole chunks and a piece of the fourth survived an interrupted transfer
+        Path partial = receiveDirectory.resolve(".partial").resolve("127.0.0.1-" + FileTransferSender.transferId(file) + ".part");
+        Files.createDirectories(partial.getParent());
+        Files.write(partial, Arrays.copyOf(content, 3 * CHUNK_SIZE + 100));
+
+        long sent = new FileTransferSender(CHUNK_SIZE, 1).send(connections, "localhost", PORT, file);
+
+        assertEquals(5 * CHUNK_SIZE, sent);
+        assertArrayEquals(content, Files.readAllBytes(receiveDirectory.resolve("resumed.bin")));
+        assertFalse(Files.exists(partial));
+    }
+
+    /**
+     * Tests that a chunk whose checksum does not match fails the stream, and that the next attempt starts before it.
+     */
+    @Test
+    public void corruptedChunkRejected() throws Exception {
+        String name = "file:00000000-0000-0000-0000-000000000000:4:" + CHUNK_SIZE + ":corrupted.bin";
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", PORT);
+
+        OutboundStream stream = client.openStream(name);
+        assertEquals(0L, (long) stream.accepted().get(2, TimeUnit.SECONDS));
+        stream.write(ByteBuffer.allocate(16).putInt(4).putLong(12345).put(new byte[]{1, 2, 3, 4}).flip());
+        assertThrows(ExecutionException.class, () -> stream.finish().get(2, TimeUnit.SECONDS));
+
+        assertEquals(0L, (long) client.openStream(name).accepted().get(2, TimeUnit.SECONDS));
+        client.stopConnection();
+        assertFalse(Files.exists(receiveDirectory.resolve("corrupted.bin")));
+    }
+
+    /**
+     * Tests that files larger than the maximum size, or that the acceptor refuses, are refused before anything
+     * is written to disk.
+     */
+    @Test
+    public void unwantedFilesRefused() throws Exception {
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", PORT);
+        String id = "00000000-0000-0000-0000-000000000001";
+        for (String name : new String[]{"file:" + id + ":" + (MAX_SIZE + 1) + ":" + CHUNK_SIZE + ":large.bin",
+                "file:" + id + ":4:" + CHUNK_SIZE + ":unwanted.bin"}) {
+            ExecutionException e = assertThrows(ExecutionException.class, () -> client.openStream(name).accepted().get(2, TimeUnit.SECONDS));
+            assertInstanceOf(IOException.class, e.getCause());
+        }
+        client.stopConnection();
+        assertFalse(Files.exists(receiveDirectory.resolve(".partial").resolve("127.0.0.1-" + id + ".part")));
+    }
+
+    /**
+     * Tests that streams which do not carry a file are refused.
+     */
+    @Test
+    public void otherStreamsRefused() throws Exception {
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", PORT);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> client.openStream("bulk.bin").accepted().get(2, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, e.getCause());
+        client.stopConnection();
+    }
+}
@@ -0,0 +1,122 @@
+package chatsystem.network;
+
+import contacts.Room;
+import network.TCP.Frame;
+import network.TCP.FrameCodec;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FrameCodecTest {
+
+    /**
+     * Tests that a data frame survives an encode/decode round trip, including embedded newlines.
+     */
+    @Test
+    void dataFrameRoundTrip() throws ProtocolException {
+        ByteBuffer encoded = FrameCodec.encodeText(42, 1234L, "first line\nsecond line é");
+        Frame frame = FrameCodec.decode(encoded);
+        assertNotNull(frame);
+        assertEquals(Frame.DATA, frame.type());
+        assertEquals(42, frame.messageId());
+        assertEquals(1234L, frame.timestamp());
+        assertEquals("first line\nsecond line é", frame.text());
+        assertFalse(encoded.hasRemaining());
+    }
+
+    /**
+     * Tests that control frames decode without payload.
+     */
+    @Test
+    void controlFrameHasNoPayload() throws ProtocolException {
+        Frame frame = FrameCodec.decode(FrameCodec.encodeControl(Frame.ACK, 7, 99L));
+        assertNotNull(frame);
+        assertTrue(frame.isControl());
+        assertEquals(7, frame.messageId());
+        assertEquals(0, frame.payload().remaining());
+    }
+
+    /**
+     * Tests that a partial frame is left untouched until the rest arrives, and that several frames decode in a row.
+     */
+    @Test
+    void partialAndConsecutiveFrames() throws ProtocolException {
+        ByteBuffer first = FrameCodec.encodeText(1, 0, "one");
+        ByteBuffer second = FrameCodec.encodeText(2, 0, "two");
+        ByteBuffer stream = ByteBuffer.allocate(first.remaining() + second.remaining());
+        stream.put(first).put(second).flip();
+
+        ByteBuffer partial = stream.duplicate().limit(5);
+        assertNull(FrameCodec.decode(partial));
+        assertEquals(0, partial.position());
+
+        assertEquals("one", FrameCodec.decode(stream).text());
+        assertEquals("two", FrameCodec.decode(stream).text());
+        assertNull(FrameCodec.decode(stream));
+    }
+
+    /**
+     * Tests that a room frame carries the room and the text, and that a truncated one is rejected.
+     */
+    @Test
+    void roomFrameRoundTrip() throws ProtocolException {
+        Room room = new Room("room-1", "Équipe", List.of("10.0.0.1", "10.0.0.2", "10.0.0.3"));
+        Frame frame = FrameCodec.decode(FrameCodec.encodeRoomText(9, 5L, room, "bonjour à tous\n!"));
+        assertNotNull(frame);
+        assertFalse(frame.isControl());
+        assertEquals(Frame.ROOM_DATA, frame.type());
+        FrameCodec.RoomText roomText = FrameCodec.decodeRoomText(frame);
+        assertEquals(room, roomText.room());
+        assertEquals("bonjour à tous\n!", roomText.text());
+
+        ByteBuffer truncated = FrameCodec.encode(Frame.ROOM_DATA, 9, 5L, new byte[]{0, 6, 'r', 'o'});
+        assertThrows(ProtocolException.class, () -> FrameCodec.decodeRoomText(FrameCodec.decode(truncated)));
+    }
+
+    /**
+     * Tests that a corrupted length is rejected.
+     */
+    @Test
+    void invalidLengthRejected() {
+        ByteBuffer buffer = ByteBuffer.allocate(32).putInt(-5).flip();
+        assertThrows(ProtocolException.class, () -> FrameCodec.decode(buffer));
+    }
+
+    /**
+     * Tests reading frames from a blocking stream.
+     */
+    @Test
+    void readFromStream() throws Exception {
+        ByteBuffer first = FrameCodec.encodeText(1, 0, "hello");
+        ByteBuffer second = FrameCodec.encodeControl(Frame.ACK, 1, 0);
+        byte[] bytes = new byte[first.remaining() + second.remaining()];
+        ByteBuffer.wrap(bytes).put(first).put(second);
+
+        FrameCodec.Reader reader = new FrameCodec.Reader(new DataInputStream(new ByteArrayInputStream(bytes)));
+        assertEquals("hello", reader.read().text());
+        assertEquals(Frame.ACK, reader.read().type());
+        assertNull(reader.read());
+    }
+
+    /**
+     * Tests the hello handshake helpers, including answers of peers that only speak lines.
+     */
+    @Test
+    void negotiation() {
+        assertEquals(FrameCodec.PROTOCOL_VERSION, FrameCodec.requestedVersion(FrameCodec.hello()));
+        assertEquals(0, FrameCodec.requestedVersion("cs_msg=hello"));
+        assertEquals(FrameCodec.PROTOCOL_VERSION, FrameCodec.acceptedVersion(FrameCodec.PROTO_PREFIX + FrameCodec.PROTOCOL_VERSION));
+        assertEquals(0, FrameCodec.acceptedVersion(FrameCodec.hello()));
+        assertEquals(0, FrameCodec.acceptedVersion(null));
+        // Peers of different versions agree on the lowest
+        assertEquals(1, FrameCodec.requestedVersion(FrameCodec.HELLO_PREFIX + 1));
+        assertEquals(1, FrameCodec.acceptedVersion(FrameCodec.PROTO_PREFIX + 1));
+        assertEquals(FrameCodec.PROTOCOL_VERSION, FrameCodec.requestedVersion(FrameCodec.HELLO_PREFIX + 99));
+    }
+}
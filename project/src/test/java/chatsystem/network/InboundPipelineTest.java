@@ -0,0 +1,178 @@
+package chatsystem.network;
+
+import database.Message;
+import network.TCP.Ack;
+import network.TCP.InboundPipeline;
+import network.TCP.NioTCPServer;
+import network.TCP.TCPSender;
+import network.TCP.TCPServer;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboundPipelineTest {
+
+    private static Message message(int i) {
+        return new Message("message " + i, new Date(), "10.0.0.1", "10.0.0.2");
+    }
+
+    /**
+     * Tests that messages arriving while a batch is being stored are stored together, and dispatched in order.
+     */
+    @Test
+    public void messagesStoredByBatches() throws Exception {
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        List<String> dispatched = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch firstBatch = new CountDownLatch(1);
+        InboundPipeline pipeline = new InboundPipeline(64, 16, batch -> {
+            batchSizes.add(batch.size());
+            try {
+                firstBatch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, message -> dispatched.add(message.getData()));
+        pipeline.start();
+
+        for (int i = 0; i < 40; i++) {
+            assertTrue(pipeline.submit(message(i)));
+        }
+        firstBatch.countDown();
+        pipeline.close();
+
+        assertEquals(40, dispatched.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals("message " + i, dispatched.get(i));
+        }
+        assertTrue(batchSizes.size() < 40);
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 16));
+        InboundPipeline.Metrics metrics = pipeline.getMetrics();
+        assertEquals(40, metrics.persisted());
+        assertEquals(40, metrics.dispatched());
+        assertTrue(metrics.averageBatchSize() > 1);
+    }
+
+    /**
+     * Tests that a full pipeline refuses new messages until the persistence stage catches up.
+     */
+    @Test
+    public void fullPipelineRefusesMessages() throws Exception {
+        CountDownLatch slowDisk = new CountDownLatch(1);
+        List<String> dispatched = Collections.synchronizedList(new ArrayList<>());
+        InboundPipeline pipeline = new InboundPipeline(4, 1, batch -> {
+            try {
+                slowDisk.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, message -> dispatched.add(message.getData()));
+        pipeline.start();
+
+        int accepted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (pipeline.offer(message(i))) {
+                accepted++;
+            }
+            Thread.sleep(5);
+        }
+        // Four messages queued and one held by the blocked persistence stage
+        assertEquals(5, accepted);
+        assertEquals(4, pipeline.getMetrics().queueDepth());
+        assertEquals(5, pipeline.getMetrics().rejected());
+
+        slowDisk.countDown();
+        pipeline.close();
+        assertEquals(5, dispatched.size());
+        assertEquals(4, pipeline.getMetrics().peakQueueDepth());
+    }
+
+    /**
+     * Tests that a server runs the threads of its pipeline from start to stop only, and shuts its executor down.
+     */
+    @Test
+    public void serverOwnsPipelineAndExecutor() throws Exception {
+        int before = pipelineThreads();
+        ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        TCPServer server = new TCPServer(executor, new InboundPipeline(4, 4, batch -> { }, message -> { }));
+        new NioTCPServer(1, new InboundPipeline(4, 4, batch -> { }, message -> { }));
+        assertEquals(before, pipelineThreads());
+
+        new Thread(() -> server.start(5016)).start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+        assertEquals(before + 2, pipelineThreads());
+        server.stop();
+        assertTrue(executor.isShutdown());
+        assertEquals(before, pipelineThreads());
+    }
+
+    private static int pipelineThreads() {
+        return (int) Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().startsWith("inbound-") && thread.isAlive())
+                .count();
+    }
+
+    /**
+     * Tests that a server whose pipeline is full stops reading, so a flooding peer stops getting acknowledgements.
+     */
+    @Test
+    public void threadPerConnectionServerPushesBack() throws Exception {
+        CountDownLatch slowDisk = new CountDownLatch(1);
+        InboundPipeline pipeline = new InboundPipeline(4, 4, batch -> await(slowDisk), message -> { });
+        assertServerPushesBack(new TCPServer(Executors.newVirtualThreadPerTaskExecutor(), pipeline), 5012, slowDisk);
+    }
+
+    /**
+     * Tests that the NIO engine stops reading a connection while the pipeline is full.
+     */
+    @Test
+    public void nioServerPushesBack() throws Exception {
+        CountDownLatch slowDisk = new CountDownLatch(1);
+        InboundPipeline pipeline = new InboundPipeline(4, 4, batch -> await(slowDisk), message -> { });
+        assertServerPushesBack(new NioTCPServer(1, pipeline), 5013, slowDisk);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void assertServerPushesBack(TCPServer server, int port, CountDownLatch slowDisk) throws Exception {
+        new Thread(() -> server.start(port)).start();
+        while (!server.isReady()) {
+            Thread.sleep(50);
+        }
+        TCPSender client = new TCPSender(4096, 0, 64 * 1024);
+        client.startConnection("localhost", port);
+        int messages = 2000;
+        String text = "x".repeat(1000);
+        List<CompletableFuture<Ack>> acks = new ArrayList<>();
+        for (int i = 0; i < messages; i++) {
+            acks.add(client.sendMessageAsync(text));
+        }
+
+        Thread.sleep(500);
+        long acknowledged = acks.stream().filter(CompletableFuture::isDone).count();
+        assertTrue(acknowledged < 100, acknowledged + " messages acknowledged while the disk was stuck");
+
+        slowDisk.countDown();
+        CompletableFuture.allOf(acks.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        client.stopConnection();
+        server.stop();
+        assertEquals(messages, server.getInboundMetrics().persisted());
+    }
+}
@@ -0,0 +1,89 @@
+package chatsystem.network;
+
+import database.Message;
+import network.MessageRouter;
+import network.TCPObserver;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageRouterTest {
+
+    private static Message from(String ip) {
+        return new Message("hello", new Date(), ip, "10.0.0.254");
+    }
+
+    /**
+     * Tests that a message only reaches the observers of its sender's conversation.
+     */
+    @Test
+    public void messageRoutedToItsConversationOnly() {
+        MessageRouter router = new MessageRouter();
+        List<String> alice = new ArrayList<>();
+        List<String> bob = new ArrayList<>();
+        router.subscribe("10.0.0.1", message -> alice.add(message.getIpSource()));
+        router.subscribe("10.0.0.2", message -> bob.add(message.getIpSource()));
+
+        assertEquals(1, router.route(from("10.0.0.1")));
+        assertEquals(0, router.route(from("10.0.0.3")));
+
+        assertEquals(List.of("10.0.0.1"), alice);
+        assertTrue(bob.isEmpty());
+    }
+
+    /**
+     * Tests that group messages are routed by room id, not to the one-to-one conversation with their sender.
+     */
+    @Test
+    public void roomMessageRoutedToItsRoom() {
+        MessageRouter router = new MessageRouter();
+        List<Message> direct = new ArrayList<>();
+        List<Message> room = new ArrayList<>();
+        router.subscribe("10.0.0.1", direct::add);
+        router.subscribe("room-1", room::add);
+
+        assertEquals(1, router.route(new Message("to the room", new Date(), "10.0.0.1", "10.0.0.254", null, "room-1")));
+
+        assertTrue(direct.isEmpty());
+        assertEquals(1, room.size());
+    }
+
+    /**
+     * Tests that an unsubscribed observer stops receiving messages and that empty routes are dropped.
+     */
+    @Test
+    public void unsubscribeDropsRoute() {
+        MessageRouter router = new MessageRouter();
+        List<Message> received = new ArrayList<>();
+        TCPObserver observer = received::add;
+        router.subscribe("10.0.0.1", observer);
+        router.subscribe("10.0.0.1", observer);
+        assertEquals(1, router.route(from("10.0.0.1")));
+
+        router.unsubscribe("10.0.0.1", observer);
+        assertEquals(0, router.route(from("10.0.0.1")));
+        assertEquals(1, received.size());
+        assertEquals(0, router.getRouteCount());
+    }
+
+    /**
+     * Tests that routing to one conversation does not visit the observers of the others.
+     */
+    @Test
+    public void hundredsOfConversations() {
+        MessageRouter router = new MessageRouter();
+        int[] visited = new int[1];
+        for (int i = 0; i < 500; i++) {
+            router.subscribe("10.0." + (i / 250) + "." + (i % 250), message -> visited[0]++);
+        }
+        for (int i = 0; i < 500; i++) {
+            router.route(from("10.0.1.7"));
+        }
+        assertEquals(500, visited[0]);
+        assertEquals(500, router.getRouteCount());
+    }
+}
@@ -0,0 +1,251 @@
+package chatsystem.network;
+
+import contacts.RosterSnapshot;
+import contacts.User;
+import database.DatabaseManager;
+import database.Message;
+import database.OutboxEntry;
+import network.TCP.Frame;
+import network.TCP.FrameCodec;
+import network.TCP.InboundPipeline;
+import network.TCP.Outbox;
+import network.TCP.TCPConnectionPool;
+import network.TCP.TCPServer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboxTest {
+
+    @BeforeAll
+    public static void setup() {
+        DatabaseManager.getInstance();
+    }
+
+    /**
+     * Keeps the outbox in memory and records the last state of every entry.
+     */
+    private static class MemoryStore implements Outbox.Store {
+        private final AtomicLong ids = new AtomicLong();
+        private final List<OutboxEntry> undelivered = new ArrayList<>();
+        private final Map<Long, OutboxEntry.State> states = new ConcurrentHashMap<>();
+
+        @Override
+        public long add(Message message) {
+            long id = ids.incrementAndGet();
+            states.put(id, OutboxEntry.State.QUEUED);
+            return id;
+        }
+
+        @Override
+        public void update(OutboxEntry entry) {
+            states.put(entry.getId(), entry.getState());
+        }
+
+        @Override
+        public List<OutboxEntry> loadUndelivered() {
+            return undelivered;
+        }
+    }
+
+    private static TCPServer startServer(int port, List<String> received) throws InterruptedException {
+        TCPServer server = new TCPServer(Executors.newVirtualThreadPerTaskExecutor(),
+                new InboundPipeline(64, 16, batch -> { }, message -> received.add(message.getData())));
+        new Thread(() -> server.start(port)).start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+        return server;
+    }
+
+    private static void waitFor(Outbox outbox, int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getQueuedCount() != queued && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(queued, outbox.getQueuedCount());
+    }
+
+    /**
+     * Tests that messages sent to an offline peer stay queued, and are delivered in order as soon as the peer reappears.
+     */
+    @Test
+    public void queuedMessagesDeliveredInOrderWhenPeerReappears() throws Exception {
+        MemoryStore store = new MemoryStore();
+        TCPConnectionPool pool = new TCPConnectionPool();
+        // Backoff long enough that only the peer reappearing can trigger the delivery
+        Outbox outbox = new Outbox(pool, 5021, store, 30000, 60000);
+        outbox.start();
+
+        List<OutboxEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            entries.add(outbox.send(new Message("queued " + i, new Date(), "10.0.0.1", "127.0.0.1")));
+        }
+        Thread.sleep(300);
+        assertEquals(5, outbox.getQueuedCount());
+        for (OutboxEntry entry : entries) {
+            assertEquals(OutboxEntry.State.QUEUED, store.states.get(entry.getId()));
+            assertTrue(entry.getAttempts() >= 1);
+        }
+
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        TCPServer server = startServer(5021, received);
+        HashSet<User> roster = new HashSet<>();
+        roster.add(new User("bob", InetAddress.getByName("127.0.0.1")));
+        outbox.update(RosterSnapshot.of(roster));
+
+        waitFor(outbox, 0);
+        assertEquals(List.of("queued 0", "queued 1", "queued 2", "queued 3", "queued 4"), received);
+        for (OutboxEntry entry : entries) {
+            assertEquals(OutboxEntry.State.ACKED, store.states.get(entry.getId()));
+        }
+
+        outbox.close();
+        pool.shutdown();
+        server.stop();
+    }
+
+    /**
+     * Tests that the messages left in the outbox by a previous session are delivered on start, before the new ones.
+     */
+    @Test
+    public void undeliveredMessagesResentOnStart() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        TCPServer server = startServer(5022, received);
+        MemoryStore store = new MemoryStore();
+        for (int i = 0; i < 3; i++) {
+            Message message = new Message("left over " + i, new Date(), "10.0.0.1", "127.0.0.1");
+            store.undelivered.add(new OutboxEntry(store.add(message), message, OutboxEntry.State.QUEUED, 2));
+        }
+        TCPConnectionPool pool = new TCPConnectionPool();
+        Outbox outbox = new Outbox(pool, 5022, store, 50, 1000);
+
+        outbox.start();
+        outbox.send(new Message("new", new Date(), "10.0.0.1", "127.0.0.1"));
+
+        waitFor(outbox, 0);
+        assertEquals(List.of("left over 0", "left over 1", "left over 2", "new"), received);
+        assertTrue(store.states.values().stream().allMatch(state -> state == OutboxEntry.State.ACKED));
+        // The queue of the peer is removed once it has nothing left to deliver
+        long deadline = System.currentTimeMillis() + 2000;
+        while (outbox.getPeerCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, outbox.getPeerCount());
+
+        outbox.close();
+        pool.shutdown();
+        server.stop();
+    }
+
+    /**
+     * Tests that a message whose acknowledgement was lost is sent again with the same message id.
+     */
+    @Test
+    public void resentWithSameMessageId() throws Exception {
+        List<Long> ids = Collections.synchronizedList(new ArrayList<>());
+        try (ServerSocket forgetfulPeer = new ServerSocket(5030)) {
+            Thread peer = new Thread(() -> {
+                for (int attempt = 0; attempt < 2; attempt++) {
+                    try (Socket socket = forgetfulPeer.accept()) {
+                        new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                        OutputStream out = socket.getOutputStream();
+                        write(out, ByteBuffer.wrap((FrameCodec.PROTO_PREFIX + FrameCodec.PROTOCOL_VERSION + "\n").getBytes()));
+                        Frame frame = new FrameCodec.Reader(new DataInputStream(socket.getInputStream())).read();
+                        ids.add(frame.messageId());
+                        // The first attempt is not acknowledged
+                        if (attempt == 1) {
+                            write(out, FrameCodec.encodeControl(Frame.ACK, frame.messageId(), System.currentTimeMillis()));
+                            socket.getInputStream().read();
+                        }
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            });
+            peer.start();
+            TCPConnectionPool pool = new TCPConnectionPool();
+            Outbox outbox = new Outbox(pool, 5030, new MemoryStore(), 20, 100);
+            outbox.start();
+            outbox.send(new Message("lost ack", new Date(), "10.0.0.1", "127.0.0.1"));
+
+            waitFor(outbox, 0);
+            assertEquals(2, ids.size());
+            assertEquals(ids.get(0), ids.get(1));
+
+            outbox.close();
+            pool.shutdown();
+            peer.join(2000);
+        }
+    }
+
+    /**
+     * Tests that a server acknowledges an outbox message sent again but delivers it once.
+     */
+    @Test
+    public void resentMessageDeliveredOnce() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        TCPServer server = startServer(5031, received);
+        // An id of the outbox range, above the per-connection ones
+        long messageId = (1L << 61) + 7;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try (Socket socket = new Socket("localhost", 5031)) {
+                OutputStream out = socket.getOutputStream();
+                write(out, ByteBuffer.wrap((FrameCodec.hello() + "\n").getBytes()));
+                new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                write(out, FrameCodec.encodeText(messageId, System.currentTimeMillis(), "once"));
+                Frame ack = new FrameCodec.Reader(new DataInputStream(socket.getInputStream())).read();
+                assertEquals(Frame.ACK, ack.type());
+                assertEquals(messageId, ack.messageId());
+            }
+        }
+        Thread.sleep(200);
+        assertEquals(List.of("once"), received);
+        server.stop();
+    }
+
+    private static void write(OutputStream out, ByteBuffer frame) throws IOException {
+        out.write(frame.array(), 0, frame.limit());
+        out.flush();
+    }
+
+    /**
+     * Tests that a peer refusing connections is retried with a growing backoff rather than in a tight loop.
+     */
+    @Test
+    public void retriesBackOff() throws Exception {
+        TCPConnectionPool pool = new TCPConnectionPool();
+        Outbox outbox = new Outbox(pool, 5023, new MemoryStore(), 20, 400);
+        outbox.start();
+        OutboxEntry entry = outbox.send(new Message("nobody home", new Date(), "10.0.0.1", "127.0.0.1"));
+
+        Thread.sleep(1000);
+        // Delays of at least 10, 20, 40, 80, 160, 200, 200... ms: a handful of attempts in a second, not hundreds
+        assertTrue(entry.getAttempts() >= 3, "attempts: " + entry.getAttempts());
+        assertTrue(entry.getAttempts() <= 12, "attempts: " + entry.getAttempts());
+        assertEquals(1, outbox.getQueuedCount());
+
+        outbox.close();
+        pool.shutdown();
+    }
+}
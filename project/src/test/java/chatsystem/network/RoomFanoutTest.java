@@ -0,0 +1,73 @@
+package chatsystem.network;
+
+import contacts.Room;
+import contacts.RoomList;
+import database.DatabaseManager;
+import database.Message;
+import network.TCP.InboundPipeline;
+import network.TCP.NioTCPServer;
+import network.TCP.RoomFanout;
+import network.TCP.TCPConnectionPool;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomFanoutTest {
+
+    @BeforeAll
+    public static void setup() {
+        DatabaseManager.getInstance();
+    }
+
+    /**
+     * Tests that a room message reaches every member once, tagged with its room, and that members learn the room.
+     * Members are distinct loopback addresses served by one server, so each member gets its own connection.
+     */
+    @Test
+    public void messageReachesEveryMember() throws Exception {
+        List<Message> received = Collections.synchronizedList(new ArrayList<>());
+        NioTCPServer server = new NioTCPServer(1, new InboundPipeline(256, 64, batch -> { }, received::add));
+        new Thread(() -> server.start(5024)).start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+        List<String> members = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            members.add("127.0.0." + i);
+        }
+        Room room = Room.create("team", members);
+        TCPConnectionPool pool = new TCPConnectionPool(32, 60000);
+        RoomFanout fanout = new RoomFanout(pool, 5024);
+
+        RoomFanout.Delivery delivery = fanout.send(room, "hello team", System.currentTimeMillis()).get(10, TimeUnit.SECONDS);
+        assertEquals(20, delivery.members());
+        assertTrue(delivery.complete());
+        assertEquals(20, pool.size());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < 20 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(20, received.size());
+        for (Message message : received) {
+            assertEquals("hello team", message.getData());
+            assertEquals(room.getId(), message.getRoomId());
+        }
+        assertEquals(20, server.getOpenConnections());
+        assertEquals(room, RoomList.getRoom(room.getId()));
+
+        // The second message reuses the connections
+        assertTrue(fanout.send(room, "again", System.currentTimeMillis()).get(10, TimeUnit.SECONDS).complete());
+        assertEquals(20, pool.getOpenedCount());
+
+        fanout.close();
+        pool.shutdown();
+        server.stop();
+    }
+}
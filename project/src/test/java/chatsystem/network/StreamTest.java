@@ -0,0 +1,200 @@
+package chatsystem.network;
+
+import database.DatabaseManager;
+import network.TCP.InboundPipeline;
+import network.TCP.NioTCPServer;
+import network.TCP.OutboundStream;
+import network.TCP.StreamHandler;
+import network.TCP.TCPSender;
+import network.TCP.TCPServer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamTest {
+
+    @BeforeAll
+    public static void setup() {
+        DatabaseManager.getInstance();
+    }
+
+    /**
+     * Counts the bytes of the streams it receives, optionally waiting on a latch before consuming each chunk.
+     */
+    private static class CountingHandler implements StreamHandler {
+        private final AtomicLong received = new AtomicLong();
+        private final CountDownLatch release;
+        private final CompletableFuture<String> finished = new CompletableFuture<>();
+
+        CountingHandler(CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public Receiver open(String remoteIp, String name) {
+            return new Receiver() {
+                @Override
+                public void onData(ByteBuffer data) throws IOException {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    received.addAndGet(data.remaining());
+                }
+
+                @Override
+                public void onFinish() {
+                    finished.complete(name);
+                }
+            };
+        }
+    }
+
+    private static <T extends TCPServer> T start(T server, int port, StreamHandler handler) throws InterruptedException {
+        server.setStreamHandler(handler);
+        new Thread(() -> server.start(port)).start();
+        while (!server.isReady()) {
+            Thread.sleep(10);
+        }
+        return server;
+    }
+
+    private static InboundPipeline discardingPipeline() {
+        return new InboundPipeline(1024, 64, batch -> { }, message -> { });
+    }
+
+    /**
+     * Writes the given number of bytes to the stream in 1 MB buffers, then finishes it.
+     */
+    private static CompletableFuture<Void> transfer(OutboundStream stream, long bytes) {
+        return CompletableFuture.runAsync(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+            try {
+                for (long sent = 0; sent < bytes; sent += buffer.capacity()) {
+                    stream.write(buffer.clear());
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }, Executors.newVirtualThreadPerTaskExecutor()).thenCompose(ignored -> stream.finish());
+    }
+
+    /**
+     * Returns the round trips in microseconds of chat messages sent one after the other every 5 ms until done completes.
+     */
+    private static long[] chatRoundTrips(TCPSender client, CompletableFuture<?> done, int max) throws Exception {
+        long[] roundTrips = new long[max];
+        int count = 0;
+        while (!done.isDone() && count < max) {
+            long start = System.nanoTime();
+            client.sendMessageAsync("ping " + count).get(5, TimeUnit.SECONDS);
+            roundTrips[count++] = (System.nanoTime() - start) / 1000;
+            Thread.sleep(5);
+        }
+        long[] measured = Arrays.copyOf(roundTrips, count);
+        Arrays.sort(measured);
+        return measured;
+    }
+
+    /**
+     * Tests that a stream is received whole while chat messages are acknowledged on the same connection.
+     * The latency of those messages is measured by StreamLatencyBenchmark.
+     */
+    @Test
+    public void chatFlowsDuringBulkTransfer() throws Exception {
+        long size = 16L * 1024 * 1024;
+        CountingHandler handler = new CountingHandler(new CountDownLatch(0));
+        TCPServer server = start(new TCPServer(Executors.newVirtualThreadPerTaskExecutor(), discardingPipeline()), 5025, handler);
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", 5025);
+
+        CompletableFuture<Void> done = transfer(client.openStream("bulk.bin"), size);
+        long[] loaded = chatRoundTrips(client, done, 10000);
+        done.get(1, TimeUnit.MINUTES);
+
+        assertEquals(size, handler.received.get());
+        assertEquals("bulk.bin", handler.finished.getNow(null));
+        assertTrue(loaded.length >= 1);
+
+        client.stopConnection();
+        server.stop();
+    }
+
+    /**
+     * Tests that the NIO engine receives streams next to chat messages.
+     */
+    @Test
+    public void nioServerReceivesStream() throws Exception {
+        long size = 32L * 1024 * 1024;
+        CountingHandler handler = new CountingHandler(new CountDownLatch(0));
+        NioTCPServer server = start(new NioTCPServer(1, discardingPipeline()), 5026, handler);
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", 5026);
+
+        CompletableFuture<Void> done = transfer(client.openStream("nio.bin"), size);
+        long[] loaded = chatRoundTrips(client, done, 10000);
+        done.get(1, TimeUnit.MINUTES);
+
+        assertEquals(size, handler.received.get());
+        assertTrue(loaded.length >= 1);
+
+        client.stopConnection();
+        server.stop();
+    }
+
+    /**
+     * Tests that a receiver not consuming holds its sender to the window, while messages still get through.
+     */
+    @Test
+    public void slowReceiverHoldsSenderToWindow() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountingHandler handler = new CountingHandler(release);
+        TCPServer server = start(new TCPServer(Executors.newVirtualThreadPerTaskExecutor(), discardingPipeline()), 5027, handler);
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", 5027);
+
+        OutboundStream stream = client.openStream("slow.bin");
+        CompletableFuture<Void> done = transfer(stream, 4L * 1024 * 1024);
+        Thread.sleep(300);
+        assertTrue(stream.getBytesSent() <= 256 * 1024, "sent before any credit came back: " + stream.getBytesSent());
+        assertFalse(done.isDone());
+        client.sendMessageAsync("still flowing").get(1, TimeUnit.SECONDS);
+
+        release.countDown();
+        done.get(30, TimeUnit.SECONDS);
+        assertEquals(4L * 1024 * 1024, handler.received.get());
+
+        client.stopConnection();
+        server.stop();
+    }
+
+    /**
+     * Tests that a stream the server has no handler for is refused without harming the connection.
+     */
+    @Test
+    public void streamRefusedWithoutHandler() throws Exception {
+        TCPServer server = start(new TCPServer(Executors.newVirtualThreadPerTaskExecutor(), discardingPipeline()), 5028, StreamHandler.REFUSE);
+        TCPSender client = new TCPSender();
+        client.startConnection("localhost", 5028);
+
+        OutboundStream stream = client.openStream("refused.bin");
+        assertThrows(IOException.class, () -> stream.write(ByteBuffer.allocate(1024)));
+        assertThrows(ExecutionException.class, () -> stream.finish().get(1, TimeUnit.SECONDS));
+        assertEquals("after refusal", client.sendMessage("after refusal"));
+
+        client.stopConnection();
+        server.stop();
+    }
+}
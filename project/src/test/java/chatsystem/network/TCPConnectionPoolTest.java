@@ -0,0 +1,118 @@
+package chatsystem.network;
+
+import network.TCP.TCPConnectionPool;
+import network.TCP.TCPSender;
+import network.TCP.TCPServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TCPConnectionPoolTest {
+    private static TCPServer server1;
+    private static TCPServer server2;
+    private TCPConnectionPool pool;
+
+    /**
+     * Starts two servers standing for two different peers.
+     */
+    @BeforeAll
+    public static void setup() throws InterruptedException {
+        server1 = startServer(5010);
+        server2 = startServer(5011);
+    }
+
+    private static TCPServer startServer(int port) throws InterruptedException {
+        TCPServer server = new TCPServer();
+        new Thread(() -> server.start(port)).start();
+        while (!server.isReady()) {
+            Thread.sleep(100);
+        }
+        return server;
+    }
+
+    /**
+     * Stops both servers after all tests.
+     */
+    @AfterAll
+    public static void tearDown() {
+        server1.stop();
+        server2.stop();
+    }
+
+    /**
+     * Closes the pool after each test.
+     */
+    @AfterEach
+    public void closePool() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Tests that switching back and forth between two peers reuses the warm connections.
+     */
+    @Test
+    public void switchingPeersReusesConnections() {
+        pool = new TCPConnectionPool();
+        TCPSender first = pool.get("localhost", 5010);
+        TCPSender second = pool.get("localhost", 5011);
+        for (int i = 0; i < 5; i++) {
+            assertSame(first, pool.get("localhost", 5010));
+            assertSame(second, pool.get("localhost", 5011));
+        }
+        assertEquals(2, pool.getOpenedCount());
+        assertEquals("still warm", pool.get("localhost", 5010).sendMessage("still warm"));
+    }
+
+    /**
+     * Tests that the least recently used connection is closed when the pool is full.
+     */
+    @Test
+    public void leastRecentlyUsedEvictedWhenFull() {
+        pool = new TCPConnectionPool(1, 60000);
+        TCPSender first = pool.get("localhost", 5010);
+        pool.get("localhost", 5011);
+        assertEquals(1, pool.size());
+        assertFalse(first.isConnected());
+        assertNotSame(first, pool.get("localhost", 5010));
+    }
+
+    /**
+     * Tests that idle connections are closed by the background check.
+     */
+    @Test
+    public void idleConnectionsEvicted() throws InterruptedException {
+        pool = new TCPConnectionPool(4, 100);
+        TCPSender sender = pool.get("localhost", 5010);
+        Thread.sleep(400);
+        assertEquals(0, pool.size());
+        assertFalse(sender.isConnected());
+    }
+
+    /**
+     * Tests that a connection closed under the pool is replaced on the next use.
+     */
+    @Test
+    public void deadConnectionReplaced() {
+        pool = new TCPConnectionPool();
+        TCPSender sender = pool.get("localhost", 5010);
+        sender.stopConnection();
+        TCPSender replacement = pool.get("localhost", 5010);
+        assertNotSame(sender, replacement);
+        assertTrue(replacement.isConnected());
+    }
+
+    /**
+     * Tests that an unreachable peer is reported and not pooled.
+     */
+    @Test
+    public void unreachablePeerNotPooled() {
+        pool = new TCPConnectionPool();
+        assertFalse(pool.get("localhost", 5019).isConnected());
+        assertEquals(0, pool.size());
+    }
+}
@@ -1,11 +1,30 @@
 package chatsystem.network;
 
+import network.EventBus;
+import network.NetworkEvent;
+import network.TCP.Ack;
+import network.TCP.Frame;
+import network.TCP.FrameCodec;
+import network.TCP.Heartbeat;
+import network.TCP.NioTCPServer;
 import network.TCP.TCPSender;
 import network.TCP.TCPServer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.junit.jupiter.api.*;
 
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class TCPTest {
@@ -77,4 +96,328 @@ class TCPTest {
         client2.stopConnection();
         client3.stopConnection();
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that the NIO engine echoes messages of several clients served by a single I/O thread.
+     */
+    @Test
+    public void NioServerMultipleClients() throws InterruptedException {
+        NioTCPServer nioServer = new NioTCPServer(1);
+        Thread serverThread = new Thread(() -> nioServer.start(5005));
+        serverThread.start();
+        while (!nioServer.isReady()) {
+            Thread.sleep(100);
+        }
+
+        TCPSender nioClient1 = new TCPSender();
+        TCPSender nioClient2 = new TCPSender();
+        nioClient1.startConnection("localhost", 5005);
+        nioClient2.startConnection("localhost", 5005);
+
+        assertEquals("First through NIO", nioClient1.sendMessage("First through NIO"));
+        assertEquals("Second through NIO", nioClient2.sendMessage("Second through NIO"));
+        assertEquals("Again", nioClient1.sendMessage("Again"));
+        assertEquals(2, nioServer.getOpenConnections());
+
+        nioClient1.stopConnection();
+        nioClient2.stopConnection();
+        nioServer.stop();
+        assertTrue(nioServer.isClosed());
+    }
+
+    /**
+     * Tests that client handlers running on virtual threads echo messages.
+     */
+    @Test
+    public void VirtualThreadServerEcho() throws InterruptedException {
+        TCPServer virtualServer = TCPServer.create(TCPServer.Engine.VIRTUAL_THREADS);
+        Thread serverThread = new Thread(() -> virtualServer.start(5006));
+        serverThread.start();
+        while (!virtualServer.isReady()) {
+            Thread.sleep(100);
+        }
+
+        TCPSender virtualClient = new TCPSender();
+        virtualClient.startConnection("localhost", 5006);
+        assertEquals("Hello, virtual thread!", virtualClient.sendMessage("Hello, virtual thread!"));
+
+        virtualClient.stopConnection();
+        virtualServer.stop();
+    }
+
+    /**
+     * Tests that a client negotiates binary frames and can send multi-line messages.
+     */
+    @Test
+    public void FramedMultilineMessage() {
+        TCPSender framedClient = new TCPSender();
+        framedClient.startConnection("localhost", 5004);
+        assertEquals(FrameCodec.PROTOCOL_VERSION, framedClient.getProtocolVersion());
+        assertEquals("line one\nline two", framedClient.sendMessage("line one\nline two"));
+        framedClient.stopConnection();
+    }
+
+    /**
+     * Tests that a client still speaking the "cs_msg=" line protocol is served by the new server.
+     */
+    @Test
+    public void LegacyClientStillServed() throws IOException {
+        try (Socket socket = new Socket("localhost", 5004)) {
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out.println("cs_msg=Old peer");
+            assertEquals("Old peer", in.readLine());
+        }
+    }
+
+    /**
+     * Tests that the client falls back to lines when the server echoes the hello back, as older servers do.
+     */
+    @Test
+    public void FallbackToLegacyServer() throws Exception {
+        List<String> lines = java.util.Collections.synchronizedList(new ArrayList<>());
+        try (ServerSocket legacyServer = new ServerSocket(5007)) {
+            Thread echo = new Thread(() -> {
+                try (Socket socket = legacyServer.accept()) {
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        lines.add(line);
+                        out.println(line.startsWith("cs_msg=") ? line.substring("cs_msg=".length()) : line);
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug(e.getMessage());
+                }
+            });
+            echo.start();
+
+            TCPSender legacyClient = new TCPSender();
+            legacyClient.startConnection("localhost", 5007);
+            assertEquals(0, legacyClient.getProtocolVersion());
+            assertEquals("Hello, old server!", legacyClient.sendMessage("Hello, old server!"));
+            CompletableFuture<Ack> first = legacyClient.sendMessageAsync("first");
+            CompletableFuture<Ack> second = legacyClient.sendMessageAsync("second");
+            assertTrue(first.get(2, TimeUnit.SECONDS).messageId() < second.get(2, TimeUnit.SECONDS).messageId());
+            // A line break would split the message into two lines, and two acknowledgements
+            CompletableFuture<Ack> multiline = legacyClient.sendMessageAsync("two\nlines");
+            CompletableFuture<Ack> last = legacyClient.sendMessageAsync("last");
+            assertTrue(multiline.get(2, TimeUnit.SECONDS).messageId() < last.get(2, TimeUnit.SECONDS).messageId());
+            assertEquals("cs_msg=two\u2028lines", lines.get(lines.size() - 2));
+            assertEquals("cs_msg=last", lines.get(lines.size() - 1));
+            legacyClient.stopConnection();
+            echo.join(2000);
+        }
+    }
+
+    /**
+     * Tests that many messages can be in flight on one connection and all get acknowledged.
+     */
+    @Test
+    public void PipelinedAsyncMessages() throws Exception {
+        // No heartbeat may be written while the burst is measured
+        TCPSender asyncClient = new TCPSender(new Heartbeat(60_000, 3));
+        asyncClient.startConnection("localhost", 5004);
+        List<CompletableFuture<Ack>> acks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            acks.add(asyncClient.sendMessageAsync("burst " + i));
+        }
+        CompletableFuture.allOf(acks.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < acks.size(); i++) {
+            assertEquals(i + 1, acks.get(i).get().messageId());
+        }
+        assertEquals(0, asyncClient.getInFlightCount());
+        assertEquals(100, asyncClient.getOutboundMetrics().framesWritten());
+        assertTrue(asyncClient.getOutboundMetrics().batches() <= 100);
+        asyncClient.stopConnection();
+    }
+
+    /**
+     * Tests that a full outbound queue rejects messages instead of buffering without bound.
+     */
+    @Test
+    public void FullOutboundQueueRejects() throws Exception {
+        try (ServerSocket stalledServer = new ServerSocket(5009)) {
+            Thread peer = new Thread(() -> {
+                try (Socket socket = stalledServer.accept()) {
+                    new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                    socket.getOutputStream().write((FrameCodec.PROTO_PREFIX + FrameCodec.PROTOCOL_VERSION + "\n").getBytes());
+                    Thread.sleep(3000);
+                } catch (IOException e) {
+                    LOGGER.debug(e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            peer.start();
+
+            TCPSender stalledClient = new TCPSender(2, 0, 64 * 1024);
+            stalledClient.startConnection("localhost", 5009);
+            String big = "x".repeat(64 * 1024);
+            CompletableFuture<Ack> rejected = null;
+            for (int i = 0; i < 1000 && rejected == null; i++) {
+                CompletableFuture<Ack> ack = stalledClient.sendMessageAsync(big);
+                if (ack.isCompletedExceptionally()) {
+                    rejected = ack;
+                }
+            }
+            assertNotNull(rejected);
+            ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+            assertInstanceOf(TCPSender.QueueFullException.class, e.getCause());
+            stalledClient.stopConnection();
+            peer.interrupt();
+            peer.join(2000);
+        }
+    }
+
+    /**
+     * Tests that acknowledgements arriving out of order complete the right futures.
+     */
+    @Test
+    public void OutOfOrderAcknowledgements() throws Exception {
+        try (ServerSocket reorderingServer = new ServerSocket(5008)) {
+            Thread peer = new Thread(() -> {
+                try (Socket socket = reorderingServer.accept()) {
+                    BufferedReader hello = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    hello.readLine();
+                    OutputStream out = socket.getOutputStream();
+                    out.write((FrameCodec.PROTO_PREFIX + FrameCodec.PROTOCOL_VERSION + "\n").getBytes());
+                    out.flush();
+                    FrameCodec.Reader reader = new FrameCodec.Reader(new DataInputStream(socket.getInputStream()));
+                    long firstId = reader.read().messageId();
+                    long secondId = reader.read().messageId();
+                    for (long id : new long[]{secondId, firstId}) {
+                        ByteBuffer ack = FrameCodec.encodeControl(Frame.ACK, id, System.currentTimeMillis());
+                        out.write(ack.array(), 0, ack.limit());
+                    }
+                    out.flush();
+                    socket.getInputStream().read();
+                } catch (IOException e) {
+                    LOGGER.debug(e.getMessage());
+                }
+            });
+            peer.start();
+
+            TCPSender reorderedClient = new TCPSender();
+            reorderedClient.startConnection("localhost", 5008);
+            CompletableFuture<Ack> first = reorderedClient.sendMessageAsync("first");
+            CompletableFuture<Ack> second = reorderedClient.sendMessageAsync("second");
+            assertEquals(2, second.get(2, TimeUnit.SECONDS).messageId());
+            assertEquals(1, first.get(2, TimeUnit.SECONDS).messageId());
+            reorderedClient.stopConnection();
+            peer.join(2000);
+        }
+    }
+
+    /**
+     * Tests that an idle connection to a server answering heartbeats stays open and monitored.
+     */
+    @Test
+    public void HeartbeatsKeepIdleConnectionAlive() throws InterruptedException {
+        TCPSender idleClient = new TCPSender(new Heartbeat(50, 3));
+        idleClient.startConnection("localhost", 5004);
+        Thread.sleep(600);
+        assertTrue(idleClient.isConnected());
+        assertTrue(idleClient.isMonitored());
+        assertEquals("still here", idleClient.sendMessage("still here"));
+        idleClient.stopConnection();
+    }
+
+    /**
+     * Tests that a peer which stops answering without closing its socket is declared lost within the timeout:
+     * the connection event is published and the pending messages fail.
+     */
+    @Test
+    public void SilentPeerDetected() throws Exception {
+        CountDownLatch silent = new CountDownLatch(1);
+        CountDownLatch lost = new CountDownLatch(1);
+        EventBus.Subscription events = EventBus.getInstance().subscribe("heartbeat-test", event -> {
+            if (event.getType() == NetworkEvent.Type.CONNECTION && "localhost".equals(event.getPeer()) && !event.isConnected()) {
+                lost.countDown();
+            }
+        });
+        try (ServerSocket crashingServer = new ServerSocket(5014)) {
+            Thread peer = new Thread(() -> {
+                try (Socket socket = crashingServer.accept()) {
+                    new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+                    OutputStream out = socket.getOutputStream();
+                    out.write((FrameCodec.PROTO_PREFIX + FrameCodec.PROTOCOL_VERSION + "\n").getBytes());
+                    out.flush();
+                    FrameCodec.Reader reader = new FrameCodec.Reader(new DataInputStream(socket.getInputStream()));
+                    Frame frame = reader.read();
+                    assertEquals(Frame.HEARTBEAT, frame.type());
+                    ByteBuffer answer = FrameCodec.encodeControl(Frame.HEARTBEAT_ACK, frame.messageId(), System.currentTimeMillis());
+                    out.write(answer.array(), 0, answer.limit());
+                    out.flush();
+                    // Crashed: the socket stays open but nothing is answered any more
+                    silent.countDown();
+                    while (reader.read() != null) {
+                        // Drain what the client keeps sending
+                    }
+                } catch (IOException e) {
+                    LOGGER.debug(e.getMessage());
+                }
+            });
+            peer.start();
+
+            TCPSender monitoredClient = new TCPSender(new Heartbeat(100, 3));
+            monitoredClient.startConnection("localhost", 5014);
+            assertTrue(silent.await(2, TimeUnit.SECONDS));
+            long silentSince = System.currentTimeMillis();
+            CompletableFuture<Ack> unanswered = monitoredClient.sendMessageAsync("anyone there?");
+
+            assertTrue(lost.await(2, TimeUnit.SECONDS));
+            long detection = System.currentTimeMillis() - silentSince;
+            LOGGER.info("Silent peer detected after {} ms", detection);
+            assertTrue(detection < 1000);
+            assertFalse(monitoredClient.isConnected());
+            assertThrows(ExecutionException.class, () -> unanswered.get(1, TimeUnit.SECONDS));
+            monitoredClient.stopConnection();
+            peer.join(2000);
+        } finally {
+            events.close();
+        }
+    }
+
+    /**
+     * Tests that both server engines close the connection of a client that sent a heartbeat and then went silent,
+     * after missThreshold of the intervals the client announced rather than of their own.
+     */
+    @Test
+    public void ServerClosesSilentClient() throws Exception {
+        int port = 5015;
+        for (TCPServer.Engine engine : new TCPServer.Engine[]{TCPServer.Engine.THREAD_PER_CONNECTION, TCPServer.Engine.NIO}) {
+            TCPServer watchfulServer = TCPServer.create(engine);
+            watchfulServer.setHeartbeat(new Heartbeat(100, 3));
+            int enginePort = port++;
+            new Thread(() -> watchfulServer.start(enginePort)).start();
+            while (!watchfulServer.isReady()) {
+                Thread.sleep(10);
+            }
+            try (Socket socket = new Socket("localhost", enginePort)) {
+                BufferedReader lines = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                OutputStream out = socket.getOutputStream();
+                out.write((FrameCodec.hello() + "\n").getBytes());
+                out.flush();
+                assertEquals(FrameCodec.PROTOCOL_VERSION, FrameCodec.acceptedVersion(lines.readLine()));
+                // A heartbeat every 400 ms: silent for 1.2 s at most
+                ByteBuffer heartbeat = FrameCodec.encodeControl(Frame.HEARTBEAT, 1, 400);
+                out.write(heartbeat.array(), 0, heartbeat.limit());
+                out.flush();
+
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                FrameCodec.Reader reader = new FrameCodec.Reader(in);
+                assertEquals(Frame.HEARTBEAT_ACK, reader.read().type());
+                long silentSince = System.currentTimeMillis();
+                socket.setSoTimeout(800);
+                assertThrows(SocketTimeoutException.class, reader::read, engine + " timed the client out by its own interval");
+                socket.setSoTimeout(3000);
+                assertNull(reader.read(), engine + " kept the connection of a silent client");
+                long silent = System.currentTimeMillis() - silentSince;
+                assertTrue(silent >= 1200 && silent < 2000, engine + " closed the connection after " + silent + " ms");
+            } finally {
+                watchfulServer.stop();
+            }
+        }
+    }
+}
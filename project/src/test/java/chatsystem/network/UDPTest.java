@@ -2,14 +2,34 @@ package chatsystem.network;
 
 import contacts.ActiveUserList;
 import contacts.User;
+import database.DatabaseManager;
+import network.EventBus;
+import network.UDPObserver;
+import network.UDP.AnnouncePolicy;
+import network.UDP.Announcement;
+import network.UDP.AnnouncementFilter;
+import network.UDP.AnnounceScheduler;
+import network.UDP.Announcer;
+import network.UDP.BroadcastAnnouncer;
+import network.UDP.DiscoveryConfig;
+import network.UDP.MulticastAnnouncer;
+import network.UDP.PresenceService;
 import network.UDP.UDPSender;
+import network.UDP.UDPServer;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -18,19 +38,22 @@ class UDPTest {
     private DatagramSocket socket;
 
     /**
-     * Sets up the socket for UDP communication before each test.
+     * Sets up the socket for UDP communication and the database the active users are stored in before each test.
      */
     @BeforeEach
     void setUp() throws IOException {
         socket = new DatagramSocket(4445);
+        DatabaseManager.getInstance();
+        DatabaseManager.connect();
     }
 
     /**
-     * Closes the socket after each test.
+     * Closes the socket and forgets the peers met by the test, which the active user list also stored in the database.
      */
     @AfterEach
     void tearDown() {
         socket.close();
+        ActiveUserList.getInstance().clear();
     }
 
     /**
@@ -55,6 +78,302 @@ class UDPTest {
         assertEquals(message, receivedMessage);
     }
 
+    /**
+     * Tests that an announcement is handled and published on arrival, not at the end of a polling window.
+     */
+    @Test
+    void announcementPublishedOnArrival() throws Exception {
+        UDPServer server = new UDPServer(4446);
+        server.setPresence(new PresenceService(new VirtualTimer(0), AnnouncePolicy.DEFAULT, () -> { }, () -> { }));
+        server.start();
+        CompletableFuture<Long> appeared = new CompletableFuture<>();
+        UDPObserver observer = users -> {
+            if (users.stream().anyMatch(user -> user.getNickname().equals("newcomer"))) {
+                appeared.complete(System.nanoTime());
+            }
+        };
+        EventBus.Subscription subscription = EventBus.getInstance().subscribePresence(observer);
+        try {
+            long sent = System.nanoTime();
+            UDPSender.sendBroadcast(InetAddress.getLoopbackAddress(), 4446, "cs_nickname=newcomer");
+            long millis = TimeUnit.NANOSECONDS.toMillis(appeared.get(2, TimeUnit.SECONDS) - sent);
+            assertTrue(millis < 500, "appeared after " + millis + " ms");
+        } finally {
+            subscription.close();
+            server.close();
+        }
+    }
+
+    /**
+     * Tests that multicast announcements reach a listener that joined the groups, over each family that has an interface.
+     */
+    @Test
+    void multicastAnnouncerReachesListener() throws Exception {
+        testMulticast(InetAddress.getByName("239.255.67.83"));
+        InetAddress ipv6 = InetAddress.getByName("ff15::4353");
+        if (!MulticastAnnouncer.interfaces(ipv6).isEmpty()) {
+            testMulticast(ipv6);
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> DiscoveryConfig.multicast(4449, List.of(InetAddress.getByName("192.0.2.1")), 1));
+    }
+
+    private static void testMulticast(InetAddress group) throws Exception {
+        DiscoveryConfig discovery = DiscoveryConfig.multicast(4449, List.of(group), 1);
+        UDPServer server = new UDPServer(discovery, AnnouncePolicy.DEFAULT);
+        server.start();
+        try (Announcer announcer = discovery.announcer()) {
+            assertInstanceOf(MulticastAnnouncer.class, announcer);
+            announcer.announce(hello(new Random().nextLong() | 1, 1, "multicast"));
+            assertTrue(announcer.getTargets().stream().allMatch(target -> target.getAddress().equals(group)));
+            waitForPresence("multicast", true);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Tests that the announcer reaches a listener through the directed broadcast of the local interfaces,
+     * and keeps its channels between announces.
+     */
+    @Test
+    void announcerReachesListener() throws IOException {
+        try (BroadcastAnnouncer announcer = new BroadcastAnnouncer(4445)) {
+            announcer.announce("cs_nickname=announced");
+            List<InetSocketAddress> targets = announcer.getTargets();
+            assertFalse(targets.isEmpty());
+            assertTrue(targets.stream().allMatch(target -> target.getPort() == 4445));
+
+            socket.setSoTimeout(2000);
+            byte[] buffer = new byte[1024];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            socket.receive(packet);
+            assertEquals("cs_nickname=announced", new String(packet.getData(), 0, packet.getLength()));
+
+            announcer.announce("cs_nickname=announced");
+            assertEquals(targets, announcer.getTargets());
+        }
+    }
+
+    /**
+     * Tests that the announce interval keeps the network's packet rate bounded as the roster grows, within limits.
+     */
+    @Test
+    void announceIntervalScalesWithPeers() {
+        AnnouncePolicy policy = AnnouncePolicy.DEFAULT;
+        assertEquals(2000, policy.intervalMillis(0));
+        assertEquals(2000, policy.intervalMillis(99));
+        assertEquals(10000, policy.intervalMillis(499));
+        assertEquals(30000, policy.intervalMillis(5000));
+        for (int peers : new int[]{10, 100, 500, 1000}) {
+            // Packets per second of the whole network, this node included
+            double rate = (peers + 1) * 1000.0 / policy.intervalMillis(peers);
+            assertTrue(rate <= policy.targetPacketsPerSecond() + 1e-9, peers + " peers: " + rate + " packets/s");
+            assertTrue(policy.inactivityTimeoutMillis(peers) > policy.intervalMillis(peers) * (1 + policy.jitter()) * 2);
+        }
+
+        Random random = new Random(42);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.nextDelayMillis(0, random);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(min >= 1500 && max <= 2500, min + ".." + max);
+        assertTrue(max - min > 800, "delays not spread: " + min + ".." + max);
+    }
+
+    /**
+     * Tests that the scheduler announces periodically and on demand, and says goodbye when stopped.
+     */
+    @Test
+    void schedulerAnnouncesPeriodicallyAndOnChange() {
+        VirtualTimer timer = new VirtualTimer(0);
+        AtomicInteger announcements = new AtomicInteger();
+        AtomicInteger goodbyes = new AtomicInteger();
+        AnnounceScheduler scheduler = new AnnounceScheduler(timer, new AnnouncePolicy(100, 1000, 50, 0.25, 3),
+                announcements::incrementAndGet, goodbyes::incrementAndGet, () -> 0);
+        scheduler.start();
+        timer.advance(0);
+        assertEquals(1, announcements.get(), "announced at once on start");
+        timer.advance(10_000);
+        int periodic = announcements.get();
+        assertTrue(periodic >= 81 && periodic <= 135, "announcements in 10 s: " + periodic);
+
+        scheduler.announceNow();
+        timer.advance(0);
+        assertEquals(periodic + 1, announcements.get());
+
+        scheduler.stop();
+        assertEquals(1, goodbyes.get());
+        timer.advance(10_000);
+        assertEquals(periodic + 1, announcements.get());
+    }
+
+    /**
+     * Tests that the presence service expires silent users on its ticks, keeps announcing after an announcement
+     * failed, and releases its timer when stopped.
+     */
+    @Test
+    void presenceServiceOnVirtualClock() throws Exception {
+        VirtualTimer timer = new VirtualTimer(System.currentTimeMillis());
+        AtomicInteger announcements = new AtomicInteger();
+        PresenceService presence = new PresenceService(timer, AnnouncePolicy.DEFAULT, () -> {
+            if (announcements.incrementAndGet() == 2) {
+                throw new IllegalStateException("failing once");
+            }
+        }, () -> { });
+        User silent = new User("silent", InetAddress.getByName("192.0.2.10"));
+        silent.setLastSeen(timer.now());
+        ActiveUserList.addUser(silent);
+        try {
+            presence.start();
+            presence.startAnnouncing();
+            timer.advance(5_000);
+            assertTrue(ActiveUserList.nicknameUsed("silent"));
+            // Past the 7.5 s timeout of a node without peers, within a tick
+            timer.advance(2_600);
+            assertFalse(ActiveUserList.nicknameUsed("silent"));
+
+            timer.advance(60_000);
+            assertTrue(announcements.get() > 20, "announcements in 67 s: " + announcements.get());
+
+        } finally {
+            presence.stop();
+        }
+        assertTrue(timer.isShutdown());
+    }
+
+    /**
+     * Tests that thirty simulated peers on a lossy fabric all see each other, and mostly keep doing so.
+     */
+    @Test
+    void simulatedPeersConverge() throws Exception {
+        DiscoverySimulator simulator = new DiscoverySimulator(30, AnnouncePolicy.DEFAULT, 0.1, 5, 5, 5_000, 7);
+        DiscoverySimulator.Result result = simulator.run(60_000);
+        assertTrue(result.convergenceMillis() > 0 && result.convergenceMillis() < 15_000,
+                "converged after " + result.convergenceMillis() + " ms");
+        assertTrue(result.meanCoverage() > 0.99, "coverage " + result.meanCoverage());
+    }
+
+    /**
+     * Tests that on a lossless network no peer is ever taken offline while 300 nodes start, whether they start within
+     * 10 s or all together, and announce for two minutes.
+     */
+    @Test
+    void noFalseRemovalsWithoutLoss() throws Exception {
+        for (long startSpread : new long[]{10_000, 2_000}) {
+            DiscoverySimulator simulator = new DiscoverySimulator(300, AnnouncePolicy.DEFAULT, 0, 5, 5, startSpread, 1);
+            DiscoverySimulator.Result result = simulator.run(120_000);
+            assertEquals(0, result.expirations(), "peers removed with starts within " + startSpread + " ms");
+            assertEquals(1.0, result.minCoverage(), 0);
+        }
+    }
+
+    /**
+     * Tests that a peer saying goodbye leaves the roster at once.
+     */
+    @Test
+    void goodbyeRemovesPeer() throws Exception {
+        UDPServer server = new UDPServer(4447);
+        server.start();
+        try {
+            UDPSender.sendBroadcast(InetAddress.getLoopbackAddress(), 4447, "cs_nickname=leaving");
+            waitForPresence("leaving", true);
+            UDPSender.sendBroadcast(InetAddress.getLoopbackAddress(), 4447, "cs_bye=leaving");
+            waitForPresence("leaving", false);
+        } finally {
+            server.close();
+        }
+    }
+
+    private static ByteBuffer hello(long nodeId, long sequence, String nickname) {
+        return Announcement.encode(ByteBuffer.allocate(Announcement.MAX_SIZE), Announcement.HELLO, nodeId, sequence,
+                4500, 42, Announcement.nicknameBytes(nickname));
+    }
+
+    /**
+     * Tests that a binary announcement is read back with all its fields.
+     */
+    @Test
+    void binaryAnnouncementRoundTrip() {
+        AnnouncementFilter filter = new AnnouncementFilter();
+        ByteBuffer packet = hello(7, 1, "Zoé");
+        assertTrue(Announcement.isBinary(packet));
+        assertEquals(Announcement.HELLO, filter.accept(packet, 0));
+        assertEquals(7, filter.getNodeId());
+        assertEquals(1, filter.getSequence());
+        assertEquals(4500, filter.getTcpPort());
+        assertEquals(42, filter.getDigest());
+        assertEquals("Zoé", filter.getNickname());
+        assertEquals(0, packet.position());
+
+        assertFalse(Announcement.isBinary(ByteBuffer.wrap("cs_nickname=Zoé".getBytes())));
+        // Two bytes per character: cut to whole characters
+        assertEquals(254, Announcement.nicknameBytes("é".repeat(200)).length);
+    }
+
+    /**
+     * Tests that stale, duplicate and malformed announcements are rejected, each node on its own sequence.
+     */
+    @Test
+    void staleAndDuplicateAnnouncementsRejected() {
+        AnnouncementFilter filter = new AnnouncementFilter();
+        assertEquals(Announcement.HELLO, filter.accept(hello(1, 5, "a"), 0));
+        assertEquals(0, filter.accept(hello(1, 5, "a"), 0));
+        assertEquals(0, filter.accept(hello(1, 4, "a"), 0));
+        assertEquals(Announcement.HELLO, filter.accept(hello(2, 1, "b"), 0));
+        assertEquals(Announcement.HELLO, filter.accept(hello(1, 6, "a"), 0));
+
+        ByteBuffer truncated = hello(3, 1, "c");
+        assertEquals(0, filter.accept(truncated.limit(truncated.limit() - 1), 0));
+        assertEquals(0, filter.accept(hello(0, 1, "zero"), 0));
+
+        // Many nodes, so that the table grows
+        for (long node = 10; node < 1010; node++) {
+            assertEquals(Announcement.HELLO, filter.accept(hello(node, 1, "n" + node), 1));
+        }
+        assertEquals(0, filter.accept(hello(500, 1, "n500"), 2));
+        assertEquals(1002, filter.size());
+        filter.expire(1);
+        assertEquals(1000, filter.size());
+        assertEquals(Announcement.HELLO, filter.accept(hello(1, 1, "a"), 3));
+    }
+
+    /**
+     * Tests that an announcement of the old nickname arriving after a rename does not bring it back.
+     */
+    @Test
+    void renameFollowsSequenceNumbers() throws Exception {
+        UDPServer server = new UDPServer(4448);
+        server.start();
+        try (DatagramChannel channel = DatagramChannel.open()) {
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), 4448);
+            channel.send(hello(99, 1, "before"), target);
+            waitForPresence("before", true);
+            channel.send(hello(99, 3, "after"), target);
+            waitForPresence("after", true);
+            assertFalse(ActiveUserList.nicknameUsed("before"));
+            // Reordered on the way: older than the rename
+            channel.send(hello(99, 2, "before"), target);
+            channel.send(hello(99, 3, "before"), target);
+            Thread.sleep(200);
+            assertFalse(ActiveUserList.nicknameUsed("before"));
+            assertEquals(1, ActiveUserList.getActiveCount());
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void waitForPresence(String nickname, boolean present) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (ActiveUserList.nicknameUsed(nickname) != present && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(present, ActiveUserList.nicknameUsed(nickname));
+    }
+
     /**
      * Tests updating the list of active users.
      */
@@ -0,0 +1,101 @@
+package chatsystem.network;
+
+import network.UDP.PresenceTimer;
+
+import java.util.PriorityQueue;
+
+/**
+ * Presence timer on a virtual clock: tasks run in the thread calling advance, in the order of their due time,
+ * with the clock set to that time. Minutes of discovery run in milliseconds, and always the same way.
+ */
+public class VirtualTimer implements PresenceTimer {
+
+    private static final class Scheduled implements Task {
+        private final Runnable task;
+        private final long period;
+        private final long sequence;
+        private long due;
+        private boolean cancelled;
+
+        private Scheduled(Runnable task, long due, long period, long sequence) {
+            this.task = task;
+            this.due = due;
+            this.period = period;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final PriorityQueue<Scheduled> queue = new PriorityQueue<>((a, b) ->
+            a.due != b.due ? Long.compare(a.due, b.due) : Long.compare(a.sequence, b.sequence));
+    private long now;
+    private long sequence;
+    private boolean shutdown;
+
+    /**
+     * Creates a timer whose clock starts at the given time.
+     */
+    public VirtualTimer(long start) {
+        now = start;
+    }
+
+    @Override
+    public long now() {
+        return now;
+    }
+
+    @Override
+    public Task schedule(Runnable task, long delayMillis) {
+        return add(task, delayMillis, 0);
+    }
+
+    @Override
+    public Task scheduleAtFixedRate(Runnable task, long periodMillis) {
+        return add(task, periodMillis, periodMillis);
+    }
+
+    private Scheduled add(Runnable task, long delay, long period) {
+        Scheduled scheduled = new Scheduled(task, now + Math.max(0, delay), period, sequence++);
+        if (!shutdown) {
+            queue.add(scheduled);
+        }
+        return scheduled;
+    }
+
+    /**
+     * Moves the clock forward by the given time, running every task due meanwhile, including the ones they schedule.
+     */
+    public void advance(long millis) {
+        long target = now + millis;
+        while (!queue.isEmpty() && queue.peek().due <= target) {
+            Scheduled next = queue.poll();
+            if (next.cancelled) {
+                continue;
+            }
+            now = next.due;
+            next.task.run();
+            if (next.period > 0 && !next.cancelled && !shutdown) {
+                next.due += next.period;
+                queue.add(next);
+            }
+        }
+        now = target;
+    }
+
+    /**
+     * Returns whether shutdown was called.
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        queue.clear();
+    }
+}